@@ -0,0 +1,58 @@
+#!/bin/bash
+# Compare start-up time of the shaded JAR and the native executable.
+#
+# Usage: ./benchmark-startup.sh [iterations] [batch-id]
+#   Build both first: mvn package && mvn -Pnative package
+#   Without a batch id only --help is timed (no server access); with one, --status <batch-id>
+#   is timed as well, against the Kyuubi server from your usual configuration.
+
+set -e
+
+ITERATIONS=${1:-20}
+BATCH_ID=$2
+
+JAR_FILE=$(find target -maxdepth 1 -name "spark-submit-*.jar" ! -name "original-*.jar" | head -n 1)
+NATIVE_FILE=target/spark-submit
+
+if [ -z "$JAR_FILE" ] && [ ! -x "$NATIVE_FILE" ]; then
+    echo "Error: build the JAR (mvn package) and/or the native executable (mvn -Pnative package) first"
+    exit 1
+fi
+
+# Average wall-clock milliseconds of ITERATIONS runs of the given command
+measure() {
+    local total=0
+    local start end
+    for ((i = 0; i < ITERATIONS; i++)); do
+        start=$(date +%s%N)
+        "$@" > /dev/null 2>&1 || true
+        end=$(date +%s%N)
+        total=$((total + (end - start) / 1000000))
+    done
+    echo $((total / ITERATIONS))
+}
+
+run() {
+    local label=$1
+    shift
+    if command -v hyperfine > /dev/null 2>&1; then
+        hyperfine --warmup 2 --runs "$ITERATIONS" --ignore-failure -n "$label" "$*"
+    else
+        printf "%-28s %6s ms\n" "$label" "$(measure "$@")"
+    fi
+}
+
+echo "Start-up benchmark ($ITERATIONS runs each)"
+for mode in jar native; do
+    if [ "$mode" = "jar" ]; then
+        [ -n "$JAR_FILE" ] || continue
+        cmd=(java -jar "$JAR_FILE")
+    else
+        [ -x "$NATIVE_FILE" ] || continue
+        cmd=("$NATIVE_FILE")
+    fi
+    run "$mode --help" "${cmd[@]}" --help
+    if [ -n "$BATCH_ID" ]; then
+        run "$mode --status" "${cmd[@]}" --status "$BATCH_ID" --no-cache
+    fi
+done
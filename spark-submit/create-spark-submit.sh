@@ -3,6 +3,16 @@
 
 set -e
 
+# With --native, build a GraalVM native executable instead of the self-extracting JAR wrapper
+if [ "$1" = "--native" ]; then
+    echo "Building native executable (requires GraalVM native-image)..."
+    mvn clean package -Pnative -DskipTests
+    cp target/spark-submit spark-submit
+    chmod +x spark-submit
+    echo "Created native executable: spark-submit"
+    exit 0
+fi
+
 # Build the project first
 echo "Building the project..."
 mvn clean package -DskipTests
@@ -0,0 +1,347 @@
+package com.aliyun.emr.ack;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Client-side admission control for batch submissions.
+ *
+ * Submissions from every spark-submit process on this host wait in a shared, file-based
+ * priority queue under {@code <config dir>/admission}. A submission is admitted when a
+ * token-bucket rate limit has a permit and the submitting user has fewer than the configured
+ * number of PENDING batches on Kyuubi. Higher priorities are admitted first; equal priorities
+ * are admitted in arrival order. A user at their PENDING limit only holds up their own later
+ * submissions: the first submission of another user queued behind them may go ahead.
+ *
+ * Settings (all optional, admission is off unless a rate or pending limit is set):
+ * <pre>
+ *   spark.submit.admission.rate=2                   # submissions per second
+ *   spark.submit.admission.burst=10                 # token bucket size
+ *   spark.submit.admission.max-pending-per-user=20  # PENDING batches on Kyuubi
+ *   spark.submit.admission.default-priority=5       # 0 (lowest) .. 9 (highest)
+ *   spark.submit.admission.priority.&lt;queue&gt;=8       # default priority per queue
+ *   spark.submit.admission.max-wait=30m
+ *   spark.submit.admission.poll-interval=1s
+ * </pre>
+ */
+public class AdmissionController {
+    public static final int MIN_PRIORITY = 0;
+    public static final int MAX_PRIORITY = 9;
+
+    // Admitted submissions may not show up as PENDING on Kyuubi immediately; count them for a while
+    private static final long RECENT_ADMIT_WINDOW_MS = 15_000L;
+    private static final String RECENT_ADMITS = "recentAdmits.";
+    private static final String BLOCKED = "blocked.";
+    private static final Object LOCAL_LOCK = new Object();
+
+    private final KyuubiClient client;
+    private final double ratePerSecond;
+    private final double burst;
+    private final int maxPendingPerUser;
+    private final long maxWaitMs;
+    private final long pollIntervalMs;
+    private final Config config;
+    private final File dir;
+    private final File queueDir;
+
+    public AdmissionController(Config config, KyuubiClient client) {
+        this.config = config;
+        this.client = client;
+        this.ratePerSecond = Double.parseDouble(config.getProperty("spark.submit.admission.rate", "0"));
+        this.burst = Math.max(1, Double.parseDouble(config.getProperty("spark.submit.admission.burst",
+            String.valueOf(Math.max(1, Math.ceil(ratePerSecond))))));
+        this.maxPendingPerUser = config.getIntProperty("spark.submit.admission.max-pending-per-user", 0);
+        this.maxWaitMs = TimeUtils.parseDuration(config.getProperty("spark.submit.admission.max-wait", "30m"));
+        this.pollIntervalMs = TimeUtils.parseDuration(config.getProperty("spark.submit.admission.poll-interval", "1s"));
+        this.dir = new File(config.getConfigDir(), "admission");
+        this.queueDir = new File(dir, "queue");
+    }
+
+    public boolean isEnabled() {
+        return ratePerSecond > 0 || maxPendingPerUser > 0;
+    }
+
+    /**
+     * Priority for a submission: explicit --priority, else per-queue default, else global default
+     */
+    public int resolvePriority(SparkSubmitArgs args) {
+        Integer priority = args.getPriority();
+        if (priority == null && args.getQueue() != null) {
+            String queuePriority = config.getProperty("spark.submit.admission.priority." + args.getQueue(), null);
+            if (queuePriority != null) {
+                priority = Integer.parseInt(queuePriority.trim());
+            }
+        }
+        if (priority == null) {
+            priority = config.getIntProperty("spark.submit.admission.default-priority", 5);
+        }
+        return Math.max(MIN_PRIORITY, Math.min(MAX_PRIORITY, priority));
+    }
+
+    /**
+     * Block until the submission is admitted. The user is the Kyuubi user the batch runs as.
+     */
+    public void acquire(String user, int priority) throws IOException, InterruptedException {
+        if (!isEnabled()) {
+            return;
+        }
+        if (!queueDir.isDirectory() && !queueDir.mkdirs()) {
+            throw new IOException("Cannot create admission directory: " + queueDir);
+        }
+        // Sort key: higher priority first, then arrival time
+        String ticketName = String.format("%d-%013d-%s.ticket", MAX_PRIORITY - priority,
+            System.currentTimeMillis(), UUID.randomUUID().toString().substring(0, 8));
+        File ticket = new File(queueDir, ticketName);
+        if (!ticket.createNewFile()) {
+            throw new IOException("Failed to enqueue admission ticket: " + ticket);
+        }
+        // The user is recorded so other submissions can tell whose PENDING limit holds it up
+        Files.write(ticket.toPath(), user.getBytes(StandardCharsets.UTF_8));
+
+        long start = System.currentTimeMillis();
+        boolean announced = false;
+        try {
+            while (true) {
+                String reason = tryAdmit(ticket, user);
+                if (reason == null) {
+                    long waited = System.currentTimeMillis() - start;
+                    if (announced) {
+                        System.out.println("Admitted after " + TimeUtils.formatDuration(waited));
+                    }
+                    return;
+                }
+                if (!announced) {
+                    System.out.println("Waiting for admission (priority " + priority + "): " + reason);
+                    announced = true;
+                }
+                if (System.currentTimeMillis() - start > maxWaitMs) {
+                    throw new IOException("Not admitted within " + TimeUtils.formatDuration(maxWaitMs)
+                        + " (last reason: " + reason + ")");
+                }
+                Thread.sleep(pollIntervalMs);
+                // Heartbeat so other processes do not treat this ticket as abandoned
+                ticket.setLastModified(System.currentTimeMillis());
+            }
+        } finally {
+            ticket.delete();
+        }
+    }
+
+    /**
+     * One admission attempt. Returns null when admitted, otherwise the reason for waiting.
+     */
+    private String tryAdmit(File ticket, String user) throws IOException {
+        String queued = underLock(ticket, user, () -> null);
+        if (queued != null) {
+            return queued;
+        }
+        // Only an eligible ticket counts, and outside the lock: the request may take up to the
+        // socket timeout
+        long sampledAt = System.currentTimeMillis();
+        int pending = maxPendingPerUser > 0 ? countPending(user) : 0;
+        return underLock(ticket, user, () -> admit(ticket, user, pending, sampledAt));
+    }
+
+    private interface LockedAction {
+        String run() throws IOException;
+    }
+
+    /**
+     * Run the action under the cross-process lock if the ticket may be admitted now; returns the
+     * action's result, or the reason for waiting when it may not
+     */
+    private String underLock(File ticket, String user, LockedAction action) throws IOException {
+        synchronized (LOCAL_LOCK) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, "lock"), "rw");
+                 FileChannel channel = lockFile.getChannel()) {
+                FileLock lock = channel.lock();
+                try {
+                    // Waiting for the lock or a count is no sign of abandonment: refresh the ticket,
+                    // re-creating it under its original name (and queue position) if it was removed
+                    if (!ticket.setLastModified(System.currentTimeMillis())) {
+                        if (!ticket.createNewFile()) {
+                            throw new IOException("Failed to refresh admission ticket: " + ticket);
+                        }
+                        Files.write(ticket.toPath(), user.getBytes(StandardCharsets.UTF_8));
+                    }
+                    String ahead = firstEligible(ticket.getName(), user, loadState());
+                    if (ahead != null && !ahead.equals(ticket.getName())) {
+                        return "queued behind higher-priority or earlier submissions";
+                    }
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Take a rate-limit permit and check the pending limit; called under the lock by an eligible
+     * ticket with the user's PENDING count sampled at {@code sampledAt}
+     */
+    private String admit(File ticket, String user, int pendingOnServer, long sampledAt) throws IOException {
+        long now = System.currentTimeMillis();
+        Properties state = loadState();
+        pruneState(state, now);
+        List<Long> recentAdmits = parseRecentAdmits(state.getProperty(RECENT_ADMITS + user, ""), now);
+
+        double tokens = burst;
+        if (ratePerSecond > 0) {
+            double stored = Double.parseDouble(state.getProperty("tokens", String.valueOf(burst)));
+            long lastRefill = Long.parseLong(state.getProperty("lastRefill", String.valueOf(now)));
+            tokens = Math.min(burst, stored + (now - lastRefill) / 1000.0 * ratePerSecond);
+            if (tokens < 1) {
+                state.setProperty("tokens", String.valueOf(tokens));
+                state.setProperty("lastRefill", String.valueOf(now));
+                saveState(state);
+                return "rate limit of " + ratePerSecond + "/s reached";
+            }
+        }
+
+        if (maxPendingPerUser > 0) {
+            // This user's admissions after the count was sampled cannot be in it yet
+            int pending = pendingOnServer;
+            for (long admit : recentAdmits) {
+                if (admit >= sampledAt) {
+                    pending++;
+                }
+            }
+            if (pending >= maxPendingPerUser) {
+                // Let other users' submissions pass this one while the limit holds
+                state.setProperty(BLOCKED + user, String.valueOf(now));
+                saveState(state);
+                return pending + " PENDING batches for user " + user
+                    + " (limit " + maxPendingPerUser + ")";
+            }
+        }
+
+        if (ratePerSecond > 0) {
+            state.setProperty("tokens", String.valueOf(tokens - 1));
+            state.setProperty("lastRefill", String.valueOf(now));
+        }
+        recentAdmits.add(now);
+        StringBuilder sb = new StringBuilder();
+        for (Long admit : recentAdmits) {
+            sb.append(sb.length() > 0 ? "," : "").append(admit);
+        }
+        state.setProperty(RECENT_ADMITS + user, sb.toString());
+        state.remove(BLOCKED + user);
+        saveState(state);
+        ticket.delete();
+        return null;
+    }
+
+    /**
+     * First live ticket in queue order that may be admitted ahead of the caller's: tickets of
+     * users held at their PENDING limit are passed over, except the caller's own user's, which
+     * stay in order. Tickets whose owner stopped heartbeating are removed, except the caller's.
+     */
+    private String firstEligible(String own, String ownUser, Properties state) {
+        String[] names = queueDir.list((d, name) -> name.endsWith(".ticket"));
+        if (names == null || names.length == 0) {
+            return null;
+        }
+        Arrays.sort(names);
+        long staleBefore = System.currentTimeMillis() - staleAfterMs();
+        for (String name : names) {
+            File file = new File(queueDir, name);
+            if (name.equals(own)) {
+                return name;
+            }
+            if (file.lastModified() < staleBefore) {
+                file.delete();
+                continue;
+            }
+            String user;
+            try {
+                user = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                // Removed since the listing
+                continue;
+            }
+            if (user.equals(ownUser) || !isBlocked(state, user, staleBefore)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A user is held at their PENDING limit while their waiting ticket keeps finding it reached
+     */
+    private static boolean isBlocked(Properties state, String user, long staleBefore) {
+        String since = state.getProperty(BLOCKED + user);
+        return since != null && Long.parseLong(since) >= staleBefore;
+    }
+
+    private long staleAfterMs() {
+        return Math.max(10_000L, pollIntervalMs * 5);
+    }
+
+    /**
+     * Drop expired per-user entries so users who stopped submitting do not accumulate
+     */
+    private void pruneState(Properties state, long now) {
+        for (String key : state.stringPropertyNames()) {
+            String value = state.getProperty(key);
+            if (key.startsWith(BLOCKED) && Long.parseLong(value) < now - staleAfterMs()) {
+                state.remove(key);
+            } else if (key.startsWith(RECENT_ADMITS) && parseRecentAdmits(value, now).isEmpty()) {
+                state.remove(key);
+            }
+        }
+        // Written by earlier versions for all users together
+        state.remove("recentAdmits");
+    }
+
+    private int countPending(String user) throws IOException {
+        KyuubiClient.BatchListResponse response = client.listBatches(null, user, "PENDING", null, 0, maxPendingPerUser + 1);
+        if (response.getBatches() != null) {
+            return response.getBatches().size();
+        }
+        return response.getTotal() != null ? response.getTotal() : 0;
+    }
+
+    private static List<Long> parseRecentAdmits(String value, long now) {
+        List<Long> admits = new ArrayList<>();
+        for (String s : value.split(",")) {
+            if (!s.trim().isEmpty()) {
+                long t = Long.parseLong(s.trim());
+                if (now - t < RECENT_ADMIT_WINDOW_MS) {
+                    admits.add(t);
+                }
+            }
+        }
+        return admits;
+    }
+
+    private Properties loadState() throws IOException {
+        Properties props = new Properties();
+        File file = new File(dir, "state.properties");
+        if (file.isFile()) {
+            try (FileInputStream fis = new FileInputStream(file)) {
+                props.load(fis);
+            }
+        }
+        return props;
+    }
+
+    private void saveState(Properties props) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(new File(dir, "state.properties"))) {
+            props.store(fos, "spark-submit admission state");
+        }
+    }
+}
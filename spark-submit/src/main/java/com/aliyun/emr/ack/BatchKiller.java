@@ -0,0 +1,113 @@
+package com.aliyun.emr.ack;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Kills every live batch matching a selector, issuing DELETE requests concurrently
+ */
+public class BatchKiller {
+    private static final int LIST_PAGE_SIZE = 100;
+
+    private final KyuubiClient client;
+
+    public BatchKiller(KyuubiClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Page through the batch list and collect live batches matching the selector
+     */
+    public List<KyuubiClient.BatchResponse> findMatching(BatchSelector selector) throws IOException {
+        List<KyuubiClient.BatchResponse> matched = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            KyuubiClient.BatchListResponse page = client.listBatches(null, selector.getUser(),
+                selector.getServerSideState(), selector.getCreatedAfter(), from, LIST_PAGE_SIZE);
+            List<KyuubiClient.BatchResponse> batches = page.getBatches();
+            if (batches == null || batches.isEmpty()) {
+                break;
+            }
+            for (KyuubiClient.BatchResponse batch : batches) {
+                if (!batch.isFinished() && selector.matches(batch)) {
+                    matched.add(batch);
+                }
+            }
+            from += batches.size();
+            if (batches.size() < LIST_PAGE_SIZE || (page.getTotal() != null && from >= page.getTotal())) {
+                break;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Kill all matching batches with at most {@code parallelism} requests in flight.
+     * Returns the process exit code: 0 when every kill succeeded, 1 otherwise.
+     */
+    public int killAll(BatchSelector selector, int parallelism, boolean dryRun) throws IOException {
+        long start = System.currentTimeMillis();
+        List<KyuubiClient.BatchResponse> matched = findMatching(selector);
+
+        System.out.println("Selector: " + selector);
+        System.out.println("Matched " + matched.size() + " live batch(es)");
+        if (matched.isEmpty()) {
+            return 0;
+        }
+
+        if (dryRun) {
+            for (KyuubiClient.BatchResponse batch : matched) {
+                System.out.println("  [dry-run] " + describe(batch));
+            }
+            System.out.println("Dry run: no batches were killed.");
+            return 0;
+        }
+
+        int threads = Math.max(1, Math.min(parallelism, matched.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<String>> futures = new ArrayList<>();
+        try {
+            for (final KyuubiClient.BatchResponse batch : matched) {
+                futures.add(executor.submit(() -> {
+                    client.killBatch(batch.getId());
+                    return batch.getId();
+                }));
+            }
+
+            int killed = 0;
+            List<String> failures = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                KyuubiClient.BatchResponse batch = matched.get(i);
+                try {
+                    futures.get(i).get();
+                    killed++;
+                    System.out.println("  Killed " + describe(batch));
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    failures.add(batch.getId() + ": " + cause.getMessage());
+                    System.err.println("  Failed to kill " + describe(batch) + ": " + cause.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while killing batches", e);
+                }
+            }
+
+            System.out.println("------------------------------------------");
+            System.out.println("Kill summary: " + killed + " killed, " + failures.size() + " failed, "
+                + matched.size() + " matched (" + TimeUtils.formatDuration(System.currentTimeMillis() - start)
+                + ", parallelism " + threads + ")");
+            return failures.isEmpty() ? 0 : 1;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String describe(KyuubiClient.BatchResponse batch) {
+        return batch.getId() + " (" + batch.getName() + ", user=" + batch.getUser() + ", state=" + batch.getState() + ")";
+    }
+}
@@ -0,0 +1,133 @@
+package com.aliyun.emr.ack;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Criteria for selecting batches by name glob, user, state and creation time
+ */
+public class BatchSelector {
+    private String nameGlob;
+    private Pattern namePattern;
+    private String user;
+    private Set<String> states = new HashSet<>();
+    private Long createdAfter;
+    
+    public String getNameGlob() {
+        return nameGlob;
+    }
+    
+    public void setNameGlob(String nameGlob) {
+        this.nameGlob = nameGlob;
+        this.namePattern = nameGlob != null ? globToPattern(nameGlob) : null;
+    }
+    
+    public String getUser() {
+        return user;
+    }
+    
+    public void setUser(String user) {
+        this.user = user;
+    }
+    
+    public Set<String> getStates() {
+        return states;
+    }
+    
+    /**
+     * Set accepted states from a comma-separated list, e.g. PENDING,RUNNING
+     */
+    public void setStates(String commaSeparated) {
+        states = new HashSet<>();
+        if (commaSeparated == null) {
+            return;
+        }
+        for (String state : commaSeparated.split(",")) {
+            String trimmed = state.trim();
+            if (!trimmed.isEmpty()) {
+                states.add(trimmed.toUpperCase(Locale.ROOT));
+            }
+        }
+    }
+    
+    public Long getCreatedAfter() {
+        return createdAfter;
+    }
+    
+    public void setCreatedAfter(Long createdAfter) {
+        this.createdAfter = createdAfter;
+    }
+    
+    /**
+     * Whether any criterion is set; an empty selector would match every batch
+     */
+    public boolean isEmpty() {
+        return nameGlob == null && user == null && states.isEmpty() && createdAfter == null;
+    }
+    
+    /**
+     * The single state that can be pushed down to the server-side filter, if any
+     */
+    public String getServerSideState() {
+        return states.size() == 1 ? states.iterator().next() : null;
+    }
+    
+    public boolean matches(KyuubiClient.BatchResponse batch) {
+        if (namePattern != null && (batch.getName() == null || !namePattern.matcher(batch.getName()).matches())) {
+            return false;
+        }
+        if (user != null && !user.equals(batch.getUser())) {
+            return false;
+        }
+        if (!states.isEmpty() && (batch.getState() == null || !states.contains(batch.getState()))) {
+            return false;
+        }
+        if (createdAfter != null && (batch.getCreateTime() == null || batch.getCreateTime() < createdAfter)) {
+            return false;
+        }
+        return true;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (nameGlob != null) {
+            sb.append("name=").append(nameGlob).append(' ');
+        }
+        if (user != null) {
+            sb.append("user=").append(user).append(' ');
+        }
+        if (!states.isEmpty()) {
+            sb.append("state=").append(String.join(",", states)).append(' ');
+        }
+        if (createdAfter != null) {
+            sb.append("created-after=").append(java.time.Instant.ofEpochMilli(createdAfter)).append(' ');
+        }
+        return sb.toString().trim();
+    }
+    
+    /**
+     * Translate a shell-style glob (* and ?) into an anchored regex
+     */
+    static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,264 @@
+package com.aliyun.emr.ack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Routes submissions across several Kyuubi/ACK clusters, each described by a cluster profile:
+ * <pre>
+ *   spark.submit.cluster.hz.url=http://kyuubi-hz:10099
+ *   spark.submit.cluster.hz.username=alice                 (default: kyuubi.server.username)
+ *   spark.submit.cluster.hz.password=...                   (default: kyuubi.server.password)
+ *   spark.submit.cluster.hz.history-server-url=http://shs-hz:18080
+ *   spark.submit.cluster.hz.queues=default,etl             (only these --queue values)
+ *   spark.submit.cluster.hz.capacity=200                   (live batches it is sized for)
+ *   spark.submit.cluster.hz.max-pending=50                 (full at this many PENDING)
+ *   spark.submit.routing.timeout=5s
+ * </pre>
+ * Candidates are the clusters named with --cluster (all profiles by default) that serve the
+ * job's queue. Each candidate's live RUNNING and PENDING batches are counted; headroom is the
+ * declared capacity minus those batches, or just their negated sum when no capacity is
+ * declared, so declare capacities for all clusters or for none. Clusters at their pending limit
+ * or unreachable are skipped. When the duplicate policy is not allow, a job whose previous batch
+ * with the same fingerprint is still live goes to that batch's cluster so it can be found.
+ *
+ * The cluster of every routed batch is recorded under {@code <config dir>/routes}, so --status,
+ * --logs and --kill go to the right cluster.
+ */
+public class ClusterRouter {
+    private static final String PREFIX = "spark.submit.cluster.";
+    private static final int COUNT_PAGE_SIZE = 500;
+    private static final int MAX_COUNT = 10000;
+    private static final long ROUTE_RETENTION_MS = TimeUnit.DAYS.toMillis(30);
+
+    private final Config config;
+    private final File dir;
+
+    /**
+     * The chosen cluster and why
+     */
+    public static class Route {
+        private final String name;
+        private final Config config;
+        private final String reason;
+
+        Route(String name, Config config, String reason) {
+            this.name = name;
+            this.config = config;
+            this.reason = reason;
+        }
+
+        public String getName() { return name; }
+        public Config getConfig() { return config; }
+        public String getReason() { return reason; }
+    }
+
+    private static class Load {
+        final int running;
+        final int pending;
+
+        Load(int running, int pending) {
+            this.running = running;
+            this.pending = pending;
+        }
+    }
+
+    public ClusterRouter(Config config) {
+        this.config = config;
+        this.dir = new File(config.getConfigDir(), "routes");
+    }
+
+    public boolean isEnabled() {
+        return !config.getClusterNames().isEmpty();
+    }
+
+    /**
+     * Pick the cluster for a submission; {@code previousBatchId} is the last batch submitted
+     * with the same fingerprint, or null
+     */
+    public Route route(SparkSubmitArgs args, String previousBatchId) throws IOException {
+        List<String> candidates = new ArrayList<>();
+        for (String name : args.getClusters().isEmpty() ? config.getClusterNames() : args.getClusters()) {
+            Config cluster = config.forCluster(name);
+            List<String> queues = csv(cluster.getProperty(PREFIX + name + ".queues", ""));
+            if (args.getQueue() == null || args.getQueue().isEmpty() || queues.isEmpty()
+                || queues.contains(args.getQueue())) {
+                candidates.add(name);
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new IOException("No cluster serves queue " + args.getQueue()
+                + (args.getClusters().isEmpty() ? "" : " among " + String.join(", ", args.getClusters())));
+        }
+        if (candidates.size() == 1) {
+            return new Route(candidates.get(0), config.forCluster(candidates.get(0)),
+                args.getClusters().isEmpty() ? "only cluster serving the queue" : "--cluster");
+        }
+
+        // Stay with a live batch of the same job so duplicate detection can see it
+        String previousCluster = previousBatchId != null ? clusterOf(previousBatchId) : null;
+        if (previousCluster != null && candidates.contains(previousCluster)) {
+            Config cluster = config.forCluster(previousCluster);
+            KyuubiClient client = new KyuubiClient(cluster);
+            try {
+                if (!client.getBatch(previousBatchId).isFinished()) {
+                    return new Route(previousCluster, cluster,
+                        "live batch " + previousBatchId + " has the same fingerprint");
+                }
+            } catch (IOException e) {
+                // Unknown there any more: route by load
+            } finally {
+                client.close();
+            }
+        }
+
+        Map<String, Load> loads = measure(candidates);
+        String best = null;
+        long bestHeadroom = Long.MIN_VALUE;
+        boolean bestFull = true;
+        List<String> report = new ArrayList<>();
+        for (String name : candidates) {
+            Load load = loads.get(name);
+            if (load == null) {
+                report.add(name + " unreachable");
+                continue;
+            }
+            int capacity = config.getIntProperty(PREFIX + name + ".capacity", 0);
+            int maxPending = config.getIntProperty(PREFIX + name + ".max-pending", 0);
+            long headroom = capacity > 0 ? capacity - load.running - load.pending : -(load.running + load.pending);
+            boolean full = maxPending > 0 && load.pending >= maxPending;
+            report.add(name + " " + load.running + " running/" + load.pending + " pending"
+                + (capacity > 0 ? ", headroom " + headroom : "") + (full ? " (full)" : ""));
+            // Prefer clusters that are not full, then the most headroom; ties go to the first
+            if (best == null || (bestFull && !full) || (bestFull == full && headroom > bestHeadroom)) {
+                best = name;
+                bestHeadroom = headroom;
+                bestFull = full;
+            }
+        }
+        if (best == null) {
+            throw new IOException("No cluster reachable: " + String.join(", ", candidates));
+        }
+        return new Route(best, config.forCluster(best),
+            (bestFull ? "all clusters full, least loaded; " : "most headroom; ") + String.join(", ", report));
+    }
+
+    /**
+     * Count live batches on every candidate at once; unreachable clusters are left out
+     */
+    private Map<String, Load> measure(List<String> candidates) throws IOException {
+        long timeoutMs = TimeUtils.parseDuration(config.getProperty("spark.submit.routing.timeout", "5s"));
+        ExecutorService executor = Executors.newFixedThreadPool(candidates.size(), r -> {
+            Thread thread = new Thread(r, "spark-submit-routing");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, Future<Load>> futures = new LinkedHashMap<>();
+        for (String name : candidates) {
+            Config cluster = config.forCluster(name);
+            futures.put(name, executor.submit(() -> {
+                KyuubiClient client = new KyuubiClient(cluster);
+                try {
+                    return new Load(count(client, "RUNNING"), count(client, "PENDING"));
+                } finally {
+                    client.close();
+                }
+            }));
+        }
+        Map<String, Load> loads = new LinkedHashMap<>();
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            for (Map.Entry<String, Future<Load>> entry : futures.entrySet()) {
+                try {
+                    long wait = Math.max(0, deadline - System.currentTimeMillis());
+                    loads.put(entry.getKey(), entry.getValue().get(wait, TimeUnit.MILLISECONDS));
+                } catch (ExecutionException | TimeoutException e) {
+                    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    System.err.println("Warning: Cannot get the load of cluster " + entry.getKey() + ": "
+                        + (cause.getMessage() != null ? cause.getMessage() : "timed out"));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while measuring cluster load");
+        } finally {
+            executor.shutdownNow();
+        }
+        return loads;
+    }
+
+    private static int count(KyuubiClient client, String state) throws IOException {
+        int count = 0;
+        while (count < MAX_COUNT) {
+            KyuubiClient.BatchListResponse page = client.listBatches(null, null, state, null, count, COUNT_PAGE_SIZE);
+            int size = page.getBatches() != null ? page.getBatches().size() : 0;
+            count += size;
+            if (size < COUNT_PAGE_SIZE) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Cluster a batch was routed to, or null if it was not routed
+     */
+    public String clusterOf(String batchId) {
+        File entry = new File(dir, batchId);
+        if (!entry.isFile()) {
+            return null;
+        }
+        try {
+            String name = new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8).trim();
+            return name.isEmpty() ? null : name;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Record where a batch was routed; old records are pruned
+     */
+    public void record(String batchId, String cluster) {
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                return;
+            }
+            File tmp = File.createTempFile(batchId, ".tmp", dir);
+            Files.write(tmp.toPath(), cluster.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), new File(dir, batchId).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long cutoff = System.currentTimeMillis() - ROUTE_RETENTION_MS;
+            File[] entries = dir.listFiles(f -> f.lastModified() < cutoff);
+            for (File old : entries != null ? entries : new File[0]) {
+                old.delete();
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Failed to record the cluster of batch " + batchId + ": " + e.getMessage());
+        }
+    }
+
+    private static List<String> csv(String value) {
+        List<String> items = new ArrayList<>();
+        for (String item : Arrays.asList(value.split(","))) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+}
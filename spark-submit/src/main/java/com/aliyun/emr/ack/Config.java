@@ -3,16 +3,23 @@ package com.aliyun.emr.ack;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 /**
  * Configuration manager for Kyuubi server connection
  */
 public class Config {
     private static final String DEFAULT_CONFIG_FILE = System.getProperty("user.home") + "/.spark-submit.conf";
+    private static final String DEFAULT_CONFIG_DIR = System.getProperty("user.home") + "/.spark-submit.d";
     private static final String DEFAULT_SERVER_URL = "http://localhost:10099";
     private static final String DEFAULT_USERNAME = "kyuubi-server";
     private static final String DEFAULT_PASSWORD = "kyuubi-server";
+    private static final int DEFAULT_MAX_CONNECTIONS = 32;
+    private static final String CLUSTER_PREFIX = "spark.submit.cluster.";
     
     private String serverUrl;
     private String username;
@@ -20,6 +27,8 @@ public class Config {
     private String sparkHistoryServerUrl;
     private boolean usingDefaultConfig;
     private String configFile;
+    private String clusterName;
+    private Properties props = new Properties();
     
     public Config() {
         loadConfig();
@@ -29,6 +38,56 @@ public class Config {
         loadConfig(configFile);
     }
     
+    private Config(Config other) {
+        this.serverUrl = other.serverUrl;
+        this.username = other.username;
+        this.password = other.password;
+        this.sparkHistoryServerUrl = other.sparkHistoryServerUrl;
+        this.usingDefaultConfig = other.usingDefaultConfig;
+        this.configFile = other.configFile;
+        this.props = other.props;
+    }
+    
+    /**
+     * Names of the cluster profiles (spark.submit.cluster.&lt;name&gt;.url), in name order
+     */
+    public List<String> getClusterNames() {
+        List<String> names = new ArrayList<>();
+        for (String key : getPropertiesWithPrefix(CLUSTER_PREFIX).keySet()) {
+            if (key.endsWith(".url")) {
+                names.add(key.substring(0, key.length() - ".url".length()));
+            }
+        }
+        return names;
+    }
+    
+    /**
+     * The same settings pointed at a cluster profile; connection settings the profile does not
+     * set fall back to the top-level ones
+     */
+    public Config forCluster(String name) throws IOException {
+        String prefix = CLUSTER_PREFIX + name + ".";
+        String url = getProperty(prefix + "url", null);
+        if (url == null || url.trim().isEmpty()) {
+            throw new IOException("Unknown cluster: " + name + " (configured: " + String.join(", ", getClusterNames()) + ")");
+        }
+        Config cluster = new Config(this);
+        cluster.clusterName = name;
+        cluster.serverUrl = url.trim();
+        cluster.username = getProperty(prefix + "username", username);
+        cluster.password = getProperty(prefix + "password", password);
+        cluster.sparkHistoryServerUrl = getProperty(prefix + "history-server-url", sparkHistoryServerUrl);
+        cluster.usingDefaultConfig = false;
+        return cluster;
+    }
+    
+    /**
+     * Cluster profile this config points at, or null for the top-level server
+     */
+    public String getClusterName() {
+        return clusterName;
+    }
+    
     private void loadConfig() {
         loadConfig(DEFAULT_CONFIG_FILE);
     }
@@ -36,6 +95,7 @@ public class Config {
     private void loadConfig(String configFile) {
         this.configFile = configFile;
         Properties props = new Properties();
+        this.props = props;
         File file = new File(configFile);
         boolean configFileExists = file.exists();
         
@@ -127,6 +187,68 @@ public class Config {
         return sparkHistoryServerUrl;
     }
     
+    /**
+     * Look up an optional client setting: system property first, then config file
+     */
+    public String getProperty(String key, String defaultValue) {
+        String propValue = System.getProperty(key);
+        if (propValue != null) {
+            return propValue;
+        }
+        return props.getProperty(key, defaultValue);
+    }
+    
+    /**
+     * All settings under a prefix (config file, overridden by system properties), keyed by the
+     * rest of the key
+     */
+    public Map<String, String> getPropertiesWithPrefix(String prefix) {
+        Map<String, String> result = new TreeMap<>();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                result.put(key.substring(prefix.length()), props.getProperty(key));
+            }
+        }
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                result.put(key.substring(prefix.length()), System.getProperty(key));
+            }
+        }
+        return result;
+    }
+    
+    public int getIntProperty(String key, int defaultValue) {
+        String value = getProperty(key, null);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Warning: Invalid integer for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * Directory for profiles, caches and other client-side state (spark.submit.config.dir,
+     * SPARK_SUBMIT_CONF_DIR, default ~/.spark-submit.d)
+     */
+    public String getConfigDir() {
+        String propDir = System.getProperty("spark.submit.config.dir");
+        String envDir = System.getenv("SPARK_SUBMIT_CONF_DIR");
+        String fileDir = props.getProperty("spark.submit.config.dir");
+        return propDir != null ? propDir :
+            (envDir != null ? envDir : (fileDir != null ? fileDir : DEFAULT_CONFIG_DIR));
+    }
+    
+    /**
+     * Maximum pooled HTTP connections to the Kyuubi server (kyuubi.client.max.connections)
+     */
+    public int getMaxConnections() {
+        return Math.max(1, getIntProperty("kyuubi.client.max.connections", DEFAULT_MAX_CONNECTIONS));
+    }
+    
     public String getBaseUrl() {
         String url = serverUrl;
         if (!url.endsWith("/")) {
@@ -0,0 +1,457 @@
+package com.aliyun.emr.ack;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a workflow of dependent batches, submitting every ready job up to a parallelism limit
+ * and tracking all of them from one process.
+ *
+ * Workflow file (JSON):
+ * <pre>
+ * {
+ *   "name": "daily-sales",
+ *   "maxParallel": 4,
+ *   "jobs": [
+ *     {"name": "extract", "args": ["--class", "com.example.Extract", "oss://bucket/etl.jar"]},
+ *     {"name": "clean", "dependsOn": ["extract"], "args": ["--class", "com.example.Clean", "oss://bucket/etl.jar"]},
+ *     {"name": "report", "dependsOn": ["clean"], "args": ["--profile", "low-latency", "oss://bucket/report.py"]}
+ *   ]
+ * }
+ * </pre>
+ * {@code args} accepts the same options as the command line. Progress is saved under
+ * {@code <config dir>/dag/<name>.state.json}; with resume, finished jobs are skipped and jobs
+ * that were still running are re-attached to their batch.
+ */
+public class DagRunner {
+    private static final int POLL_INTERVAL_MS = 2000;
+    private static final int DEFAULT_MAX_PARALLEL = 4;
+    /** Status fetch failures in a row before a job is given up on, as when following one batch */
+    private static final int MAX_CONSECUTIVE_ERRORS = 5;
+
+    static final String WAITING = "WAITING";
+    static final String RUNNING = "RUNNING";
+    static final String FINISHED = "FINISHED";
+    static final String FAILED = "FAILED";
+    static final String SKIPPED = "SKIPPED";
+
+    private final Config config;
+    private final KyuubiClient client;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    public DagRunner(Config config, KyuubiClient client) {
+        this.config = config;
+        this.client = client;
+    }
+
+    /**
+     * Workflow file model
+     */
+    public static class Workflow {
+        private String name;
+        private Integer maxParallel;
+        private List<Job> jobs = new ArrayList<>();
+
+        public String getName() { return name; }
+        public Integer getMaxParallel() { return maxParallel; }
+        public List<Job> getJobs() { return jobs; }
+    }
+
+    public static class Job {
+        private String name;
+        private List<String> args = new ArrayList<>();
+        private List<String> dependsOn = new ArrayList<>();
+
+        public String getName() { return name; }
+        public List<String> getArgs() { return args; }
+        public List<String> getDependsOn() { return dependsOn != null ? dependsOn : new ArrayList<>(); }
+    }
+
+    /**
+     * Persisted per-job progress
+     */
+    public static class JobState {
+        private String state = WAITING;
+        private String batchId;
+        private Long startTime;
+        private Long endTime;
+        private String message;
+    }
+
+    public static Workflow load(String path) throws IOException {
+        File file = new File(path);
+        Workflow workflow;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            workflow = new Gson().fromJson(reader, Workflow.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid workflow file " + path + ": " + e.getMessage(), e);
+        }
+        if (workflow == null || workflow.jobs == null || workflow.jobs.isEmpty()) {
+            throw new IOException("Workflow file has no jobs: " + path);
+        }
+        if (workflow.name == null || workflow.name.isEmpty()) {
+            String base = file.getName();
+            workflow.name = base.contains(".") ? base.substring(0, base.lastIndexOf('.')) : base;
+        }
+        // The name becomes the state file name under the config directory
+        if (!workflow.name.matches("[A-Za-z0-9._-]+")) {
+            throw new IOException("Invalid workflow name: " + workflow.name + " in " + path);
+        }
+        validate(workflow);
+        return workflow;
+    }
+
+    /**
+     * Check names are unique, dependencies exist and there are no cycles
+     */
+    static void validate(Workflow workflow) throws IOException {
+        Map<String, Job> byName = new HashMap<>();
+        for (Job job : workflow.jobs) {
+            if (job.name == null || job.name.isEmpty()) {
+                throw new IOException("Every workflow job needs a name");
+            }
+            if (byName.put(job.name, job) != null) {
+                throw new IOException("Duplicate job name in workflow: " + job.name);
+            }
+        }
+        Map<String, Integer> inDegree = new HashMap<>();
+        for (Job job : workflow.jobs) {
+            for (String dep : job.getDependsOn()) {
+                if (!byName.containsKey(dep)) {
+                    throw new IOException("Job " + job.name + " depends on unknown job " + dep);
+                }
+            }
+            inDegree.put(job.name, job.getDependsOn().size());
+        }
+        Deque<String> ready = new ArrayDeque<>();
+        inDegree.forEach((name, degree) -> {
+            if (degree == 0) {
+                ready.add(name);
+            }
+        });
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            visited++;
+            for (Job job : workflow.jobs) {
+                if (job.getDependsOn().contains(name) && inDegree.merge(job.name, -1, Integer::sum) == 0) {
+                    ready.add(job.name);
+                }
+            }
+        }
+        if (visited != workflow.jobs.size()) {
+            throw new IOException("Workflow has a dependency cycle");
+        }
+    }
+
+    /**
+     * Run the workflow; returns the process exit code (0 when every job finished)
+     */
+    public int run(Workflow workflow, int maxParallelOverride, boolean resume)
+            throws IOException, InterruptedException {
+        int maxParallel = maxParallelOverride > 0 ? maxParallelOverride
+            : (workflow.maxParallel != null && workflow.maxParallel > 0 ? workflow.maxParallel : DEFAULT_MAX_PARALLEL);
+        File stateFile = new File(new File(config.getConfigDir(), "dag"), workflow.name + ".state.json");
+        Map<String, JobState> states = initStates(workflow, stateFile, resume);
+        AdmissionController admission = new AdmissionController(config, client);
+
+        System.out.println("==========================================");
+        System.out.println("Running workflow: " + workflow.name + " (" + workflow.jobs.size()
+            + " jobs, max parallel " + maxParallel + ")");
+        System.out.println("State file: " + stateFile);
+        System.out.println("==========================================");
+        save(stateFile, states);
+
+        Preflight preflight = new Preflight(config);
+        RunHistory runHistory = new RunHistory(config);
+        Map<String, RunHistory.Run> runs = new HashMap<>();
+        Map<String, Watchdog> watchdogs = new HashMap<>();
+        Map<String, Integer> statusErrors = new HashMap<>();
+        for (Job job : workflow.jobs) {
+            // Jobs re-attached on resume keep their limits, timed from the batch's own create time
+            if (RUNNING.equals(states.get(job.name).state)) {
+                try {
+                    Watchdog watchdog = new Watchdog(config, SparkSubmitParser.parse(job.args.toArray(new String[0])));
+                    if (watchdog.isEnabled()) {
+                        watchdogs.put(job.name, watchdog);
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("[" + job.name + "] Warning: cannot apply time limits: " + e.getMessage());
+                }
+            }
+        }
+        JobFingerprint fingerprints = new JobFingerprint(config);
+        StatusCache statusCache = new StatusCache(config);
+        try {
+            while (true) {
+                int running = 0;
+                for (JobState state : states.values()) {
+                    if (RUNNING.equals(state.state)) {
+                        running++;
+                    }
+                }
+
+                // Submit every ready job while capacity allows
+                for (Job job : workflow.jobs) {
+                    if (running >= maxParallel) {
+                        break;
+                    }
+                    JobState state = states.get(job.name);
+                    if (!WAITING.equals(state.state) || !dependenciesFinished(job, states)) {
+                        continue;
+                    }
+                    try {
+                        SparkSubmitArgs submitArgs = SparkSubmitParser.parse(job.args.toArray(new String[0]));
+                        String error = SparkSubmit.validateSubmission(submitArgs);
+                        if (error != null) {
+                            throw new IOException(error);
+                        }
+                        if (submitArgs.getName() == null || submitArgs.getName().isEmpty()) {
+                            submitArgs.setName(workflow.name + "-" + job.name);
+                        }
+                        SparkSubmit.prepareSubmission(config, submitArgs);
+                        if (preflight.isEnabled() && !submitArgs.isSkipPreflight() && !preflight.check(submitArgs)) {
+                            throw new IOException("preflight checks failed");
+                        }
+                        String fingerprint = submitArgs.getConf().get(JobFingerprint.LABEL_KEY);
+                        JobFingerprint.Policy policy = fingerprints.resolvePolicy(submitArgs);
+                        KyuubiClient.BatchResponse response = policy == JobFingerprint.Policy.ALLOW
+                            ? null : fingerprints.findLive(client, statusCache, fingerprint);
+                        if (response != null && policy == JobFingerprint.Policy.REFUSE) {
+                            throw new IOException("batch " + response.getId() + " with the same fingerprint is still "
+                                + response.getState());
+                        } else if (response != null && policy == JobFingerprint.Policy.WARN) {
+                            System.err.println("[" + job.name + "] Warning: batch " + response.getId()
+                                + " with the same fingerprint is still " + response.getState() + "; submitting anyway");
+                            response = null;
+                        }
+                        if (response != null) {
+                            // Attached jobs are timed from their first poll, like jobs re-attached on resume
+                            System.out.println("[" + job.name + "] attached to live Batch ID: " + response.getId());
+                        } else {
+                            if (admission.isEnabled()) {
+                                admission.acquire(SparkSubmit.effectiveUser(config, submitArgs),
+                                    admission.resolvePriority(submitArgs));
+                            }
+                            long submitStart = System.currentTimeMillis();
+                            response = client.submitBatch(submitArgs);
+                            fingerprints.remember(fingerprint, response.getId());
+                            RunHistory.Run run = new RunHistory.Run(submitArgs.getName(), submitArgs.getQueue());
+                            run.submitted(response, submitStart);
+                            runs.put(job.name, run);
+                            System.out.println("[" + job.name + "] submitted, Batch ID: " + response.getId());
+                        }
+                        Watchdog watchdog = new Watchdog(config, submitArgs);
+                        if (watchdog.isEnabled()) {
+                            watchdogs.put(job.name, watchdog);
+                        }
+                        state.state = RUNNING;
+                        state.batchId = response.getId();
+                        state.startTime = System.currentTimeMillis();
+                        state.message = null;
+                        running++;
+                    } catch (IOException | RuntimeException e) {
+                        markFailed(workflow, states, job.name, "submission failed: " + e.getMessage());
+                    }
+                    save(stateFile, states);
+                }
+
+                if (running == 0) {
+                    break;
+                }
+                Thread.sleep(POLL_INTERVAL_MS);
+
+                // Track all running jobs
+                for (Job job : workflow.jobs) {
+                    JobState state = states.get(job.name);
+                    if (!RUNNING.equals(state.state)) {
+                        continue;
+                    }
+                    KyuubiClient.BatchResponse status;
+                    try {
+                        status = client.getBatch(state.batchId);
+                        statusErrors.remove(job.name);
+                    } catch (IOException e) {
+                        int errors = statusErrors.merge(job.name, 1, Integer::sum);
+                        if (errors >= MAX_CONSECUTIVE_ERRORS) {
+                            // Deleted batch or a long outage: stop waiting so the workflow can end
+                            statusErrors.remove(job.name);
+                            markFailed(workflow, states, job.name, "status unavailable after " + errors
+                                + " consecutive errors: " + e.getMessage());
+                            save(stateFile, states);
+                        } else {
+                            System.err.println("[" + job.name + "] Warning: could not fetch status: " + e.getMessage());
+                        }
+                        continue;
+                    }
+                    // Jobs re-attached on resume are timed from their first poll
+                    RunHistory.Run run = runs.computeIfAbsent(job.name, k -> new RunHistory.Run());
+                    run.observe(status, System.currentTimeMillis());
+                    Watchdog watchdog = watchdogs.get(job.name);
+                    if (watchdog != null && !status.isFinished()) {
+                        long now = System.currentTimeMillis();
+                        watchdog.observe(status, now);
+                        String reason = watchdog.check(now);
+                        if (reason != null) {
+                            try {
+                                client.killBatch(state.batchId);
+                            } catch (IOException e) {
+                                System.err.println("[" + job.name + "] Warning: kill failed: " + e.getMessage());
+                            }
+                            runHistory.record(run);
+                            state.endTime = now;
+                            markFailed(workflow, states, job.name, "killed, " + reason + " ("
+                                + watchdog.phaseSummary(now) + ")");
+                            save(stateFile, states);
+                            continue;
+                        }
+                    }
+                    if (!status.isFinished()) {
+                        continue;
+                    }
+                    runHistory.record(run);
+                    state.endTime = System.currentTimeMillis();
+                    if ("FINISHED".equals(status.getState())) {
+                        state.state = FINISHED;
+                        System.out.println("[" + job.name + "] finished ("
+                            + TimeUtils.formatDuration(state.endTime - state.startTime) + ")");
+                    } else {
+                        String diagnostic = status.getAppDiagnostic() != null && !status.getAppDiagnostic().trim().isEmpty()
+                            ? ": " + firstLine(status.getAppDiagnostic()) : "";
+                        markFailed(workflow, states, job.name, "batch ended in " + status.getState() + diagnostic);
+                    }
+                    save(stateFile, states);
+                }
+            }
+
+        } finally {
+            preflight.close();
+        }
+
+        return printSummary(workflow, states, stateFile);
+    }
+
+    private Map<String, JobState> initStates(Workflow workflow, File stateFile, boolean resume) throws IOException {
+        Map<String, JobState> saved = new HashMap<>();
+        if (resume && stateFile.isFile()) {
+            try (Reader reader = Files.newBufferedReader(stateFile.toPath(), StandardCharsets.UTF_8)) {
+                Map<String, JobState> loaded = gson.fromJson(reader,
+                    new com.google.gson.reflect.TypeToken<Map<String, JobState>>() { }.getType());
+                if (loaded != null) {
+                    saved = loaded;
+                }
+            }
+        } else if (resume) {
+            System.err.println("Warning: no saved state for workflow " + workflow.name + ", starting from scratch");
+        }
+
+        Map<String, JobState> states = new LinkedHashMap<>();
+        for (Job job : workflow.jobs) {
+            JobState previous = saved.get(job.name);
+            JobState state = new JobState();
+            if (previous != null && FINISHED.equals(previous.state)) {
+                state = previous;
+                System.out.println("[" + job.name + "] already finished, skipping");
+            } else if (previous != null && RUNNING.equals(previous.state) && previous.batchId != null) {
+                state = previous;
+                System.out.println("[" + job.name + "] re-attaching to Batch ID: " + previous.batchId);
+            }
+            states.put(job.name, state);
+        }
+        return states;
+    }
+
+    private static boolean dependenciesFinished(Job job, Map<String, JobState> states) {
+        for (String dep : job.getDependsOn()) {
+            if (!FINISHED.equals(states.get(dep).state)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mark a job failed and every job downstream of it skipped
+     */
+    private static void markFailed(Workflow workflow, Map<String, JobState> states, String name, String message) {
+        JobState failed = states.get(name);
+        failed.state = FAILED;
+        failed.message = message;
+        if (failed.endTime == null) {
+            failed.endTime = System.currentTimeMillis();
+        }
+        System.err.println("[" + name + "] FAILED: " + message);
+
+        Deque<String> downstream = new ArrayDeque<>();
+        downstream.add(name);
+        while (!downstream.isEmpty()) {
+            String current = downstream.poll();
+            for (Job job : workflow.jobs) {
+                JobState state = states.get(job.name);
+                if (job.getDependsOn().contains(current) && WAITING.equals(state.state)) {
+                    state.state = SKIPPED;
+                    state.message = "upstream " + name + " failed";
+                    System.err.println("[" + job.name + "] skipped (upstream " + name + " failed)");
+                    downstream.add(job.name);
+                }
+            }
+        }
+    }
+
+    private int printSummary(Workflow workflow, Map<String, JobState> states, File stateFile) {
+        System.out.println("\n------------------------------------------");
+        System.out.println("Workflow summary: " + workflow.name);
+        boolean allFinished = true;
+        for (Job job : workflow.jobs) {
+            JobState state = states.get(job.name);
+            String duration = state.startTime != null && state.endTime != null
+                ? TimeUtils.formatDuration(state.endTime - state.startTime) : "-";
+            System.out.println(String.format("  %-24s %-9s %-38s %s%s", job.name, state.state,
+                state.batchId != null ? state.batchId : "-", duration,
+                state.message != null ? "  " + state.message : ""));
+            allFinished &= FINISHED.equals(state.state);
+        }
+        System.out.println("------------------------------------------");
+        if (allFinished) {
+            System.out.println("✅ Workflow completed successfully!");
+            return 0;
+        }
+        System.out.println("❌ Workflow did not complete. Fix the failure and resume with:");
+        System.out.println("   spark-submit --dag <workflow file> --resume");
+        System.out.println("   (state: " + stateFile + ")");
+        return 1;
+    }
+
+    private void save(File stateFile, Map<String, JobState> states) throws IOException {
+        File dir = stateFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create workflow state directory: " + dir);
+        }
+        File tmp = new File(dir, stateFile.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            gson.toJson(states, writer);
+        }
+        Files.move(tmp.toPath(), stateFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String firstLine(String text) {
+        String trimmed = text.trim();
+        int newline = trimmed.indexOf('\n');
+        return newline > 0 ? trimmed.substring(0, newline) : trimmed;
+    }
+}
@@ -0,0 +1,130 @@
+package com.aliyun.emr.ack;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Writes machine-readable JSON-lines events (one JSON object per line) for --output jsonl.
+ *
+ * Every event carries {@code event}, {@code timestamp} (epoch ms) and {@code batchId}; batch
+ * events also carry the full {@code batch} as returned by Kyuubi.
+ * <ul>
+ *   <li>{@code submitted} - batch accepted by Kyuubi</li>
+ *   <li>{@code state} - state transition, with {@code from} and {@code to}</li>
+ *   <li>{@code logs} - a batch of driver log lines that passed the log filters, in {@code lines}</li>
+ *   <li>{@code completed} - terminal state reached, with {@code exitCode}</li>
+ *   <li>{@code timeout} - the batch was killed for exceeding a run limit, with {@code reason}</li>
+ *   <li>{@code aborted} - the batch was killed by a fail-fast rule, with {@code reason} and {@code lines}</li>
+ *   <li>{@code retry} - a failed attempt is resubmitted, with {@code failure} and conf {@code changes}</li>
+ *   <li>{@code status} - result of --status</li>
+ *   <li>{@code rows} - a page of --sql result rows, with {@code columns} and {@code rows}</li>
+ *   <li>{@code statement} - a --sql statement finished, with {@code state} and {@code rows}</li>
+ *   <li>{@code error} - the client failed, with {@code message}</li>
+ * </ul>
+ */
+public class EventWriter {
+    private final PrintStream out;
+    private final Gson gson = new Gson();
+
+    public EventWriter(PrintStream out) {
+        this.out = out;
+    }
+
+    public void submitted(KyuubiClient.BatchResponse batch, String applicationUrl) {
+        JsonObject event = batchEvent("submitted", batch);
+        addOptional(event, "applicationUrl", applicationUrl);
+        emit(event);
+    }
+
+    public void stateChanged(KyuubiClient.BatchResponse batch, String from, String to) {
+        JsonObject event = batchEvent("state", batch);
+        addOptional(event, "from", from);
+        addOptional(event, "to", to);
+        emit(event);
+    }
+
+    public void logs(String batchId, List<String> lines) {
+        JsonObject event = base("logs", batchId);
+        event.add("lines", gson.toJsonTree(lines));
+        emit(event);
+    }
+
+    public void completed(KyuubiClient.BatchResponse batch, String applicationUrl, int exitCode, long elapsedMs) {
+        JsonObject event = batchEvent("completed", batch);
+        addOptional(event, "applicationUrl", applicationUrl);
+        event.addProperty("exitCode", exitCode);
+        event.addProperty("elapsedMs", elapsedMs);
+        emit(event);
+    }
+
+    public void aborted(String batchId, String rule, String reason, List<String> lines, int exitCode) {
+        JsonObject event = base("aborted", batchId);
+        addOptional(event, "rule", rule);
+        addOptional(event, "reason", reason);
+        event.add("lines", gson.toJsonTree(lines));
+        event.addProperty("exitCode", exitCode);
+        emit(event);
+    }
+
+    public void retry(String batchId, int attempt, String failure, List<String> changes) {
+        JsonObject event = base("retry", batchId);
+        event.addProperty("attempt", attempt);
+        addOptional(event, "failure", failure);
+        event.add("changes", gson.toJsonTree(changes));
+        emit(event);
+    }
+
+    public void status(KyuubiClient.BatchResponse batch, String applicationUrl) {
+        JsonObject event = batchEvent("status", batch);
+        addOptional(event, "applicationUrl", applicationUrl);
+        emit(event);
+    }
+
+    public void error(String batchId, String message) {
+        JsonObject event = base("error", batchId);
+        addOptional(event, "message", message);
+        emit(event);
+    }
+
+    /**
+     * Emit a custom event with extra fields
+     */
+    public void event(String name, String batchId, JsonObject fields) {
+        JsonObject event = base(name, batchId);
+        if (fields != null) {
+            for (java.util.Map.Entry<String, JsonElement> entry : fields.entrySet()) {
+                event.add(entry.getKey(), entry.getValue());
+            }
+        }
+        emit(event);
+    }
+
+    private JsonObject base(String name, String batchId) {
+        JsonObject event = new JsonObject();
+        event.addProperty("event", name);
+        event.addProperty("timestamp", System.currentTimeMillis());
+        addOptional(event, "batchId", batchId);
+        return event;
+    }
+
+    private JsonObject batchEvent(String name, KyuubiClient.BatchResponse batch) {
+        JsonObject event = base(name, batch.getId());
+        event.add("batch", gson.toJsonTree(batch));
+        return event;
+    }
+
+    private static void addOptional(JsonObject event, String key, String value) {
+        if (value != null) {
+            event.addProperty(key, value);
+        }
+    }
+
+    private synchronized void emit(JsonObject event) {
+        out.println(gson.toJson(event));
+        out.flush();
+    }
+}
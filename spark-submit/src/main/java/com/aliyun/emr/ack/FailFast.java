@@ -0,0 +1,220 @@
+package com.aliyun.emr.ack;
+
+import java.time.LocalDateTime;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Fail-fast rules evaluated against driver log lines: when a pattern matches often enough within
+ * a time window, the batch is considered doomed and can be killed early instead of waiting for
+ * Spark to exhaust its stage retries.
+ *
+ * A rule is {@code [count[/window]:]regex}; without a count, one match fires. Rules come from
+ * --fail-on (repeatable) and from the config file, where the key suffix names the rule:
+ * <pre>
+ *   spark.submit.fail-fast.pattern.fetch-failed=5/2m:FetchFailedException
+ *   spark.submit.fail-fast.pattern.oom=java\.lang\.OutOfMemoryError
+ *   spark.submit.fail-fast.pattern.container-killed=3/10m:Container killed
+ * </pre>
+ * Windows use the timestamp at the start of the log line (yyyy-MM-dd HH:mm:ss or Spark's default
+ * yy/MM/dd HH:mm:ss), so a backlog of old lines fetched at once is judged by when it was logged.
+ * Log timestamps carry no zone; they are read in the driver's zone, UTC unless configured:
+ * <pre>
+ *   spark.submit.fail-fast.log-zone=Asia/Shanghai
+ * </pre>
+ * Lines without a timestamp (stack traces, multi-line messages) take the time of the last
+ * timestamped line before them; only lines before the first timestamp use the time they were
+ * received. Patterns are compiled once and their matchers reused for every line.
+ */
+public class FailFast {
+    /** Exit code after the batch was killed by a fail-fast rule */
+    public static final int EXIT_ABORTED = 4;
+
+    private static final String CONFIG_PREFIX = "spark.submit.fail-fast.pattern.";
+    private static final String LOG_ZONE = "spark.submit.fail-fast.log-zone";
+    private static final Pattern RULE = Pattern.compile("(\\d+)(?:/(\\d+(?:ms|s|m|h|d)))?:(.+)", Pattern.DOTALL);
+    private static final Pattern LINE_TIME =
+        Pattern.compile("^(\\d{4}-\\d{2}-\\d{2}|\\d{2}/\\d{2}/\\d{2})[ T](\\d{2}:\\d{2}:\\d{2})");
+    private static final DateTimeFormatter LONG_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter SHORT_DATE = DateTimeFormatter.ofPattern("yy/MM/dd HH:mm:ss");
+    private static final int MAX_REPORTED_LINES = 10;
+
+    private final List<Rule> rules = new ArrayList<>();
+    private final Matcher lineTime = LINE_TIME.matcher("");
+    private final ZoneId logZone;
+    private long lastLineTime = -1;
+
+    private static class Rule {
+        final String name;
+        final String spec;
+        final Matcher matcher;
+        final int count;
+        final long windowMs;
+        final ArrayDeque<Match> matches = new ArrayDeque<>();
+
+        Rule(String name, String spec, Matcher matcher, int count, long windowMs) {
+            this.name = name;
+            this.spec = spec;
+            this.matcher = matcher;
+            this.count = count;
+            this.windowMs = windowMs;
+        }
+    }
+
+    private static class Match {
+        final long time;
+        final String line;
+
+        Match(long time, String line) {
+            this.time = time;
+            this.line = line;
+        }
+    }
+
+    /**
+     * A rule that fired, with the lines that matched it (the most recent ones when there are many)
+     */
+    public static class Trigger {
+        private final String rule;
+        private final String description;
+        private final List<String> lines;
+
+        Trigger(String rule, String description, List<String> lines) {
+            this.rule = rule;
+            this.description = description;
+            this.lines = lines;
+        }
+
+        public String getRule() { return rule; }
+        public String getDescription() { return description; }
+        public List<String> getLines() { return lines; }
+    }
+
+    public FailFast(Config config, List<String> specs) {
+        String zone = config.getProperty(LOG_ZONE, "UTC").trim();
+        try {
+            logZone = ZoneId.of(zone);
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Invalid " + LOG_ZONE + ": " + zone);
+        }
+        for (Map.Entry<String, String> entry : config.getPropertiesWithPrefix(CONFIG_PREFIX).entrySet()) {
+            if (!entry.getValue().trim().isEmpty()) {
+                rules.add(parse(entry.getKey(), entry.getValue().trim()));
+            }
+        }
+        for (String spec : specs) {
+            rules.add(parse("fail-on-" + (rules.size() + 1), spec));
+        }
+    }
+
+    /**
+     * Parse {@code [count[/window]:]regex}
+     */
+    static Rule parse(String name, String spec) {
+        int count = 1;
+        long windowMs = 0;
+        String regex = spec;
+        Matcher m = RULE.matcher(spec);
+        if (m.matches()) {
+            count = Integer.parseInt(m.group(1));
+            windowMs = m.group(2) != null ? TimeUtils.parseDuration(m.group(2)) : 0;
+            regex = m.group(3);
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException("Invalid fail-fast rule " + name + ": count must be at least 1");
+        }
+        try {
+            return new Rule(name, spec, Pattern.compile(regex).matcher(""), count, windowMs);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid fail-fast rule " + name + ": " + e.getDescription());
+        }
+    }
+
+    public boolean isEnabled() {
+        return !rules.isEmpty();
+    }
+
+    /**
+     * Evaluate one log line received at {@code now}; returns the rule that fired, or null
+     */
+    public Trigger offer(String line, long now) {
+        // Every line moves the log clock, so continuation lines can inherit it even when they
+        // are the ones that match
+        long parsed = parseTime(line);
+        if (parsed >= 0) {
+            lastLineTime = parsed;
+        }
+        long time = lastLineTime >= 0 ? lastLineTime : now;
+        for (Rule rule : rules) {
+            if (!rule.matcher.reset(line).find()) {
+                continue;
+            }
+            rule.matches.addLast(new Match(time, line));
+            if (rule.windowMs > 0) {
+                prune(rule, time);
+            }
+            if (rule.matches.size() >= rule.count) {
+                String description = rule.name + " (" + rule.spec + "): " + rule.matches.size()
+                    + (rule.matches.size() == 1 ? " match" : " matches")
+                    + (rule.windowMs > 0 ? " within " + TimeUtils.formatDuration(rule.windowMs) : "");
+                List<String> lines = new ArrayList<>();
+                for (Match match : rule.matches) {
+                    lines.add(match.line);
+                }
+                return new Trigger(rule.name, description,
+                    lines.subList(Math.max(0, lines.size() - MAX_REPORTED_LINES), lines.size()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drop matches until the retained ones fit in one window. Log times are not always ordered
+     * (several executors, clock skew), so the earliest or the latest match goes, whichever is
+     * farther from the line just matched at {@code time}.
+     */
+    private static void prune(Rule rule, long time) {
+        while (rule.matches.size() > 1) {
+            Match earliest = null;
+            Match latest = null;
+            for (Match match : rule.matches) {
+                if (earliest == null || match.time < earliest.time) {
+                    earliest = match;
+                }
+                if (latest == null || match.time > latest.time) {
+                    latest = match;
+                }
+            }
+            if (latest.time - earliest.time <= rule.windowMs) {
+                return;
+            }
+            rule.matches.removeFirstOccurrence(time - earliest.time >= latest.time - time ? earliest : latest);
+        }
+    }
+
+    /**
+     * Time at the start of a log line in the log zone, or -1 if it has none
+     */
+    private long parseTime(String line) {
+        Matcher m = lineTime.reset(line);
+        if (!m.find()) {
+            return -1;
+        }
+        try {
+            DateTimeFormatter format = m.group(1).length() == 10 ? LONG_DATE : SHORT_DATE;
+            return LocalDateTime.parse(m.group(1) + " " + m.group(2), format)
+                .atZone(logZone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.aliyun.emr.ack;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * gzip/deflate support for the Kyuubi REST client, with byte counters.
+ *
+ * Responses: every request advertises {@code Accept-Encoding: gzip, deflate} and compressed
+ * responses are decompressed as they are read, counting bytes both on the wire and after
+ * decoding. Requests: bodies can be gzip-compressed up front (only when the server is known to
+ * accept compressed requests, since Jetty does not inflate them by default).
+ */
+public class HttpCompression {
+    private final TransferStats stats = new TransferStats();
+
+    /**
+     * Bytes transferred and saved by compression; safe to update from several threads
+     */
+    public static class TransferStats {
+        private final AtomicLong responseWireBytes = new AtomicLong();
+        private final AtomicLong responseDecodedBytes = new AtomicLong();
+        private final AtomicLong compressedResponses = new AtomicLong();
+        private final AtomicLong requestRawBytes = new AtomicLong();
+        private final AtomicLong requestWireBytes = new AtomicLong();
+
+        public long getResponseWireBytes() { return responseWireBytes.get(); }
+        public long getResponseDecodedBytes() { return responseDecodedBytes.get(); }
+        public long getCompressedResponses() { return compressedResponses.get(); }
+        public long getRequestRawBytes() { return requestRawBytes.get(); }
+        public long getRequestWireBytes() { return requestWireBytes.get(); }
+
+        public long getBytesSaved() {
+            return Math.max(0, responseDecodedBytes.get() - responseWireBytes.get())
+                + Math.max(0, requestRawBytes.get() - requestWireBytes.get());
+        }
+
+        /**
+         * e.g. "received 120.0K for 1.2M of responses (90% saved), sent 3.1K for 12.0K (74% saved)"
+         */
+        public String summary() {
+            StringBuilder sb = new StringBuilder("received ")
+                .append(SizeUtils.format(responseWireBytes.get())).append(" for ")
+                .append(SizeUtils.format(responseDecodedBytes.get())).append(" of responses")
+                .append(saved(responseWireBytes.get(), responseDecodedBytes.get()));
+            if (requestRawBytes.get() > 0) {
+                sb.append(", sent ").append(SizeUtils.format(requestWireBytes.get())).append(" for ")
+                    .append(SizeUtils.format(requestRawBytes.get()))
+                    .append(saved(requestWireBytes.get(), requestRawBytes.get()));
+            }
+            return sb.toString();
+        }
+
+        private static String saved(long wire, long raw) {
+            return raw > 0 && wire < raw ? " (" + (100 * (raw - wire) / raw) + "% saved)" : "";
+        }
+    }
+
+    public TransferStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Adds Accept-Encoding unless the request already sets it
+     */
+    public HttpRequestInterceptor acceptEncoding() {
+        return (request, context) -> {
+            if (!request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+                request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+            }
+        };
+    }
+
+    /**
+     * Wraps response entities so they are decoded while streaming and counted
+     */
+    public HttpResponseInterceptor decodeResponses() {
+        return (response, context) -> {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return;
+            }
+            HttpEntity wire = new CountingEntity(entity, stats.responseWireBytes);
+            String encoding = contentEncoding(entity);
+            if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+                stats.compressedResponses.incrementAndGet();
+                response.setEntity(new CountingEntity(new GzipDecompressingEntity(wire), stats.responseDecodedBytes));
+                stripEncodingHeaders(response);
+            } else if ("deflate".equals(encoding)) {
+                stats.compressedResponses.incrementAndGet();
+                response.setEntity(new CountingEntity(new DeflateDecompressingEntity(wire), stats.responseDecodedBytes));
+                stripEncodingHeaders(response);
+            } else if (encoding == null || "identity".equals(encoding)) {
+                response.setEntity(new CountingEntity(wire, stats.responseDecodedBytes));
+            }
+        };
+    }
+
+    /**
+     * JSON request body, gzip-compressed when {@code compress} is set and that makes it smaller.
+     * A resend of the same body ({@code retry}) only adds to the bytes on the wire.
+     */
+    public HttpEntity jsonEntity(String json, boolean compress, boolean retry) throws IOException {
+        byte[] raw = json.getBytes(StandardCharsets.UTF_8);
+        if (!retry) {
+            stats.requestRawBytes.addAndGet(raw.length);
+        }
+        if (compress) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(raw.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                gzip.write(raw);
+            }
+            byte[] compressed = buffer.toByteArray();
+            if (compressed.length < raw.length) {
+                stats.requestWireBytes.addAndGet(compressed.length);
+                ByteArrayEntity entity = new ByteArrayEntity(compressed, ContentType.APPLICATION_JSON);
+                entity.setContentEncoding("gzip");
+                return entity;
+            }
+        }
+        stats.requestWireBytes.addAndGet(raw.length);
+        return new ByteArrayEntity(raw, ContentType.APPLICATION_JSON);
+    }
+
+    private static String contentEncoding(HttpEntity entity) {
+        Header header = entity.getContentEncoding();
+        if (header == null) {
+            return null;
+        }
+        HeaderElement[] elements = header.getElements();
+        return elements.length > 0 ? elements[0].getName().toLowerCase(Locale.ROOT) : null;
+    }
+
+    private static void stripEncodingHeaders(org.apache.http.HttpResponse response) {
+        response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+        response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+        response.removeHeaders(HttpHeaders.CONTENT_MD5);
+    }
+
+    /**
+     * Entity whose content stream adds every byte read to a counter
+     */
+    private static class CountingEntity extends HttpEntityWrapper {
+        private final AtomicLong counter;
+
+        CountingEntity(HttpEntity entity, AtomicLong counter) {
+            super(entity);
+            this.counter = counter;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        counter.incrementAndGet();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int n = super.read(buffer, offset, length);
+                    if (n > 0) {
+                        counter.addAndGet(n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return wrappedEntity.isStreaming();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.aliyun.emr.ack;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Object store client that checks resources with plain HTTP HEAD requests.
+ *
+ * http:// and https:// URIs are requested as-is. oss:// URIs are mapped to
+ * {@code https://<bucket>.<endpoint>/<key>} and signed with the OSS header signature when
+ * credentials are available; they are only supported once an endpoint is configured:
+ * <pre>
+ *   spark.submit.preflight.oss.endpoint=oss-cn-hangzhou.aliyuncs.com   (or OSS_ENDPOINT)
+ *   spark.submit.preflight.oss.access-key-id=...                       (or OSS_ACCESS_KEY_ID)
+ *   spark.submit.preflight.oss.access-key-secret=...                   (or OSS_ACCESS_KEY_SECRET)
+ *   spark.submit.preflight.oss.security-token=...                      (or OSS_SESSION_TOKEN, optional)
+ * </pre>
+ */
+public class HttpObjectStoreClient implements ObjectStoreClient {
+    private static final DateTimeFormatter HTTP_DATE =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
+    private final CloseableHttpClient httpClient;
+    private final String ossEndpoint;
+    private final String accessKeyId;
+    private final String accessKeySecret;
+    private final String securityToken;
+
+    public HttpObjectStoreClient(Config config) {
+        int timeoutMs = (int) TimeUtils.parseDuration(config.getProperty("spark.submit.preflight.timeout", "5s"));
+        int maxConnections = Math.max(1, config.getIntProperty("spark.submit.preflight.threads", 16));
+        this.httpClient = HttpClients.custom()
+            .setMaxConnTotal(maxConnections)
+            .setMaxConnPerRoute(maxConnections)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(timeoutMs)
+                .setConnectionRequestTimeout(timeoutMs)
+                .setSocketTimeout(timeoutMs)
+                .build())
+            .build();
+        this.ossEndpoint = setting(config, "spark.submit.preflight.oss.endpoint", "OSS_ENDPOINT");
+        this.accessKeyId = setting(config, "spark.submit.preflight.oss.access-key-id", "OSS_ACCESS_KEY_ID");
+        this.accessKeySecret = setting(config, "spark.submit.preflight.oss.access-key-secret", "OSS_ACCESS_KEY_SECRET");
+        this.securityToken = setting(config, "spark.submit.preflight.oss.security-token", "OSS_SESSION_TOKEN");
+    }
+
+    private static String setting(Config config, String key, String envName) {
+        String value = config.getProperty(key, null);
+        if (value == null || value.trim().isEmpty()) {
+            value = System.getenv(envName);
+        }
+        return value != null && !value.trim().isEmpty() ? value.trim() : null;
+    }
+
+    @Override
+    public boolean supports(String uri) {
+        String lower = uri.toLowerCase(Locale.ROOT);
+        return lower.startsWith("http://") || lower.startsWith("https://")
+            || (lower.startsWith("oss://") && ossEndpoint != null);
+    }
+
+    @Override
+    public Status head(String uri) throws IOException {
+        HttpHead request;
+        if (uri.toLowerCase(Locale.ROOT).startsWith("oss://")) {
+            request = ossHead(uri);
+        } else {
+            request = new HttpHead(uri);
+        }
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            int code = response.getStatusLine().getStatusCode();
+            if (code >= 200 && code < 300) {
+                return Status.EXISTS;
+            } else if (code == 404) {
+                return Status.MISSING;
+            } else if (code == 401 || code == 403) {
+                return Status.FORBIDDEN;
+            }
+            throw new IOException("HEAD " + uri + " returned HTTP " + code);
+        }
+    }
+
+    private HttpHead ossHead(String uri) throws IOException {
+        String path = uri.substring("oss://".length());
+        int slash = path.indexOf('/');
+        if (slash <= 0 || slash == path.length() - 1) {
+            throw new IOException("Invalid OSS path: " + uri);
+        }
+        String bucket = path.substring(0, slash);
+        String key = path.substring(slash + 1);
+        // A bucket may carry its own endpoint: oss://bucket.oss-cn-beijing.aliyuncs.com/key
+        String host = bucket.contains(".") ? bucket : bucket + "." + ossEndpoint;
+        if (bucket.contains(".")) {
+            bucket = bucket.substring(0, bucket.indexOf('.'));
+        }
+
+        HttpHead request;
+        try {
+            request = new HttpHead(new URI("https", host, "/" + key, null).toASCIIString());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid OSS path: " + uri, e);
+        }
+        if (accessKeyId != null && accessKeySecret != null) {
+            String date = HTTP_DATE.format(ZonedDateTime.now(ZoneOffset.UTC));
+            StringBuilder stringToSign = new StringBuilder("HEAD\n\n\n").append(date).append('\n');
+            if (securityToken != null) {
+                request.setHeader("x-oss-security-token", securityToken);
+                stringToSign.append("x-oss-security-token:").append(securityToken).append('\n');
+            }
+            stringToSign.append('/').append(bucket).append('/').append(key);
+            request.setHeader(HttpHeaders.DATE, date);
+            request.setHeader(HttpHeaders.AUTHORIZATION,
+                "OSS " + accessKeyId + ":" + hmacSha1(accessKeySecret, stringToSign.toString()));
+        }
+        return request;
+    }
+
+    private static String hmacSha1(String secret, String data) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA1"));
+            return Base64.encodeBase64String(mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to sign OSS request", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
@@ -0,0 +1,306 @@
+package com.aliyun.emr.ack;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Strips classes the runtime image already provides from a fat application JAR (--slim-jar).
+ *
+ * The provided classpath is described by a manifest: either a text file listing JAR entry names
+ * one per line (a line ending in {@code /} covers a whole package), or a directory of JARs, such
+ * as a copy of the image's {@code $SPARK_HOME/jars}. Entries of the application JAR that appear
+ * in the manifest are removed, as are repeated entries (the first one wins) and signature files,
+ * which no longer match once classes are removed; the rest of META-INF (the JAR manifest, service
+ * registrations) is always kept. A manifest text file can be generated with (directory lines are
+ * left out, as they would cover whole packages):
+ * <pre>
+ *   for j in $SPARK_HOME/jars/*.jar; do unzip -Z1 "$j"; done | grep -v '/$' | sort -u > spark-image.manifest
+ * </pre>
+ * The slimmed JAR is named after a hash of the original JAR and the manifest and staged like
+ * pod templates, so an unchanged JAR is slimmed once and resubmitted from the cache. The server
+ * fetches it from stage.uri, so stage.uri is required and stage.dir must be a local mount of the
+ * same location (nothing is uploaded):
+ * <pre>
+ *   spark.submit.slim-jar.manifest=/etc/spark-submit/spark-image.manifest
+ *   spark.submit.slim-jar.stage.dir=/mnt/oss/slim-jars   (mount of stage.uri)
+ *   spark.submit.slim-jar.stage.uri=oss://bucket/slim-jars
+ * </pre>
+ * Only a JAR the client can read (a local path or file: URI) can be slimmed.
+ */
+public class JarSlimmer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Config config;
+
+    /**
+     * What slimming did, for reporting
+     */
+    public static class Result {
+        private final String location;
+        private final long originalBytes;
+        private final long slimBytes;
+        private final int removedEntries;
+        private final boolean cached;
+
+        Result(String location, long originalBytes, long slimBytes, int removedEntries, boolean cached) {
+            this.location = location;
+            this.originalBytes = originalBytes;
+            this.slimBytes = slimBytes;
+            this.removedEntries = removedEntries;
+            this.cached = cached;
+        }
+
+        public String getLocation() { return location; }
+        public long getOriginalBytes() { return originalBytes; }
+        public long getSlimBytes() { return slimBytes; }
+        public int getRemovedEntries() { return removedEntries; }
+        public boolean isCached() { return cached; }
+    }
+
+    private static class Manifest {
+        final Set<String> entries = new HashSet<>();
+        final Set<String> packages = new HashSet<>();
+        final MessageDigest digest = newDigest();
+
+        void add(String name) {
+            name = name.trim();
+            // META-INF holds per-JAR metadata (manifest, service registrations), never provided
+            if (name.isEmpty() || name.startsWith("#") || name.startsWith("META-INF/")) {
+                return;
+            }
+            digest.update((name + "\n").getBytes(StandardCharsets.UTF_8));
+            if (name.endsWith("/")) {
+                packages.add(name);
+            } else {
+                entries.add(name);
+            }
+        }
+
+        boolean provides(String name) {
+            if (entries.contains(name)) {
+                return true;
+            }
+            // Walk up the package directories: a/b/C.class is covered by a/b/ and a/
+            for (int slash = name.lastIndexOf('/'); slash > 0; slash = name.lastIndexOf('/', slash - 1)) {
+                if (packages.contains(name.substring(0, slash + 1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public JarSlimmer(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Slim the application JAR and replace the resource with the staged copy
+     */
+    public Result applyTo(SparkSubmitArgs args) throws IOException {
+        File source = localFile(args.getResource());
+        if (source == null) {
+            throw new IOException("--slim-jar needs a JAR the client can read (a local path or file: URI), got "
+                + args.getResource());
+        }
+        if (!source.isFile()) {
+            throw new IOException("Application JAR not found: " + source);
+        }
+        Result result = slim(source);
+        args.setResource(result.getLocation());
+        return result;
+    }
+
+    Result slim(File source) throws IOException {
+        String manifestPath = config.getProperty("spark.submit.slim-jar.manifest", null);
+        if (manifestPath == null || manifestPath.trim().isEmpty()) {
+            throw new IOException("--slim-jar needs spark.submit.slim-jar.manifest, a list of the classes "
+                + "provided by the Spark image (see the user guide)");
+        }
+        String uri = config.getProperty("spark.submit.slim-jar.stage.uri", "").trim();
+        String dirPath = config.getProperty("spark.submit.slim-jar.stage.dir", "").trim();
+        if (uri.isEmpty() || dirPath.isEmpty() || localFile(uri) != null) {
+            throw new IOException("--slim-jar needs spark.submit.slim-jar.stage.uri, a location the Kyuubi server "
+                + "can fetch the slimmed JAR from (e.g. oss://bucket/slim-jars), and spark.submit.slim-jar.stage.dir, "
+                + "a local mount of that same location; the JAR is not uploaded");
+        }
+        Manifest manifest = loadManifest(new File(manifestPath.trim()));
+
+        // Content-addressed name: the same JAR against the same manifest is slimmed once
+        MessageDigest digest = newDigest();
+        digest.update(manifest.digest.digest());
+        try (InputStream in = new FileInputStream(source)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        String baseName = source.getName().endsWith(".jar")
+            ? source.getName().substring(0, source.getName().length() - 4) : source.getName();
+        String fileName = baseName + "-slim-" + hex(digest.digest()).substring(0, 16) + ".jar";
+
+        File dir = new File(dirPath);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create slim JAR staging directory: " + dir);
+        }
+        File file = new File(dir, fileName);
+        boolean cached = file.isFile();
+        int removed = 0;
+        if (!cached) {
+            // Concurrent submissions of the same JAR each write their own temp file; the name is
+            // content-addressed, so whichever move lands first is as good as the other
+            File tmp = File.createTempFile(fileName, ".tmp", dir);
+            try {
+                removed = copy(source, tmp, manifest);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                tmp.delete();
+                if (!file.isFile()) {
+                    throw new IOException("Failed to stage slim JAR " + file + ": " + e.getMessage(), e);
+                }
+                cached = true;
+            }
+        }
+
+        String location = (uri.endsWith("/") ? uri : uri + "/") + fileName;
+        return new Result(location, source.length(), file.length(), removed, cached);
+    }
+
+    /**
+     * Copy the entries that are not provided; returns the number of entries left out
+     */
+    private static int copy(File source, File target, Manifest manifest) throws IOException {
+        Set<String> written = new HashSet<>();
+        int removed = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        // ZipInputStream rather than ZipFile: it sees every entry, including repeated names
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(source));
+             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(target))) {
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null; ) {
+                String name = entry.getName();
+                if (entry.isDirectory()) {
+                    // Written on demand for the files that are kept, so emptied packages disappear
+                    continue;
+                }
+                if (written.contains(name) || manifest.provides(name) || isSignature(name)) {
+                    removed++;
+                    continue;
+                }
+                addDirectories(out, written, name);
+                ZipEntry copy = new ZipEntry(name);
+                copy.setTime(entry.getTime());
+                out.putNextEntry(copy);
+                for (int n; (n = in.read(buffer)) > 0; ) {
+                    out.write(buffer, 0, n);
+                }
+                out.closeEntry();
+                written.add(name);
+            }
+        } catch (ZipException e) {
+            throw new IOException("Cannot read " + source + " as a JAR: " + e.getMessage());
+        }
+        return removed;
+    }
+
+    private static void addDirectories(ZipOutputStream out, Set<String> written, String name) throws IOException {
+        for (int slash = name.indexOf('/'); slash > 0; slash = name.indexOf('/', slash + 1)) {
+            String dir = name.substring(0, slash + 1);
+            if (written.add(dir)) {
+                out.putNextEntry(new ZipEntry(dir));
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static boolean isSignature(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0) {
+            return false;
+        }
+        return name.endsWith(".SF") || name.endsWith(".DSA") || name.endsWith(".RSA") || name.endsWith(".EC");
+    }
+
+    private static Manifest loadManifest(File path) throws IOException {
+        Manifest manifest = new Manifest();
+        if (path.isDirectory()) {
+            File[] jars = path.listFiles((dir, name) -> name.endsWith(".jar"));
+            if (jars == null || jars.length == 0) {
+                throw new IOException("No JARs in slim JAR manifest directory: " + path);
+            }
+            Arrays.sort(jars);
+            for (File jar : jars) {
+                try (ZipFile zip = new ZipFile(jar)) {
+                    for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                        ZipEntry entry = e.nextElement();
+                        if (!entry.isDirectory()) {
+                            manifest.add(entry.getName());
+                        }
+                    }
+                } catch (ZipException e) {
+                    throw new IOException("Cannot read " + jar + " as a JAR: " + e.getMessage());
+                }
+            }
+        } else if (path.isFile()) {
+            try (BufferedReader reader = Files.newBufferedReader(path.toPath(), StandardCharsets.UTF_8)) {
+                for (String line; (line = reader.readLine()) != null; ) {
+                    manifest.add(line);
+                }
+            }
+        } else {
+            throw new IOException("Slim JAR manifest not found: " + path);
+        }
+        return manifest;
+    }
+
+    /**
+     * The local file behind a resource, or null if it is remote
+     */
+    static File localFile(String resource) {
+        if (resource == null) {
+            return null;
+        }
+        if (resource.startsWith("file:")) {
+            try {
+                return new File(new URI(resource));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return resource.matches("^[A-Za-z][A-Za-z0-9+.-]*://.*") ? null : new File(resource);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,183 @@
+package com.aliyun.emr.ack;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stable fingerprint of a submission, used to detect a job that is submitted again while an
+ * identical batch is still live.
+ *
+ * The fingerprint is a hash of the normalized submission: batch type, resource, main class,
+ * application arguments, proxy user, queue, artifacts (jars, py-files, files, archives,
+ * packages, repositories) and the conf sorted by key. The job name, driver/executor labels and
+ * annotations and the propagated trace context are left out, so a retry with a different name,
+ * label or trace still matches. It is attached to the driver as the
+ * {@code spark-submit-fingerprint} label.
+ *
+ * Kyuubi's REST API does not return batch conf or labels, so live batches are found through a
+ * host-wide index under {@code <config dir>/fingerprints} that maps each fingerprint to the
+ * last batch submitted with it; the batch state is then checked on Kyuubi.
+ */
+public class JobFingerprint {
+    public static final String LABEL_KEY = "spark.kubernetes.driver.label.spark-submit-fingerprint";
+
+    private static final String[] IGNORED_CONF_PREFIXES = {
+        "spark.kubernetes.driver.label.",
+        "spark.kubernetes.executor.label.",
+        "spark.kubernetes.driver.annotation.",
+        "spark.kubernetes.executor.annotation.",
+        "spark.app.name",
+        "spark.kubernetes.driverEnv.TRACEPARENT"
+    };
+    // 128 bits keeps the label value well under the 63 character limit
+    private static final int FINGERPRINT_LENGTH = 32;
+
+    /**
+     * What to do when a live batch with the same fingerprint exists
+     */
+    public enum Policy {
+        /** Submit without checking */
+        ALLOW,
+        /** Print a warning and submit */
+        WARN,
+        /** Do not submit; exit with a distinct code */
+        REFUSE,
+        /** Do not submit; follow the existing batch instead */
+        ATTACH;
+
+        public static Policy parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid duplicate policy: " + value
+                    + " (expected allow, warn, refuse or attach)");
+            }
+        }
+    }
+
+    private final File dir;
+    private final String defaultPolicy;
+
+    public JobFingerprint(Config config) {
+        this.dir = new File(config.getConfigDir(), "fingerprints");
+        this.defaultPolicy = config.getProperty("spark.submit.duplicate-policy", "warn");
+    }
+
+    /**
+     * Policy for a submission: --on-duplicate, else spark.submit.duplicate-policy (default warn)
+     */
+    public Policy resolvePolicy(SparkSubmitArgs args) {
+        return Policy.parse(args.getDuplicatePolicy() != null ? args.getDuplicatePolicy() : defaultPolicy);
+    }
+
+    /**
+     * Compute the fingerprint of the normalized submission
+     */
+    public static String compute(SparkSubmitArgs args) {
+        StringBuilder sb = new StringBuilder();
+        field(sb, "batchType", args.getBatchType());
+        field(sb, "resource", args.getResource());
+        field(sb, "className", args.getClassName());
+        field(sb, "proxyUser", args.getProxyUser());
+        field(sb, "queue", args.getQueue());
+        list(sb, "args", args.getArgs());
+        // Artifact order matters (class path order), so lists are not sorted
+        list(sb, "jars", args.getJars());
+        list(sb, "pyFiles", args.getPyFiles());
+        list(sb, "files", args.getFiles());
+        list(sb, "archives", args.getArchives());
+        list(sb, "packages", args.getPackages());
+        list(sb, "repositories", args.getRepositories());
+        Map<String, String> conf = new TreeMap<>();
+        for (Map.Entry<String, String> entry : args.getConf().entrySet()) {
+            if (!isIgnored(entry.getKey())) {
+                conf.put(entry.getKey().trim(), entry.getValue() != null ? entry.getValue().trim() : "");
+            }
+        }
+        for (Map.Entry<String, String> entry : conf.entrySet()) {
+            field(sb, "conf." + entry.getKey(), entry.getValue());
+        }
+        return PodTemplates.sha256(sb.toString().getBytes(StandardCharsets.UTF_8)).substring(0, FINGERPRINT_LENGTH);
+    }
+
+    private static boolean isIgnored(String key) {
+        for (String prefix : IGNORED_CONF_PREFIXES) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Length-prefixed so that no two different submissions serialize to the same text
+    private static void field(StringBuilder sb, String name, String value) {
+        String v = value != null ? value.trim() : "";
+        sb.append(name).append('=').append(v.length()).append(':').append(v).append('\n');
+    }
+
+    private static void list(StringBuilder sb, String name, List<String> values) {
+        sb.append(name).append('#').append(values.size()).append('\n');
+        for (int i = 0; i < values.size(); i++) {
+            field(sb, name + "[" + i + "]", values.get(i));
+        }
+    }
+
+    /**
+     * The live batch last submitted with this fingerprint, or null. Index entries of batches
+     * that have finished or are gone are removed.
+     */
+    public KyuubiClient.BatchResponse findLive(KyuubiClient client, StatusCache statusCache, String fingerprint) {
+        File entry = new File(dir, fingerprint);
+        if (!entry.isFile()) {
+            return null;
+        }
+        try {
+            String batchId = new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8).trim();
+            KyuubiClient.BatchResponse batch = statusCache.getBatch(client, batchId);
+            if (batch != null && !batch.isFinished()) {
+                return batch;
+            }
+            entry.delete();
+        } catch (IOException e) {
+            // Unknown batch (e.g. removed from Kyuubi) or unreadable entry: nothing to attach to
+            entry.delete();
+        }
+        return null;
+    }
+
+    /**
+     * The batch last submitted with this fingerprint, whether live or not, or null
+     */
+    public String lastBatch(String fingerprint) {
+        File entry = new File(dir, fingerprint);
+        try {
+            return entry.isFile() ? new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8).trim() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Record the batch just submitted with this fingerprint
+     */
+    public void remember(String fingerprint, String batchId) {
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                return;
+            }
+            File tmp = File.createTempFile(fingerprint, ".tmp", dir);
+            Files.write(tmp.toPath(), batchId.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), new File(dir, fingerprint).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Warning: Failed to record job fingerprint: " + e.getMessage());
+        }
+    }
+}
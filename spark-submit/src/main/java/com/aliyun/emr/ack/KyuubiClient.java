@@ -1,34 +1,86 @@
 package com.aliyun.emr.ack;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Kyuubi REST API client
+ * Kyuubi REST API client.
+ *
+ * Instances are thread-safe: one client may be shared by any number of threads, which then
+ * share its connection pool ({@code kyuubi.client.max.connections}). Every response is fully
+ * consumed or closed before a call returns, so connections always go back to the pool. A caller
+ * that cannot get a connection within {@code kyuubi.client.pool-timeout} fails instead of
+ * waiting forever, and connect/read timeouts bound each request. Call {@link #close()} once
+ * all threads are done with the client.
  */
 public class KyuubiClient {
     private final Config config;
+    private final PoolingHttpClientConnectionManager connectionManager;
     private final CloseableHttpClient httpClient;
     private final Gson gson;
+    private final HttpCompression compression = new HttpCompression();
+    private final int requestCompressionMinSize;
+    private volatile boolean requestCompression;
     
     public KyuubiClient(Config config) {
         this.config = config;
-        this.httpClient = HttpClients.createDefault();
+        // All requests go to a single route, so the per-route limit must match the total
+        // or concurrent callers (e.g. bulk kill) are throttled to the default of 2
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(config.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnections());
+        // Re-check connections the server may have closed while they sat idle in the pool
+        connectionManager.setValidateAfterInactivity(2000);
+        HttpClientBuilder builder = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout((int) TimeUtils.parseDuration(
+                    config.getProperty("kyuubi.client.pool-timeout", "60s")))
+                .setConnectTimeout((int) TimeUtils.parseDuration(
+                    config.getProperty("kyuubi.client.connect-timeout", "30s")))
+                .setSocketTimeout((int) TimeUtils.parseDuration(
+                    config.getProperty("kyuubi.client.socket-timeout", "5m")))
+                .build())
+            .evictExpiredConnections()
+            .evictIdleConnections(60, TimeUnit.SECONDS)
+            // Decoding is done by HttpCompression so transferred bytes can be counted
+            .disableContentCompression()
+            .addInterceptorLast(compression.decodeResponses())
+            .addInterceptorLast(Tracer.global().requestInterceptor())
+            .addInterceptorLast(Tracer.global().responseInterceptor());
+        if (Boolean.parseBoolean(config.getProperty("kyuubi.client.compression", "true"))) {
+            builder.addInterceptorFirst(compression.acceptEncoding());
+        }
+        this.httpClient = builder.build();
+        this.requestCompression = Boolean.parseBoolean(config.getProperty("kyuubi.client.request-compression", "false"));
+        this.requestCompressionMinSize = config.getIntProperty("kyuubi.client.request-compression.min-size", 1024);
         this.gson = new Gson();
     }
     
@@ -103,25 +155,52 @@ public class KyuubiClient {
             batchRequest.add("args", gson.toJsonTree(args.getArgs()));
         }
         
+        String jsonBody = gson.toJson(batchRequest);
+        boolean compress = requestCompression && jsonBody.length() >= requestCompressionMinSize;
+        try (CloseableHttpResponse response = httpClient.execute(newSubmitRequest(url, jsonBody, compress, false))) {
+            int code = response.getStatusLine().getStatusCode();
+            if (!compress || (code != 400 && code != 415)) {
+                return readResponse(response, BatchResponse.class, "Failed to submit batch");
+            }
+            EntityUtils.consume(response.getEntity());
+        }
+        // The batch was rejected before it was created, so resending it uncompressed is safe
+        System.err.println("Warning: Kyuubi server rejected a gzip request body; "
+            + "sending uncompressed (set kyuubi.client.request-compression=false)");
+        requestCompression = false;
+        try (CloseableHttpResponse response = httpClient.execute(newSubmitRequest(url, jsonBody, false, true))) {
+            return readResponse(response, BatchResponse.class, "Failed to submit batch");
+        }
+    }
+    
+    private HttpPost newSubmitRequest(String url, String jsonBody, boolean compress, boolean retry) throws IOException {
         HttpPost post = new HttpPost(url);
         post.setHeader(HttpHeaders.CONTENT_TYPE, "application/json");
         post.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
-        
-        String jsonBody = gson.toJson(batchRequest);
-        post.setEntity(new StringEntity(jsonBody, StandardCharsets.UTF_8));
-        
-        try (CloseableHttpResponse response = httpClient.execute(post)) {
-            HttpEntity entity = response.getEntity();
-            String responseBody = EntityUtils.toString(entity, StandardCharsets.UTF_8);
-            
-            if (response.getStatusLine().getStatusCode() >= 200 && 
-                response.getStatusLine().getStatusCode() < 300) {
-                return gson.fromJson(responseBody, BatchResponse.class);
-            } else {
-                throw new IOException("Failed to submit batch: " + response.getStatusLine() + 
-                    ", response: " + responseBody);
+        post.setEntity(compression.jsonEntity(jsonBody, compress, retry));
+        return post;
+    }
+    
+    /**
+     * Parse a successful JSON response while it streams in; otherwise fail with the error body
+     */
+    private <T> T readResponse(CloseableHttpResponse response, Class<T> type, String failure) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (response.getStatusLine().getStatusCode() >= 200 && 
+            response.getStatusLine().getStatusCode() < 300 && entity != null) {
+            try (Reader reader = new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8)) {
+                return gson.fromJson(reader, type);
             }
         }
+        String responseBody = entity != null ? EntityUtils.toString(entity, StandardCharsets.UTF_8) : "";
+        throw new IOException(failure + ": " + response.getStatusLine() + ", response: " + responseBody);
+    }
+    
+    /**
+     * Bytes transferred and saved by HTTP compression so far
+     */
+    public HttpCompression.TransferStats getTransferStats() {
+        return compression.getStats();
     }
     
     /**
@@ -134,16 +213,7 @@ public class KyuubiClient {
         get.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
         
         try (CloseableHttpResponse response = httpClient.execute(get)) {
-            HttpEntity entity = response.getEntity();
-            String responseBody = EntityUtils.toString(entity, StandardCharsets.UTF_8);
-            
-            if (response.getStatusLine().getStatusCode() >= 200 && 
-                response.getStatusLine().getStatusCode() < 300) {
-                return gson.fromJson(responseBody, BatchResponse.class);
-            } else {
-                throw new IOException("Failed to get batch: " + response.getStatusLine() + 
-                    ", response: " + responseBody);
-            }
+            return readResponse(response, BatchResponse.class, "Failed to get batch");
         }
     }
     
@@ -157,16 +227,46 @@ public class KyuubiClient {
         get.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
         
         try (CloseableHttpResponse response = httpClient.execute(get)) {
-            HttpEntity entity = response.getEntity();
-            String responseBody = EntityUtils.toString(entity, StandardCharsets.UTF_8);
-            
-            if (response.getStatusLine().getStatusCode() >= 200 && 
-                response.getStatusLine().getStatusCode() < 300) {
-                return gson.fromJson(responseBody, LogResponse.class);
-            } else {
-                throw new IOException("Failed to get batch logs: " + response.getStatusLine() + 
-                    ", response: " + responseBody);
-            }
+            return readResponse(response, LogResponse.class, "Failed to get batch logs");
+        }
+    }
+    
+    /**
+     * List batches, optionally filtered server-side by type, user, state and creation time
+     */
+    public BatchListResponse listBatches(String batchType, String batchUser, String batchState,
+                                         Long createTime, int from, int size) throws IOException {
+        URIBuilder builder;
+        try {
+            builder = new URIBuilder(config.getBaseUrl() + "/batches");
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid Kyuubi server URL: " + config.getBaseUrl(), e);
+        }
+        if (batchType != null && !batchType.isEmpty()) {
+            builder.addParameter("batchType", batchType);
+        }
+        if (batchUser != null && !batchUser.isEmpty()) {
+            builder.addParameter("batchUser", batchUser);
+        }
+        if (batchState != null && !batchState.isEmpty()) {
+            builder.addParameter("batchState", batchState);
+        }
+        if (createTime != null && createTime > 0) {
+            builder.addParameter("createTime", String.valueOf(createTime));
+        }
+        builder.addParameter("from", String.valueOf(from));
+        builder.addParameter("size", String.valueOf(size));
+        
+        HttpGet get;
+        try {
+            get = new HttpGet(builder.build());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid batch list URL: " + e.getMessage(), e);
+        }
+        get.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
+        
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            return readResponse(response, BatchListResponse.class, "Failed to list batches");
         }
     }
     
@@ -180,16 +280,153 @@ public class KyuubiClient {
         delete.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
         
         try (CloseableHttpResponse response = httpClient.execute(delete)) {
+            HttpEntity entity = response.getEntity();
             if (response.getStatusLine().getStatusCode() < 200 || 
                 response.getStatusLine().getStatusCode() >= 300) {
-                HttpEntity entity = response.getEntity();
                 String responseBody = entity != null ? EntityUtils.toString(entity, StandardCharsets.UTF_8) : "";
                 throw new IOException("Failed to kill batch: " + response.getStatusLine() + 
                     ", response: " + responseBody);
             }
+            // Drain the body so the connection can be reused rather than closed
+            EntityUtils.consume(entity);
+        }
+    }
+    
+    /**
+     * Open an interactive session; the engine is started (or a shared one reused) with the given
+     * configs
+     */
+    public Handle openSession(Map<String, String> configs) throws IOException {
+        JsonObject request = new JsonObject();
+        request.add("configs", gson.toJsonTree(configs));
+        HttpPost post = new HttpPost(config.getBaseUrl() + "/sessions");
+        post.setHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+        post.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
+        post.setEntity(new StringEntity(gson.toJson(request), StandardCharsets.UTF_8));
+        
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            return readResponse(response, Handle.class, "Failed to open session");
+        }
+    }
+    
+    /**
+     * Whether a session is still open on the server
+     */
+    public boolean isSessionOpen(String sessionHandle) throws IOException {
+        HttpGet get = new HttpGet(config.getBaseUrl() + "/sessions/" + sessionHandle);
+        get.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
+        
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            int code = response.getStatusLine().getStatusCode();
+            if (code == 404) {
+                EntityUtils.consume(response.getEntity());
+                return false;
+            }
+            readResponse(response, JsonObject.class, "Failed to get session");
+            return true;
+        }
+    }
+    
+    /**
+     * Close a session and release its resources on the server
+     */
+    public void closeSession(String sessionHandle) throws IOException {
+        HttpDelete delete = new HttpDelete(config.getBaseUrl() + "/sessions/" + sessionHandle);
+        delete.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
+        
+        try (CloseableHttpResponse response = httpClient.execute(delete)) {
+            readResponse(response, JsonObject.class, "Failed to close session");
+        }
+    }
+    
+    /**
+     * Run a SQL statement asynchronously in a session
+     */
+    public Handle executeStatement(String sessionHandle, String statement) throws IOException {
+        JsonObject request = new JsonObject();
+        request.addProperty("statement", statement);
+        request.addProperty("runAsync", true);
+        request.addProperty("queryTimeout", 0);
+        request.add("confOverlay", new JsonObject());
+        HttpPost post = new HttpPost(config.getBaseUrl() + "/sessions/" + sessionHandle + "/operations/statement");
+        post.setHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+        post.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
+        post.setEntity(new StringEntity(gson.toJson(request), StandardCharsets.UTF_8));
+        
+        try (CloseableHttpResponse response = httpClient.execute(post)) {
+            return readResponse(response, Handle.class, "Failed to execute statement");
+        }
+    }
+    
+    /**
+     * Get operation state and error
+     */
+    public OperationStatus getOperationStatus(String operationHandle) throws IOException {
+        HttpGet get = new HttpGet(config.getBaseUrl() + "/operations/" + operationHandle + "/event");
+        get.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
+        
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            return readResponse(response, OperationStatus.class, "Failed to get operation status");
+        }
+    }
+    
+    /**
+     * Get the result columns of a finished operation
+     */
+    public ResultSetMetadata getResultSetMetadata(String operationHandle) throws IOException {
+        HttpGet get = new HttpGet(config.getBaseUrl() + "/operations/" + operationHandle + "/resultsetmetadata");
+        get.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
+        
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            return readResponse(response, ResultSetMetadata.class, "Failed to get result set metadata");
+        }
+    }
+    
+    /**
+     * Fetch the next page of result rows; an empty page means the result is exhausted
+     */
+    public RowSet fetchResults(String operationHandle, int maxRows) throws IOException {
+        String url = config.getBaseUrl() + "/operations/" + operationHandle
+            + "/rowset?maxrows=" + maxRows + "&fetchorientation=FETCH_NEXT";
+        
+        HttpGet get = new HttpGet(url);
+        get.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
+        
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            return readResponse(response, RowSet.class, "Failed to fetch results");
+        }
+    }
+    
+    /**
+     * Cancel or close an operation ({@code CANCEL} or {@code CLOSE})
+     */
+    public void operationAction(String operationHandle, String action) throws IOException {
+        JsonObject request = new JsonObject();
+        request.addProperty("action", action);
+        HttpPut put = new HttpPut(config.getBaseUrl() + "/operations/" + operationHandle);
+        put.setHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+        put.setHeader(HttpHeaders.AUTHORIZATION, getAuthHeader());
+        put.setEntity(new StringEntity(gson.toJson(request), StandardCharsets.UTF_8));
+        
+        try (CloseableHttpResponse response = httpClient.execute(put)) {
+            HttpEntity entity = response.getEntity();
+            if (response.getStatusLine().getStatusCode() < 200 || 
+                response.getStatusLine().getStatusCode() >= 300) {
+                String responseBody = entity != null ? EntityUtils.toString(entity, StandardCharsets.UTF_8) : "";
+                throw new IOException("Failed to " + action.toLowerCase() + " operation: " + response.getStatusLine() + 
+                    ", response: " + responseBody);
+            }
+            EntityUtils.consume(entity);
         }
     }
     
+    /**
+     * Connection pool usage: leased, pending (threads waiting for a connection), available and max
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+    
     public void close() throws IOException {
         httpClient.close();
     }
@@ -245,6 +482,22 @@ public class KyuubiClient {
         }
     }
     
+    /**
+     * Batch list response model
+     */
+    public static class BatchListResponse {
+        private Integer from;
+        private Integer total;
+        private List<BatchResponse> batches;
+        
+        public Integer getFrom() { return from; }
+        public void setFrom(Integer from) { this.from = from; }
+        public Integer getTotal() { return total; }
+        public void setTotal(Integer total) { this.total = total; }
+        public List<BatchResponse> getBatches() { return batches; }
+        public void setBatches(List<BatchResponse> batches) { this.batches = batches; }
+    }
+    
     /**
      * Log response model
      */
@@ -257,5 +510,87 @@ public class KyuubiClient {
         public Integer getRowCount() { return rowCount; }
         public void setRowCount(Integer rowCount) { this.rowCount = rowCount; }
     }
+    
+    /**
+     * Session or operation handle
+     */
+    public static class Handle {
+        private String identifier;
+        
+        public String getIdentifier() { return identifier; }
+        public void setIdentifier(String identifier) { this.identifier = identifier; }
+    }
+    
+    /**
+     * Operation event model; state is e.g. RUNNING_STATE, FINISHED_STATE or ERROR_STATE
+     */
+    public static class OperationStatus {
+        private String state;
+        private String exception;
+        
+        public String getState() { return state; }
+        public void setState(String state) { this.state = state; }
+        public String getException() { return exception; }
+        public void setException(String exception) { this.exception = exception; }
+        
+        /**
+         * Terminal states, as Kyuubi names them (TIMEOUT, UNKNOWN) and as the Thrift names do
+         * (TIMEDOUT_STATE, UKNOWN_STATE)
+         */
+        public boolean isFinished() {
+            return state != null && (state.startsWith("FINISHED") || state.startsWith("ERROR")
+                || state.startsWith("CANCELED") || state.startsWith("CLOSED") || state.startsWith("TIMEDOUT")
+                || state.startsWith("TIMEOUT") || state.startsWith("UNKNOWN") || state.startsWith("UKNOWN"));
+        }
+    }
+    
+    /**
+     * Result set metadata model
+     */
+    public static class ResultSetMetadata {
+        private List<Column> columns;
+        
+        public List<Column> getColumns() { return columns; }
+        public void setColumns(List<Column> columns) { this.columns = columns; }
+    }
+    
+    public static class Column {
+        private String columnName;
+        private String dataType;
+        
+        public String getColumnName() { return columnName; }
+        public void setColumnName(String columnName) { this.columnName = columnName; }
+        public String getDataType() { return dataType; }
+        public void setDataType(String dataType) { this.dataType = dataType; }
+    }
+    
+    /**
+     * Result rows model; field values keep their JSON form
+     */
+    public static class RowSet {
+        private List<Row> rows;
+        private Integer rowCount;
+        
+        public List<Row> getRows() { return rows; }
+        public void setRows(List<Row> rows) { this.rows = rows; }
+        public Integer getRowCount() { return rowCount; }
+        public void setRowCount(Integer rowCount) { this.rowCount = rowCount; }
+    }
+    
+    public static class Row {
+        private List<Field> fields;
+        
+        public List<Field> getFields() { return fields; }
+        public void setFields(List<Field> fields) { this.fields = fields; }
+    }
+    
+    public static class Field {
+        private String dataType;
+        private JsonElement value;
+        
+        public String getDataType() { return dataType; }
+        public void setDataType(String dataType) { this.dataType = dataType; }
+        public JsonElement getValue() { return value; }
+        public void setValue(JsonElement value) { this.value = value; }
+    }
 }
-
@@ -0,0 +1,218 @@
+package com.aliyun.emr.ack;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Buffered, filtering output for driver log lines.
+ *
+ * Lines are collected in memory and written to stdout in large chunks once the buffer reaches
+ * its size threshold or the flush interval has passed, instead of one unbuffered write per line.
+ * Before buffering, lines can be dropped by minimum level and include/exclude patterns, and runs
+ * of identical lines can be collapsed. Lines without a level (e.g. stack trace frames) inherit
+ * the level of the line they follow. With --output jsonl, each flush becomes one {@code logs}
+ * event instead of plain text. The methods are synchronized so the watchdog thread can flush
+ * the buffer before it exits.
+ */
+public class LogSink {
+    private static final Pattern LEVEL_PATTERN =
+        Pattern.compile("\\b(TRACE|DEBUG|INFO|WARN|WARNING|ERROR|FATAL)\\b");
+    private static final String[] LEVELS = {"TRACE", "DEBUG", "INFO", "WARN", "ERROR", "FATAL"};
+
+    private final Writer out;
+    private final StringBuilder buffer = new StringBuilder();
+    private final List<String> pendingLines = new ArrayList<>();
+    private final int flushThresholdChars;
+    private final long flushIntervalMs;
+    private final int minLevel;
+    private final List<Pattern> includes = new ArrayList<>();
+    private final List<Pattern> excludes = new ArrayList<>();
+    private final boolean collapseRepeats;
+    private EventWriter events;
+    private String batchId;
+
+    private long lastFlush = System.currentTimeMillis();
+    private int currentLevel = -1;
+    private String lastLine;
+    private int repeatCount;
+    private long written;
+    private long filtered;
+    private long collapsed;
+
+    public LogSink(Config config, SparkSubmitArgs args) {
+        this(new FileOutputStream(FileDescriptor.out), config.getIntProperty("spark.submit.log.buffer-size", 64 * 1024),
+            TimeUtils.parseDuration(config.getProperty("spark.submit.log.flush-interval", "1s")),
+            args.getLogLevel(), args.getLogIncludes(), args.getLogExcludes(), args.isLogCollapse());
+    }
+
+    public LogSink(OutputStream stream, int flushThresholdChars, long flushIntervalMs, String minLevel,
+                   List<String> includes, List<String> excludes, boolean collapseRepeats) {
+        this.out = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+        this.flushThresholdChars = Math.max(1024, flushThresholdChars);
+        this.flushIntervalMs = flushIntervalMs;
+        this.minLevel = minLevel != null ? levelIndex(minLevel) : -1;
+        if (minLevel != null && this.minLevel < 0) {
+            throw new IllegalArgumentException("Invalid --log-level: " + minLevel
+                + " (expected TRACE, DEBUG, INFO, WARN, ERROR or FATAL)");
+        }
+        for (String include : includes) {
+            this.includes.add(Pattern.compile(include));
+        }
+        for (String exclude : excludes) {
+            this.excludes.add(Pattern.compile(exclude));
+        }
+        this.collapseRepeats = collapseRepeats;
+    }
+
+    /**
+     * Emit flushed lines as JSON-lines events for the given batch instead of plain text
+     */
+    public void routeTo(EventWriter events, String batchId) {
+        this.events = events;
+        this.batchId = batchId;
+    }
+
+    /**
+     * Accept one log line; it is written out later unless filtered
+     */
+    public synchronized void write(String line) throws IOException {
+        if (!accept(line)) {
+            filtered++;
+            return;
+        }
+        if (collapseRepeats) {
+            if (line.equals(lastLine)) {
+                repeatCount++;
+                collapsed++;
+                return;
+            }
+            emitRepeatSummary();
+            lastLine = line;
+        }
+        written++;
+        append(line);
+    }
+
+    /**
+     * Write out a header or other text that bypasses filtering
+     */
+    public synchronized void writeRaw(String text) throws IOException {
+        if (events != null) {
+            return;
+        }
+        emitRepeatSummary();
+        lastLine = null;
+        append(text);
+    }
+
+    /**
+     * Flush if the flush interval has elapsed; call this once per poll cycle
+     */
+    public synchronized void flushIfDue() throws IOException {
+        if (buffer.length() > 0 && System.currentTimeMillis() - lastFlush >= flushIntervalMs) {
+            flush();
+        }
+    }
+
+    /**
+     * Write everything buffered so far, including a pending repeat summary
+     */
+    public synchronized void flush() throws IOException {
+        emitRepeatSummary();
+        if (buffer.length() > 0) {
+            if (events != null) {
+                events.logs(batchId, new ArrayList<>(pendingLines));
+            } else {
+                out.write(buffer.toString());
+                out.flush();
+            }
+            buffer.setLength(0);
+            pendingLines.clear();
+        }
+        lastFlush = System.currentTimeMillis();
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getFiltered() {
+        return filtered;
+    }
+
+    public long getCollapsed() {
+        return collapsed;
+    }
+
+    private void append(String text) throws IOException {
+        buffer.append(text).append(System.lineSeparator());
+        pendingLines.add(text);
+        if (buffer.length() >= flushThresholdChars) {
+            flush();
+        } else {
+            flushIfDue();
+        }
+    }
+
+    private void emitRepeatSummary() {
+        if (repeatCount > 0) {
+            String summary = "... last line repeated " + repeatCount + " more time" + (repeatCount > 1 ? "s" : "");
+            buffer.append(summary).append(System.lineSeparator());
+            pendingLines.add(summary);
+            repeatCount = 0;
+        }
+    }
+
+    private boolean accept(String line) {
+        if (minLevel >= 0) {
+            Matcher matcher = LEVEL_PATTERN.matcher(line);
+            if (matcher.find()) {
+                currentLevel = levelIndex(matcher.group(1));
+            }
+            if (currentLevel >= 0 && currentLevel < minLevel) {
+                return false;
+            }
+        }
+        if (!includes.isEmpty()) {
+            boolean matched = false;
+            for (Pattern include : includes) {
+                if (include.matcher(line).find()) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        for (Pattern exclude : excludes) {
+            if (exclude.matcher(line).find()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int levelIndex(String level) {
+        String normalized = level.toUpperCase(Locale.ROOT);
+        if ("WARNING".equals(normalized)) {
+            normalized = "WARN";
+        }
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i].equals(normalized)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
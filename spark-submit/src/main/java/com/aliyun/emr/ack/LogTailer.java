@@ -0,0 +1,125 @@
+package com.aliyun.emr.ack;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Prints the last lines of a batch's log and optionally follows new output.
+ *
+ * The end of the log is taken from {@code rowCount} when the server reports the total number of
+ * rows, so a tail costs two requests however long the job has been running. Servers that only
+ * report the size of the returned page are probed with one-row reads: the offset doubles until
+ * it passes the end, then a binary search finds the exact row count (about 2 log2(n) tiny
+ * requests instead of downloading n rows).
+ */
+public class LogTailer {
+    private static final int POLL_INTERVAL_MS = 2000;
+    private static final int PAGE_SIZE = 1000;
+    private static final int FIRST_PROBE = 1024;
+
+    private final KyuubiClient client;
+    private final LogSink sink;
+    private final EventWriter events;
+
+    public LogTailer(KyuubiClient client, LogSink sink, EventWriter events) {
+        this.client = client;
+        this.sink = sink;
+        this.events = events;
+    }
+
+    /**
+     * Number of log rows the batch currently has
+     */
+    public int findEnd(String batchId) throws IOException {
+        KyuubiClient.LogResponse first = client.getBatchLogs(batchId, 0, 1);
+        int returned = rows(first).size();
+        if (first.getRowCount() != null && first.getRowCount() > returned) {
+            return first.getRowCount();
+        }
+        if (returned == 0) {
+            return 0;
+        }
+        // At least `low` rows exist; fewer than `high` do
+        int low = 1;
+        int high = FIRST_PROBE;
+        while (exists(batchId, high - 1)) {
+            low = high;
+            if (high > Integer.MAX_VALUE / 2) {
+                return high;
+            }
+            high *= 2;
+        }
+        while (low < high - 1) {
+            int mid = low + (high - low) / 2;
+            if (exists(batchId, mid - 1)) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private boolean exists(String batchId, int row) throws IOException {
+        return !rows(client.getBatchLogs(batchId, row, 1)).isEmpty();
+    }
+
+    /**
+     * Write the last {@code lines} rows; returns the offset to follow from
+     */
+    public int tail(String batchId, int lines) throws IOException {
+        int end = findEnd(batchId);
+        return copy(batchId, Math.max(0, end - lines), end);
+    }
+
+    /**
+     * Write rows from {@code from} until {@code until} (or the current end when negative)
+     */
+    private int copy(String batchId, int from, int until) throws IOException {
+        int offset = from;
+        while (until < 0 || offset < until) {
+            int size = until < 0 ? PAGE_SIZE : Math.min(PAGE_SIZE, until - offset);
+            List<String> page = rows(client.getBatchLogs(batchId, offset, size));
+            for (String line : page) {
+                sink.write(line);
+            }
+            offset += page.size();
+            if (page.size() < size) {
+                break;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Follow new output from {@code offset} until the batch finishes; returns the exit code
+     * (0 when it finished, 1 when it failed or was canceled)
+     */
+    public int follow(String batchId, int offset) throws IOException, InterruptedException {
+        while (true) {
+            KyuubiClient.BatchResponse status = client.getBatch(batchId);
+            try {
+                offset = copy(batchId, offset, -1);
+            } catch (IOException e) {
+                System.err.println("\n⚠️  Warning: Could not fetch logs: " + e.getMessage());
+            }
+            if (status.isFinished()) {
+                sink.flush();
+                System.out.println("\n------------------------------------------");
+                System.out.println("Final State: " + status.getState());
+                boolean failed = "ERROR".equals(status.getState()) || "CANCELED".equals(status.getState());
+                if (events != null) {
+                    events.status(status, null);
+                }
+                return failed ? 1 : 0;
+            }
+            sink.flushIfDue();
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+    }
+
+    private static List<String> rows(KyuubiClient.LogResponse response) {
+        return response.getLogRowSet() != null ? response.getLogRowSet() : Collections.<String>emptyList();
+    }
+}
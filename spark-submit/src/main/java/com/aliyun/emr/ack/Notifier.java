@@ -0,0 +1,468 @@
+package com.aliyun.emr.ack;
+
+import com.google.gson.Gson;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion notifications for detached submissions (--detach).
+ *
+ * A detached submission records the batch in a watch list under
+ * {@code <config dir>/notify/<server>} and exits. A background notifier (one per Kyuubi server,
+ * started on demand and exiting after an idle period, or run as a service with --notifier) polls
+ * every watched batch and, when one finishes, fires its hooks with the same JSON payload as the
+ * {@code completed} event of --output jsonl:
+ * <ul>
+ *   <li>{@code http://...} or {@code https://...} - POST the payload (retried on errors)</li>
+ *   <li>{@code exec:<command>} - run the command with {@code sh -c}, payload on stdin and
+ *       SPARK_SUBMIT_BATCH_ID, SPARK_SUBMIT_STATE, SPARK_SUBMIT_APP_ID and SPARK_SUBMIT_EXIT_CODE
+ *       in the environment</li>
+ *   <li>{@code file:<path>} - write the payload to the file, or to {@code <batch id>.json} if
+ *       the path is a directory</li>
+ * </ul>
+ * Hooks come from --notify (repeatable) and from the config file, where they apply to every
+ * detached batch:
+ * <pre>
+ *   spark.submit.notify.hook.ci=https://ci.example.com/hooks/spark
+ *   spark.submit.notify.poll-interval=10s
+ *   spark.submit.notify.idle-exit=10m        (0 keeps the notifier running)
+ *   spark.submit.notify.max-age=7d           (stop watching batches older than this)
+ *   spark.submit.notify.threads=4
+ *   spark.submit.notify.autostart=true
+ *   spark.submit.notify.command-timeout=60s
+ * </pre>
+ * The notifier also records finished batches in the run history. Its output goes to
+ * {@code notifier.log} next to the watch list.
+ */
+public class Notifier {
+    private static final String HOOK_PREFIX = "spark.submit.notify.hook.";
+    private static final String[] FORWARDED_PROPERTY_PREFIXES = {"kyuubi.", "spark.submit.", "spark.history."};
+    private static final int WEBHOOK_ATTEMPTS = 3;
+    private static final int WEBHOOK_TIMEOUT_MS = 10000;
+
+    private final Config config;
+    private final File dir;
+    private final Gson gson = new Gson();
+    // Set while running as the notifier, whose stdout is notifier.log
+    private volatile boolean background;
+
+    /**
+     * A watched batch, stored as {@code <batch id>.json}
+     */
+    static class Watch {
+        String batchId;
+        long submitTime;
+        List<String> hooks = new ArrayList<>();
+        RunHistory.Run run;
+    }
+
+    public Notifier(Config config) {
+        this.config = config;
+        String server = PodTemplates.sha256(config.getBaseUrl().getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+        this.dir = new File(new File(config.getConfigDir(), "notify"), server);
+    }
+
+    /**
+     * Validate a hook spec; throws IllegalArgumentException if it is not one of the known kinds
+     */
+    static String validate(String spec) {
+        if (spec.startsWith("http://") || spec.startsWith("https://")
+            || (spec.startsWith("exec:") && spec.length() > 5) || (spec.startsWith("file:") && spec.length() > 5)) {
+            return spec;
+        }
+        throw new IllegalArgumentException("Invalid hook: " + spec
+            + " (expected an http(s) URL, exec:<command> or file:<path>)");
+    }
+
+    /**
+     * Configured hooks followed by the ones given with --notify
+     */
+    public List<String> resolveHooks(List<String> notify) {
+        List<String> hooks = new ArrayList<>();
+        for (String spec : config.getPropertiesWithPrefix(HOOK_PREFIX).values()) {
+            if (!spec.trim().isEmpty()) {
+                hooks.add(validate(spec.trim()));
+            }
+        }
+        hooks.addAll(notify);
+        return hooks;
+    }
+
+    /**
+     * Add a batch to the watch list
+     */
+    public void watch(String batchId, List<String> hooks, RunHistory.Run run, long submitTime) throws IOException {
+        Watch watch = new Watch();
+        watch.batchId = batchId;
+        watch.submitTime = submitTime;
+        watch.hooks = hooks;
+        watch.run = run;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create notifier directory: " + dir);
+        }
+        File tmp = File.createTempFile(batchId, ".tmp", dir);
+        Files.write(tmp.toPath(), gson.toJson(watch).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), new File(dir, batchId + ".json").toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Start a background notifier for this server unless one is running. Returns false when
+     * none is running and autostart is disabled.
+     */
+    public boolean ensureRunning() throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(dir, "notifier.lock").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+        } catch (OverlappingFileLockException e) {
+            return true;
+        }
+        if (!Boolean.parseBoolean(config.getProperty("spark.submit.notify.autostart", "true"))) {
+            return false;
+        }
+
+        List<String> command = new ArrayList<>();
+        // A new session keeps the notifier alive when the caller's process group is killed
+        if (new File("/usr/bin/setsid").canExecute()) {
+            command.add("/usr/bin/setsid");
+        }
+        boolean nativeImage = System.getProperty("org.graalvm.nativeimage.imagecode") != null;
+        if (nativeImage) {
+            command.add(new File("/proc/self/exe").getCanonicalPath());
+        } else {
+            command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+        }
+        for (String key : System.getProperties().stringPropertyNames()) {
+            for (String prefix : FORWARDED_PROPERTY_PREFIXES) {
+                if (key.startsWith(prefix)) {
+                    command.add("-D" + key + "=" + System.getProperty(key));
+                    break;
+                }
+            }
+        }
+        if (!nativeImage) {
+            command.add(SparkSubmit.class.getName());
+        }
+        command.add("--notifier");
+        if (config.getClusterName() != null) {
+            command.add("--cluster");
+            command.add(config.getClusterName());
+        }
+        Process process = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(dir, "notifier.log")))
+            .start();
+        process.getOutputStream().close();
+        return true;
+    }
+
+    /**
+     * Watch batches until idle; returns immediately if another notifier holds the lock
+     */
+    public int run() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create notifier directory: " + dir);
+        }
+        long idleExit = TimeUtils.parseDuration(config.getProperty("spark.submit.notify.idle-exit", "10m"));
+        boolean resumed = false;
+        while (true) {
+            try (FileChannel channel = FileChannel.open(new File(dir, "notifier.lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    if (resumed) {
+                        log("Another notifier took over; exiting");
+                    } else {
+                        System.err.println("A notifier is already running for " + config.getServerUrl());
+                    }
+                    return 0;
+                }
+                try {
+                    int exitCode = watchUntilIdle(idleExit, resumed);
+                    if (exitCode != 0) {
+                        return exitCode;
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+            // A submission that found the lock still held relies on this notifier, so look again
+            // now that a new one could start
+            if (!hasEntries()) {
+                log("Nothing to watch for " + TimeUtils.formatDuration(idleExit) + "; exiting");
+                return 0;
+            }
+            log("Batches were added while exiting; resuming");
+            resumed = true;
+        }
+    }
+
+    /**
+     * Poll the watched batches while holding the notifier lock; returns 0 once idle
+     */
+    private int watchUntilIdle(long idleExit, boolean resumed) throws IOException {
+        long pollInterval = TimeUtils.parseDuration(config.getProperty("spark.submit.notify.poll-interval", "10s"));
+        long maxAge = TimeUtils.parseDuration(config.getProperty("spark.submit.notify.max-age", "7d"));
+        int threads = Math.max(1, config.getIntProperty("spark.submit.notify.threads", 4));
+        background = true;
+        if (!resumed) {
+            log("Notifier started for " + config.getServerUrl() + ", watching " + dir);
+        }
+        KyuubiClient client = new KyuubiClient(config);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long idleSince = System.currentTimeMillis();
+            while (true) {
+                List<Callable<Void>> checks = new ArrayList<>();
+                File[] entries = dir.listFiles((d, name) -> name.endsWith(".json"));
+                for (File entry : entries != null ? entries : new File[0]) {
+                    checks.add(() -> {
+                        check(client, entry, maxAge);
+                        return null;
+                    });
+                }
+                long now = System.currentTimeMillis();
+                if (!checks.isEmpty()) {
+                    executor.invokeAll(checks);
+                    idleSince = now;
+                } else if (idleExit > 0 && now - idleSince >= idleExit) {
+                    return 0;
+                }
+                Thread.sleep(pollInterval);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 130;
+        } finally {
+            executor.shutdownNow();
+            client.close();
+        }
+    }
+
+    private boolean hasEntries() {
+        File[] entries = dir.listFiles((d, name) -> name.endsWith(".json"));
+        return entries != null && entries.length > 0;
+    }
+
+    private void check(KyuubiClient client, File entry, long maxAge) {
+        Watch watch;
+        try {
+            watch = gson.fromJson(new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8), Watch.class);
+        } catch (IOException | RuntimeException e) {
+            log("Dropping unreadable watch entry " + entry.getName() + ": " + e.getMessage());
+            entry.delete();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        KyuubiClient.BatchResponse status;
+        try {
+            status = client.getBatch(watch.batchId);
+        } catch (IOException e) {
+            if (maxAge > 0 && now - watch.submitTime > maxAge) {
+                log("Giving up on batch " + watch.batchId + " after " + TimeUtils.formatDuration(maxAge)
+                    + ": " + e.getMessage());
+                entry.delete();
+            } else {
+                log("Warning: Failed to get batch " + watch.batchId + ": " + e.getMessage());
+            }
+            return;
+        }
+        if (!status.isFinished()) {
+            if (maxAge > 0 && now - watch.submitTime > maxAge) {
+                log("Giving up on batch " + watch.batchId + ", still " + status.getState()
+                    + " after " + TimeUtils.formatDuration(maxAge));
+                entry.delete();
+            }
+            return;
+        }
+        int failed = fire(watch.hooks, status, now - watch.submitTime);
+        log("Batch " + watch.batchId + " " + status.getState() + "; " + (watch.hooks.size() - failed)
+            + " of " + watch.hooks.size() + " hooks fired");
+        if (watch.run != null) {
+            watch.run.observe(status, now);
+            new RunHistory(config).record(watch.run);
+        }
+        entry.delete();
+    }
+
+    /**
+     * Fire the hooks for a finished batch; returns the number that failed
+     */
+    public int fire(List<String> hooks, KyuubiClient.BatchResponse batch, long elapsedMs) {
+        return fire(hooks, batch, "FINISHED".equals(batch.getState()) ? 0 : 1, elapsedMs);
+    }
+
+    /**
+     * Fire the hooks with the exit code the client exits with, e.g. 124 after a time limit or 4
+     * after a fail-fast rule; returns the number that failed
+     */
+    public int fire(List<String> hooks, KyuubiClient.BatchResponse batch, int exitCode, long elapsedMs) {
+        if (hooks.isEmpty()) {
+            return 0;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        new EventWriter(new PrintStream(buffer, true)).completed(batch,
+            SparkSubmit.getApplicationUrl(config.getSparkHistoryServerUrl(), batch.getAppId()), exitCode, elapsedMs);
+        String payload = new String(buffer.toByteArray(), StandardCharsets.UTF_8).trim();
+
+        int failed = 0;
+        for (String hook : hooks) {
+            try {
+                if (hook.startsWith("exec:")) {
+                    runCommand(hook.substring(5), batch, exitCode, payload);
+                } else if (hook.startsWith("file:")) {
+                    writeMarker(new File(hook.substring(5)), batch.getId(), payload);
+                } else {
+                    post(hook, payload);
+                }
+            } catch (IOException e) {
+                failed++;
+                log("Warning: Hook " + hook + " failed for batch " + batch.getId() + ": " + e.getMessage());
+            }
+        }
+        return failed;
+    }
+
+    private void post(String url, String payload) throws IOException {
+        RequestConfig timeouts = RequestConfig.custom()
+            .setConnectTimeout(WEBHOOK_TIMEOUT_MS)
+            .setSocketTimeout(WEBHOOK_TIMEOUT_MS)
+            .build();
+        try (CloseableHttpClient http = HttpClients.custom().setDefaultRequestConfig(timeouts).build()) {
+            IOException last = null;
+            for (int attempt = 1; attempt <= WEBHOOK_ATTEMPTS; attempt++) {
+                HttpPost post = new HttpPost(url);
+                post.setEntity(new StringEntity(payload, ContentType.APPLICATION_JSON));
+                try (CloseableHttpResponse response = http.execute(post)) {
+                    int code = response.getStatusLine().getStatusCode();
+                    EntityUtils.consume(response.getEntity());
+                    if (code < 300) {
+                        return;
+                    }
+                    last = new IOException("HTTP " + code);
+                    if (code < 500) {
+                        // The receiver rejected the payload; sending it again will not help
+                        break;
+                    }
+                } catch (IOException e) {
+                    last = e;
+                }
+                if (attempt < WEBHOOK_ATTEMPTS) {
+                    try {
+                        Thread.sleep(1000L << (attempt - 1));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            throw last;
+        }
+    }
+
+    private void runCommand(String command, KyuubiClient.BatchResponse batch, int exitCode, String payload)
+            throws IOException {
+        // In the foreground stdout may carry --output jsonl events, so the command's output is
+        // copied to stderr instead; the background notifier lets it go to notifier.log directly
+        ProcessBuilder builder = new ProcessBuilder("sh", "-c", command).redirectErrorStream(true)
+            .redirectOutput(background ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.PIPE);
+        Map<String, String> env = builder.environment();
+        env.put("SPARK_SUBMIT_BATCH_ID", batch.getId());
+        env.put("SPARK_SUBMIT_STATE", String.valueOf(batch.getState()));
+        env.put("SPARK_SUBMIT_APP_ID", batch.getAppId() != null ? batch.getAppId() : "");
+        env.put("SPARK_SUBMIT_EXIT_CODE", String.valueOf(exitCode));
+        Process process = builder.start();
+        Thread output = null;
+        if (!background) {
+            output = new Thread(() -> copyToStderr(process.getInputStream()), "spark-submit-hook-output");
+            output.setDaemon(true);
+            output.start();
+        }
+        try (OutputStream in = process.getOutputStream()) {
+            in.write(payload.getBytes(StandardCharsets.UTF_8));
+            in.write('\n');
+        } catch (IOException e) {
+            // The command does not read the payload
+        }
+        long timeout = TimeUtils.parseDuration(config.getProperty("spark.submit.notify.command-timeout", "60s"));
+        try {
+            if (!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("timed out after " + TimeUtils.formatDuration(timeout));
+            }
+            if (output != null) {
+                // Let the last lines through before reporting on the hook
+                output.join(1000);
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        }
+        if (process.exitValue() != 0) {
+            throw new IOException("exit code " + process.exitValue());
+        }
+    }
+
+    private static void copyToStderr(InputStream in) {
+        byte[] buffer = new byte[8192];
+        try {
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                System.err.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            // The command was killed
+        } finally {
+            System.err.flush();
+        }
+    }
+
+    private static void writeMarker(File path, String batchId, String payload) throws IOException {
+        File target = path.isDirectory() ? new File(path, batchId + ".json") : path;
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        File tmp = File.createTempFile(target.getName(), ".tmp", parent);
+        Files.write(tmp.toPath(), (payload + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void log(String message) {
+        System.out.println(Instant.now() + " " + message);
+    }
+}
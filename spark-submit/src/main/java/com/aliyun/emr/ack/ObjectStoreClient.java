@@ -0,0 +1,36 @@
+package com.aliyun.emr.ack;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Minimal object store access used by the preflight checks to verify that referenced
+ * resources exist before a batch is submitted.
+ *
+ * The default implementation is {@link HttpObjectStoreClient}; another implementation can be
+ * plugged in with {@code spark.submit.preflight.object-store-client=<class name>}. It must have
+ * a public constructor taking a {@link Config} or a public no-argument constructor, and must be
+ * safe to call from several threads at once.
+ */
+public interface ObjectStoreClient extends Closeable {
+
+    /**
+     * Result of a HEAD request
+     */
+    enum Status {
+        EXISTS,
+        MISSING,
+        /** The object may exist but the client is not allowed to see it */
+        FORBIDDEN
+    }
+
+    /**
+     * Whether this client can check the given URI (e.g. by scheme)
+     */
+    boolean supports(String uri);
+
+    /**
+     * Look up the object without downloading it
+     */
+    Status head(String uri) throws IOException;
+}
@@ -0,0 +1,192 @@
+package com.aliyun.emr.ack;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Named, versioned set of tuned Spark settings.
+ *
+ * Profiles are properties files looked up in {@code <config dir>/profiles/} first and then
+ * among the profiles bundled with the client. {@code --profile etl-large} loads
+ * {@code etl-large.properties}; {@code --profile etl-large@2} loads {@code etl-large.v2.properties},
+ * or {@code etl-large.properties} if its {@code profile.version} is 2.
+ *
+ * Besides plain {@code spark.*} entries, a profile may declare settings scaled from the
+ * {@code --input-size} hint:
+ * <pre>
+ *   scale.spark.sql.shuffle.partitions.per-gb=4
+ *   scale.spark.sql.shuffle.partitions.min=200
+ *   scale.spark.sql.shuffle.partitions.max=8000
+ *   scale.spark.sql.shuffle.partitions.unit=   # optional suffix, e.g. g
+ * </pre>
+ * Profile values never override settings given explicitly on the command line.
+ */
+public class PerformanceProfile {
+    private static final String SCALE_PREFIX = "scale.";
+    private static final String PER_GB_SUFFIX = ".per-gb";
+    private static final String BUNDLED_DIR = "/profiles/";
+
+    private final String name;
+    private final String version;
+    private final String description;
+    private final Map<String, String> settings = new LinkedHashMap<>();
+    private final Map<String, ScaleRule> scaleRules = new LinkedHashMap<>();
+
+    private PerformanceProfile(String name, Properties props) {
+        this.name = name;
+        this.version = props.getProperty("profile.version", "1");
+        this.description = props.getProperty("profile.description", "");
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith("profile.")) {
+                continue;
+            }
+            if (key.startsWith(SCALE_PREFIX) && key.endsWith(PER_GB_SUFFIX)) {
+                String confKey = key.substring(SCALE_PREFIX.length(), key.length() - PER_GB_SUFFIX.length());
+                scaleRules.put(confKey, new ScaleRule(
+                    Double.parseDouble(props.getProperty(key).trim()),
+                    parseOptionalLong(props.getProperty(SCALE_PREFIX + confKey + ".min")),
+                    parseOptionalLong(props.getProperty(SCALE_PREFIX + confKey + ".max")),
+                    props.getProperty(SCALE_PREFIX + confKey + ".unit", "").trim()));
+            } else if (!key.startsWith(SCALE_PREFIX)) {
+                settings.put(key, props.getProperty(key).trim());
+            }
+        }
+    }
+
+    /**
+     * Load a profile by spec ({@code name} or {@code name@version})
+     */
+    public static PerformanceProfile load(Config config, String spec) throws IOException {
+        String name = spec.trim();
+        String requestedVersion = null;
+        int at = name.indexOf('@');
+        if (at > 0) {
+            requestedVersion = name.substring(at + 1).trim();
+            name = name.substring(0, at).trim();
+        }
+        if (!name.matches("[A-Za-z0-9._-]+")) {
+            throw new IOException("Invalid profile name: " + spec);
+        }
+
+        Properties props = null;
+        if (requestedVersion != null) {
+            props = read(config, name + ".v" + requestedVersion + ".properties");
+        }
+        if (props == null) {
+            props = read(config, name + ".properties");
+        }
+        if (props == null) {
+            throw new IOException("Profile not found: " + name + " (looked in "
+                + new File(config.getConfigDir(), "profiles") + " and bundled profiles)");
+        }
+        PerformanceProfile profile = new PerformanceProfile(name, props);
+        if (requestedVersion != null && !requestedVersion.equals(profile.getVersion())) {
+            throw new IOException("Profile " + name + " version " + requestedVersion
+                + " not found (available: " + profile.getVersion() + ")");
+        }
+        return profile;
+    }
+
+    private static Properties read(Config config, String fileName) throws IOException {
+        Properties props = new Properties();
+        File file = new File(new File(config.getConfigDir(), "profiles"), fileName);
+        if (file.isFile()) {
+            try (FileInputStream fis = new FileInputStream(file)) {
+                props.load(fis);
+            }
+            return props;
+        }
+        try (InputStream in = PerformanceProfile.class.getResourceAsStream(BUNDLED_DIR + fileName)) {
+            if (in == null) {
+                return null;
+            }
+            props.load(in);
+            return props;
+        }
+    }
+
+    /**
+     * Resolve the profile into concrete conf entries for the given input size hint
+     * ({@code null} when not declared; scale rules then fall back to their minimum)
+     */
+    public Map<String, String> resolve(Long inputSizeBytes) {
+        Map<String, String> resolved = new LinkedHashMap<>(settings);
+        for (Map.Entry<String, ScaleRule> entry : scaleRules.entrySet()) {
+            String value = entry.getValue().apply(inputSizeBytes);
+            if (value != null) {
+                resolved.put(entry.getKey(), value);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Layer the profile under the existing conf: keys already present are left untouched,
+     * except values that only came from spark-defaults.conf. Returns the entries that were added.
+     */
+    public Map<String, String> applyTo(SparkSubmitArgs args, Long inputSizeBytes) {
+        Map<String, String> applied = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : resolve(inputSizeBytes).entrySet()) {
+            String key = entry.getKey();
+            if (!args.getConf().containsKey(key) || args.getDefaultConfKeys().remove(key)) {
+                args.getConf().put(key, entry.getValue());
+                applied.put(key, entry.getValue());
+            }
+        }
+        return applied;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    private static Long parseOptionalLong(String value) {
+        return value == null || value.trim().isEmpty() ? null : Long.parseLong(value.trim());
+    }
+
+    private static class ScaleRule {
+        private final double perGb;
+        private final Long min;
+        private final Long max;
+        private final String unit;
+
+        ScaleRule(double perGb, Long min, Long max, String unit) {
+            this.perGb = perGb;
+            this.min = min;
+            this.max = max;
+            this.unit = unit;
+        }
+
+        String apply(Long inputSizeBytes) {
+            long value;
+            if (inputSizeBytes == null) {
+                if (min == null) {
+                    return null;
+                }
+                value = min;
+            } else {
+                value = (long) Math.ceil(SizeUtils.toGb(inputSizeBytes) * perGb);
+                if (min != null) {
+                    value = Math.max(value, min);
+                }
+                if (max != null) {
+                    value = Math.min(value, max);
+                }
+            }
+            return value + unit;
+        }
+    }
+}
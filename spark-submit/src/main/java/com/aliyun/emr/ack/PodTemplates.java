@@ -0,0 +1,321 @@
+package com.aliyun.emr.ack;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Driver and executor placement options, turned into Spark conf entries and pod templates.
+ *
+ * Settings Spark supports natively (node selectors, cpu limits, hostPath local dirs) are
+ * written straight into conf. Node affinity, tolerations, topology spread and ephemeral
+ * storage need a pod template; templates are written as JSON (which Kubernetes accepts as
+ * YAML) into the staging directory under a content-hash name and referenced from conf.
+ * Templates are read by the Kyuubi server, so they are only staged to a location it can reach:
+ * <pre>
+ *   spark.submit.pod-template.stage.dir=/mnt/oss/pod-templates   (mount of stage.uri)
+ *   spark.submit.pod-template.stage.uri=oss://bucket/pod-templates
+ *   spark.submit.pod-template.match-label-keys=true
+ * </pre>
+ * The topology spread is scoped to the application's own executors with matchLabelKeys, which
+ * needs Kubernetes 1.27 or later; older API servers drop the field silently and would spread
+ * across the executors of every application, so on those set match-label-keys=false to leave
+ * out the topology spread (with a warning) instead.
+ */
+public class PodTemplates {
+    private static final String LOCAL_DIR_VOLUME_PREFIX = "spark-local-dir-";
+
+    private final Map<String, List<String>> nodeAffinity = new LinkedHashMap<>();
+    private final Map<String, String> nodeSelector = new LinkedHashMap<>();
+    private final List<String[]> tolerations = new ArrayList<>();
+    private String topologySpreadKey;
+    private final List<String> localDirHostPaths = new ArrayList<>();
+    private String driverCpuLimit;
+    private String executorCpuLimit;
+    private String executorEphemeralStorage;
+
+    /**
+     * Require nodes whose label {@code key} is one of the values, from "key=v1,v2"
+     */
+    public void addNodeAffinity(String spec) {
+        int eq = spec.indexOf('=');
+        if (eq <= 0) {
+            throw new IllegalArgumentException("Invalid node affinity (expected key=value[,value]): " + spec);
+        }
+        List<String> values = new ArrayList<>();
+        for (String value : spec.substring(eq + 1).split(",")) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim());
+            }
+        }
+        nodeAffinity.put(spec.substring(0, eq).trim(), values);
+    }
+
+    public void addNodeSelector(String spec) {
+        int eq = spec.indexOf('=');
+        if (eq <= 0) {
+            throw new IllegalArgumentException("Invalid node selector (expected key=value): " + spec);
+        }
+        nodeSelector.put(spec.substring(0, eq).trim(), spec.substring(eq + 1).trim());
+    }
+
+    /**
+     * Add a toleration from "key[=value][:Effect]"; without a value the operator is Exists
+     */
+    public void addToleration(String spec) {
+        String keyValue = spec;
+        String effect = null;
+        int colon = spec.lastIndexOf(':');
+        if (colon > 0) {
+            keyValue = spec.substring(0, colon);
+            effect = spec.substring(colon + 1).trim();
+        }
+        int eq = keyValue.indexOf('=');
+        String key = eq > 0 ? keyValue.substring(0, eq).trim() : keyValue.trim();
+        String value = eq > 0 ? keyValue.substring(eq + 1).trim() : null;
+        if (key.isEmpty()) {
+            throw new IllegalArgumentException("Invalid toleration (expected key[=value][:Effect]): " + spec);
+        }
+        tolerations.add(new String[] {key, value, effect});
+    }
+
+    public void setTopologySpreadKey(String topologySpreadKey) {
+        this.topologySpreadKey = topologySpreadKey;
+    }
+
+    public void addLocalDirHostPaths(String commaSeparated) {
+        for (String path : commaSeparated.split(",")) {
+            if (!path.trim().isEmpty()) {
+                localDirHostPaths.add(path.trim());
+            }
+        }
+    }
+
+    public void setDriverCpuLimit(String driverCpuLimit) {
+        this.driverCpuLimit = driverCpuLimit;
+    }
+
+    public void setExecutorCpuLimit(String executorCpuLimit) {
+        this.executorCpuLimit = executorCpuLimit;
+    }
+
+    public void setExecutorEphemeralStorage(String executorEphemeralStorage) {
+        this.executorEphemeralStorage = executorEphemeralStorage;
+    }
+
+    public boolean isEmpty() {
+        return nodeAffinity.isEmpty() && nodeSelector.isEmpty() && tolerations.isEmpty()
+            && topologySpreadKey == null && localDirHostPaths.isEmpty() && driverCpuLimit == null
+            && executorCpuLimit == null && executorEphemeralStorage == null;
+    }
+
+    private boolean needsTemplates(boolean matchLabelKeys) {
+        return !nodeAffinity.isEmpty() || !tolerations.isEmpty() || (topologySpreadKey != null && matchLabelKeys)
+            || executorEphemeralStorage != null;
+    }
+
+    /**
+     * Write the native conf entries, generate and stage templates if needed, and wire their
+     * paths into conf. Explicit conf entries are never overridden.
+     */
+    public void applyTo(Config config, SparkSubmitArgs args) throws IOException {
+        Map<String, String> conf = args.getConf();
+        for (Map.Entry<String, String> entry : nodeSelector.entrySet()) {
+            conf.putIfAbsent("spark.kubernetes.node.selector." + entry.getKey(), entry.getValue());
+        }
+        if (driverCpuLimit != null) {
+            conf.putIfAbsent("spark.kubernetes.driver.limit.cores", driverCpuLimit);
+        }
+        if (executorCpuLimit != null) {
+            conf.putIfAbsent("spark.kubernetes.executor.limit.cores", executorCpuLimit);
+        }
+        // Volumes named spark-local-dir-* are picked up by Spark as local (shuffle/spill) dirs
+        for (int i = 0; i < localDirHostPaths.size(); i++) {
+            String prefix = "spark.kubernetes.executor.volumes.hostPath." + LOCAL_DIR_VOLUME_PREFIX + (i + 1);
+            conf.putIfAbsent(prefix + ".mount.path", "/" + LOCAL_DIR_VOLUME_PREFIX + (i + 1));
+            conf.putIfAbsent(prefix + ".mount.readOnly", "false");
+            conf.putIfAbsent(prefix + ".options.path", localDirHostPaths.get(i));
+        }
+
+        boolean matchLabelKeys = Boolean.parseBoolean(
+            config.getProperty("spark.submit.pod-template.match-label-keys", "true").trim());
+        if (topologySpreadKey != null && !matchLabelKeys) {
+            System.err.println("Warning: --topology-spread needs matchLabelKeys (Kubernetes 1.27+), disabled by "
+                + "spark.submit.pod-template.match-label-keys=false; not spreading executors");
+        }
+        if (!needsTemplates(matchLabelKeys)) {
+            return;
+        }
+        String uri = config.getProperty("spark.submit.pod-template.stage.uri", null);
+        if (uri == null || uri.trim().isEmpty()) {
+            throw new IOException("Pod templates are read by the Kyuubi server; set "
+                + "spark.submit.pod-template.stage.uri to a location it can read (e.g. oss://bucket/pod-templates) "
+                + "and spark.submit.pod-template.stage.dir to a local mount of the same location");
+        }
+        stageInto(config, conf, "spark.kubernetes.driver.podTemplateFile", buildTemplate("driver", matchLabelKeys));
+        stageInto(config, conf, "spark.kubernetes.executor.podTemplateFile", buildTemplate("executor", matchLabelKeys));
+    }
+
+    private void stageInto(Config config, Map<String, String> conf, String key, JsonObject template)
+            throws IOException {
+        if (conf.containsKey(key)) {
+            System.err.println("Warning: " + key + " is set explicitly; generated template not used");
+            return;
+        }
+        String location = stage(config, template);
+        conf.put(key, location);
+        System.out.println("Pod template staged: " + location);
+    }
+
+    /**
+     * Generate the pod template for "driver" or "executor"; the executor topology spread is only
+     * included when matchLabelKeys can scope it to the application
+     */
+    JsonObject buildTemplate(String role, boolean matchLabelKeys) {
+        JsonObject spec = new JsonObject();
+        if (!nodeAffinity.isEmpty()) {
+            JsonArray expressions = new JsonArray();
+            for (Map.Entry<String, List<String>> entry : nodeAffinity.entrySet()) {
+                JsonObject expression = new JsonObject();
+                expression.addProperty("key", entry.getKey());
+                expression.addProperty("operator", "In");
+                JsonArray values = new JsonArray();
+                entry.getValue().forEach(values::add);
+                expression.add("values", values);
+                expressions.add(expression);
+            }
+            JsonObject term = new JsonObject();
+            term.add("matchExpressions", expressions);
+            JsonArray terms = new JsonArray();
+            terms.add(term);
+            JsonObject required = new JsonObject();
+            required.add("nodeSelectorTerms", terms);
+            JsonObject affinity = new JsonObject();
+            JsonObject nodeAffinityJson = new JsonObject();
+            nodeAffinityJson.add("requiredDuringSchedulingIgnoredDuringExecution", required);
+            affinity.add("nodeAffinity", nodeAffinityJson);
+            spec.add("affinity", affinity);
+        }
+        if (!tolerations.isEmpty()) {
+            JsonArray array = new JsonArray();
+            for (String[] toleration : tolerations) {
+                JsonObject t = new JsonObject();
+                t.addProperty("key", toleration[0]);
+                if (toleration[1] != null) {
+                    t.addProperty("operator", "Equal");
+                    t.addProperty("value", toleration[1]);
+                } else {
+                    t.addProperty("operator", "Exists");
+                }
+                if (toleration[2] != null && !toleration[2].isEmpty()) {
+                    t.addProperty("effect", toleration[2]);
+                }
+                array.add(t);
+            }
+            spec.add("tolerations", array);
+        }
+        if ("executor".equals(role) && topologySpreadKey != null && matchLabelKeys) {
+            // Spread this application's executors: Spark labels them with spark-role and
+            // spark-app-selector, and matchLabelKeys scopes the constraint to the pod's own app
+            JsonObject matchLabels = new JsonObject();
+            matchLabels.addProperty("spark-role", "executor");
+            JsonObject labelSelector = new JsonObject();
+            labelSelector.add("matchLabels", matchLabels);
+            JsonArray appLabelKeys = new JsonArray();
+            appLabelKeys.add("spark-app-selector");
+            JsonObject constraint = new JsonObject();
+            constraint.addProperty("maxSkew", 1);
+            constraint.addProperty("topologyKey", topologySpreadKey);
+            constraint.addProperty("whenUnsatisfiable", "ScheduleAnyway");
+            constraint.add("labelSelector", labelSelector);
+            constraint.add("matchLabelKeys", appLabelKeys);
+            JsonArray constraints = new JsonArray();
+            constraints.add(constraint);
+            spec.add("topologySpreadConstraints", constraints);
+        }
+
+        // Spark uses the first container of the template and merges its own settings into it
+        JsonObject container = new JsonObject();
+        container.addProperty("name", "spark-kubernetes-" + role);
+        if ("executor".equals(role) && executorEphemeralStorage != null) {
+            JsonObject quantity = new JsonObject();
+            quantity.addProperty("ephemeral-storage", executorEphemeralStorage);
+            JsonObject resources = new JsonObject();
+            resources.add("requests", quantity);
+            resources.add("limits", quantity);
+            container.add("resources", resources);
+        }
+        JsonArray containers = new JsonArray();
+        containers.add(container);
+        spec.add("containers", containers);
+
+        JsonObject pod = new JsonObject();
+        pod.addProperty("apiVersion", "v1");
+        pod.addProperty("kind", "Pod");
+        pod.add("spec", spec);
+        return pod;
+    }
+
+    /**
+     * Write the template into the staging directory and return the location the Kyuubi server
+     * should read it from. spark.submit.pod-template.stage.dir is a directory the client can
+     * write (e.g. an OSS or NAS mount) and spark.submit.pod-template.stage.uri is how the same
+     * directory is addressed from the server (e.g. oss://bucket/pod-templates, or a file: URI
+     * when the server shares the client's file system).
+     */
+    private static String stage(Config config, JsonObject template) throws IOException {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        byte[] content = gson.toJson(template).getBytes(StandardCharsets.UTF_8);
+        String fileName = "pod-template-" + sha256(content).substring(0, 16) + ".json";
+
+        File dir = new File(config.getProperty("spark.submit.pod-template.stage.dir",
+            new File(config.getConfigDir(), "pod-templates").getPath()));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create pod template staging directory: " + dir);
+        }
+        File file = new File(dir, fileName);
+        if (!file.isFile()) {
+            // Submissions with the same placement stage the same file concurrently; each writes
+            // its own temp file and an existing target is as good as a new one
+            File tmp = File.createTempFile(fileName, ".tmp", dir);
+            try {
+                Files.write(tmp.toPath(), content);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                tmp.delete();
+                if (!file.isFile()) {
+                    throw new IOException("Failed to stage pod template " + file + ": " + e.getMessage(), e);
+                }
+            }
+        }
+
+        String uri = config.getProperty("spark.submit.pod-template.stage.uri", "").trim();
+        return (uri.endsWith("/") ? uri : uri + "/") + fileName;
+    }
+
+    static String sha256(byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(content)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
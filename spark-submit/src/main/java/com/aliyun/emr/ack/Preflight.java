@@ -0,0 +1,406 @@
+package com.aliyun.emr.ack;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Client-side checks run before a batch is submitted, so jobs that cannot succeed fail in
+ * seconds instead of after a driver pod has been scheduled.
+ *
+ * <ul>
+ *   <li>Every referenced resource (application resource, --jars, --py-files, --files,
+ *       --archives) is looked up concurrently with a HEAD request through an
+ *       {@link ObjectStoreClient}. Schemes the client cannot check are skipped.</li>
+ *   <li>The conf map is linted for settings that fail or waste the cluster: pods larger than
+ *       a node, too little memory overhead, shuffle partitions far off the available task slots
+ *       and contradictory dynamic allocation settings.</li>
+ * </ul>
+ *
+ * Errors abort the submission; warnings are only printed. Settings:
+ * <pre>
+ *   spark.submit.preflight.enabled=true
+ *   spark.submit.preflight.check-resources=true
+ *   spark.submit.preflight.threads=16
+ *   spark.submit.preflight.timeout=5s
+ *   spark.submit.preflight.node.memory=64g      # node allocatable memory, enables pod size checks
+ *   spark.submit.preflight.node.cores=16        # node allocatable cores
+ * </pre>
+ */
+public class Preflight implements Closeable {
+    private static final long MIN_OVERHEAD_MB = 384;
+    private static final int DEFAULT_SHUFFLE_PARTITIONS = 200;
+    private static final long MAX_BYTES_PER_PARTITION = 2L * 1024 * 1024 * 1024;
+
+    /**
+     * Severity of a finding: errors stop the submission
+     */
+    public enum Severity {
+        ERROR,
+        WARNING
+    }
+
+    /**
+     * One problem found by a check
+     */
+    public static class Finding {
+        private final Severity severity;
+        private final String check;
+        private final String message;
+
+        Finding(Severity severity, String check, String message) {
+            this.severity = severity;
+            this.check = check;
+            this.message = message;
+        }
+
+        public Severity getSeverity() { return severity; }
+        public String getCheck() { return check; }
+        public String getMessage() { return message; }
+
+        @Override
+        public String toString() {
+            return "[" + check + "] " + message;
+        }
+    }
+
+    private final boolean enabled;
+    private final boolean checkResources;
+    private final int threads;
+    private final Long nodeMemoryMb;
+    private final Integer nodeCores;
+    private final Config config;
+    private ObjectStoreClient objectStore;
+
+    public Preflight(Config config) {
+        this.config = config;
+        this.enabled = Boolean.parseBoolean(config.getProperty("spark.submit.preflight.enabled", "true"));
+        this.checkResources = Boolean.parseBoolean(config.getProperty("spark.submit.preflight.check-resources", "true"));
+        this.threads = Math.max(1, config.getIntProperty("spark.submit.preflight.threads", 16));
+        String nodeMemory = config.getProperty("spark.submit.preflight.node.memory", null);
+        this.nodeMemoryMb = nodeMemory != null && !nodeMemory.trim().isEmpty() ? SizeUtils.parseMemoryMb(nodeMemory) : null;
+        int cores = config.getIntProperty("spark.submit.preflight.node.cores", 0);
+        this.nodeCores = cores > 0 ? cores : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Run all checks and print the findings. Returns false when the submission must not proceed.
+     */
+    public boolean check(SparkSubmitArgs args) throws IOException {
+        long start = System.currentTimeMillis();
+        List<Finding> findings = new ArrayList<>(lintConf(args));
+        int resources = 0;
+        if (checkResources) {
+            Set<String> uris = referencedResources(args);
+            resources = uris.size();
+            findings.addAll(checkResources(uris));
+        }
+
+        int errors = 0;
+        for (Finding finding : findings) {
+            if (finding.getSeverity() == Severity.ERROR) {
+                errors++;
+                System.err.println("❌ Preflight error " + finding);
+            } else {
+                System.err.println("⚠️  Preflight warning " + finding);
+            }
+        }
+        System.out.println("Preflight: " + resources + " resource(s) checked, " + errors + " error(s), "
+            + (findings.size() - errors) + " warning(s) (" + TimeUtils.formatDuration(System.currentTimeMillis() - start) + ")");
+        return errors == 0;
+    }
+
+    /**
+     * All resource URIs referenced by the submission, without #alias suffixes
+     */
+    static Set<String> referencedResources(SparkSubmitArgs args) {
+        Set<String> uris = new LinkedHashSet<>();
+        addResource(uris, args.getResource());
+        for (List<String> list : java.util.Arrays.asList(args.getJars(), args.getPyFiles(), args.getFiles(), args.getArchives())) {
+            for (String uri : list) {
+                addResource(uris, uri);
+            }
+        }
+        return uris;
+    }
+
+    private static void addResource(Set<String> uris, String uri) {
+        if (uri == null || uri.trim().isEmpty()) {
+            return;
+        }
+        String value = uri.trim();
+        int hash = value.indexOf('#');
+        uris.add(hash > 0 ? value.substring(0, hash) : value);
+    }
+
+    /**
+     * HEAD every resource the object store client supports, with up to the configured number
+     * of requests in flight
+     */
+    public List<Finding> checkResources(Set<String> uris) throws IOException {
+        List<Finding> findings = new ArrayList<>();
+        ObjectStoreClient store = objectStore();
+        List<String> supported = new ArrayList<>();
+        for (String uri : uris) {
+            if (store.supports(uri)) {
+                supported.add(uri);
+            }
+        }
+        if (supported.isEmpty()) {
+            return findings;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, supported.size()));
+        try {
+            List<Future<ObjectStoreClient.Status>> futures = new ArrayList<>();
+            for (final String uri : supported) {
+                futures.add(executor.submit(() -> store.head(uri)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                String uri = supported.get(i);
+                try {
+                    ObjectStoreClient.Status status = futures.get(i).get();
+                    if (status == ObjectStoreClient.Status.MISSING) {
+                        findings.add(new Finding(Severity.ERROR, "resource", "Not found: " + uri));
+                    } else if (status == ObjectStoreClient.Status.FORBIDDEN) {
+                        findings.add(new Finding(Severity.WARNING, "resource",
+                            "Access denied, could not verify: " + uri));
+                    }
+                } catch (ExecutionException e) {
+                    // An unreachable store is not proof that the job will fail
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    findings.add(new Finding(Severity.WARNING, "resource",
+                        "Could not verify " + uri + ": " + cause.getMessage()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while checking resources", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return findings;
+    }
+
+    /**
+     * Lint the conf map for settings that cannot work or waste resources
+     */
+    public List<Finding> lintConf(SparkSubmitArgs args) {
+        List<Finding> findings = new ArrayList<>();
+        Map<String, String> conf = args.getConf();
+        try {
+            boolean python = "PYSPARK".equals(args.getBatchType());
+            lintPod(findings, conf, "driver", python);
+            lintPod(findings, conf, "executor", python);
+            lintDynamicAllocation(findings, conf);
+            lintShufflePartitions(findings, conf, args.getInputSizeBytes());
+        } catch (IllegalArgumentException e) {
+            findings.add(new Finding(Severity.ERROR, "conf", e.getMessage()));
+        }
+        return findings;
+    }
+
+    private void lintPod(List<Finding> findings, Map<String, String> conf, String role, boolean python) {
+        String prefix = "spark." + role + ".";
+        long heapMb = memoryMb(conf, prefix + "memory", "1g");
+        double factor = doubleValue(conf, prefix + "memoryOverheadFactor",
+            doubleValue(conf, "spark.kubernetes.memoryOverheadFactor", 0.1));
+        long defaultOverheadMb = Math.max(MIN_OVERHEAD_MB, (long) (heapMb * factor));
+        long overheadMb = defaultOverheadMb;
+        if (conf.containsKey(prefix + "memoryOverhead")) {
+            overheadMb = memoryMb(conf, prefix + "memoryOverhead", null);
+            // Python workers live in the overhead unless spark.executor.pyspark.memory is set
+            boolean pythonInOverhead = python && "executor".equals(role) && !conf.containsKey("spark.executor.pyspark.memory");
+            long recommendedMb = Math.max(MIN_OVERHEAD_MB, (long) (heapMb * (pythonInOverhead ? 0.2 : 0.1)));
+            if (overheadMb < recommendedMb) {
+                findings.add(new Finding(Severity.WARNING, "overhead", prefix + "memoryOverhead=" + overheadMb
+                    + "m is below " + recommendedMb + "m for a " + heapMb + "m heap"
+                    + (pythonInOverhead ? " with Python workers" : "")
+                    + "; off-heap use (netty, native libraries) may get the pod OOM-killed"));
+            }
+        }
+
+        long podMb = heapMb + overheadMb;
+        if ("executor".equals(role)) {
+            if (conf.containsKey("spark.executor.pyspark.memory")) {
+                podMb += memoryMb(conf, "spark.executor.pyspark.memory", null);
+            }
+            if (Boolean.parseBoolean(conf.get("spark.memory.offHeap.enabled")) && conf.containsKey("spark.memory.offHeap.size")) {
+                podMb += SizeUtils.parseBytes(conf.get("spark.memory.offHeap.size")) / (1024 * 1024);
+            }
+        }
+        if (nodeMemoryMb != null && podMb > nodeMemoryMb) {
+            findings.add(new Finding(Severity.ERROR, "memory", "The " + role + " pod needs " + podMb
+                + "m (heap " + heapMb + "m + overhead " + overheadMb + "m) but nodes have " + nodeMemoryMb
+                + "m; it can never be scheduled"));
+        }
+
+        if (nodeCores != null) {
+            double cores = doubleValue(conf, "spark.kubernetes." + role + ".request.cores",
+                doubleValue(conf, prefix + "cores", 1));
+            if (cores > nodeCores) {
+                findings.add(new Finding(Severity.ERROR, "cores", "The " + role + " pod requests " + format(cores)
+                    + " cores but nodes have " + nodeCores + "; it can never be scheduled"));
+            }
+        }
+    }
+
+    private void lintDynamicAllocation(List<Finding> findings, Map<String, String> conf) {
+        boolean enabled = Boolean.parseBoolean(conf.get("spark.dynamicAllocation.enabled"));
+        String min = conf.get("spark.dynamicAllocation.minExecutors");
+        String max = conf.get("spark.dynamicAllocation.maxExecutors");
+        String initial = conf.get("spark.dynamicAllocation.initialExecutors");
+        String instances = conf.get("spark.executor.instances");
+
+        if (!enabled) {
+            if (min != null || max != null || initial != null) {
+                findings.add(new Finding(Severity.WARNING, "dynamic-allocation",
+                    "spark.dynamicAllocation.* executor bounds are set but dynamic allocation is disabled; they are ignored"));
+            }
+            return;
+        }
+
+        Integer minValue = intValue(conf, "spark.dynamicAllocation.minExecutors");
+        Integer maxValue = intValue(conf, "spark.dynamicAllocation.maxExecutors");
+        if (minValue != null && maxValue != null && minValue > maxValue) {
+            findings.add(new Finding(Severity.ERROR, "dynamic-allocation", "minExecutors (" + minValue
+                + ") is greater than maxExecutors (" + maxValue + ")"));
+        }
+        if (maxValue != null) {
+            // Spark starts with max(minExecutors, initialExecutors, spark.executor.instances) and rejects more than max
+            for (String key : new String[] {"spark.dynamicAllocation.initialExecutors", "spark.executor.instances"}) {
+                Integer value = intValue(conf, key);
+                if (value != null && value > maxValue) {
+                    findings.add(new Finding(Severity.ERROR, "dynamic-allocation", key + " (" + value
+                        + ") is greater than spark.dynamicAllocation.maxExecutors (" + maxValue + ")"));
+                }
+            }
+        }
+        if (instances != null && maxValue == null) {
+            findings.add(new Finding(Severity.WARNING, "dynamic-allocation",
+                "spark.executor.instances is set together with dynamic allocation; it only sets the initial executor count"));
+        }
+        if (!Boolean.parseBoolean(conf.get("spark.dynamicAllocation.shuffleTracking.enabled"))
+                && !Boolean.parseBoolean(conf.get("spark.shuffle.service.enabled"))
+                && !Boolean.parseBoolean(conf.get("spark.decommission.enabled"))) {
+            findings.add(new Finding(Severity.WARNING, "dynamic-allocation",
+                "Dynamic allocation on Kubernetes needs spark.dynamicAllocation.shuffleTracking.enabled=true "
+                    + "unless the server defaults enable it"));
+        }
+    }
+
+    private void lintShufflePartitions(List<Finding> findings, Map<String, String> conf, Long inputSizeBytes) {
+        Integer partitions = intValue(conf, "spark.sql.shuffle.partitions");
+        int shufflePartitions = partitions != null ? partitions : DEFAULT_SHUFFLE_PARTITIONS;
+
+        Integer executors;
+        if (Boolean.parseBoolean(conf.get("spark.dynamicAllocation.enabled"))) {
+            executors = intValue(conf, "spark.dynamicAllocation.maxExecutors");
+        } else {
+            executors = intValue(conf, "spark.executor.instances");
+        }
+        if (executors != null && executors > 0) {
+            double executorCores = doubleValue(conf, "spark.executor.cores", 1);
+            double taskCpus = doubleValue(conf, "spark.task.cpus", 1);
+            long slots = Math.max(1, (long) (executors * Math.floor(executorCores / taskCpus)));
+            boolean coalesce = !"false".equalsIgnoreCase(conf.get("spark.sql.adaptive.enabled"))
+                && !"false".equalsIgnoreCase(conf.get("spark.sql.adaptive.coalescePartitions.enabled"));
+            if (shufflePartitions < slots) {
+                findings.add(new Finding(Severity.WARNING, "shuffle-partitions", "spark.sql.shuffle.partitions="
+                    + shufflePartitions + " is below the " + slots + " task slots (" + executors
+                    + " executors); shuffle stages leave cores idle"));
+            } else if (!coalesce && shufflePartitions > slots * 100) {
+                findings.add(new Finding(Severity.WARNING, "shuffle-partitions", "spark.sql.shuffle.partitions="
+                    + shufflePartitions + " is over 100x the " + slots
+                    + " task slots with adaptive coalescing disabled; expect scheduling overhead from tiny tasks"));
+            }
+        }
+
+        if (inputSizeBytes != null && inputSizeBytes / shufflePartitions > MAX_BYTES_PER_PARTITION) {
+            findings.add(new Finding(Severity.WARNING, "shuffle-partitions", "spark.sql.shuffle.partitions="
+                + shufflePartitions + " gives about " + SizeUtils.format(inputSizeBytes / shufflePartitions)
+                + " per partition for " + SizeUtils.format(inputSizeBytes) + " of input; expect spills"));
+        }
+    }
+
+    private static long memoryMb(Map<String, String> conf, String key, String defaultValue) {
+        String value = conf.containsKey(key) ? conf.get(key) : defaultValue;
+        try {
+            return SizeUtils.parseMemoryMb(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    private static Integer intValue(Map<String, String> conf, String key) {
+        String value = conf.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    private static double doubleValue(Map<String, String> conf, String key, double defaultValue) {
+        String value = conf.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+        }
+    }
+
+    private static String format(double value) {
+        return value == Math.floor(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private ObjectStoreClient objectStore() throws IOException {
+        if (objectStore == null) {
+            String className = config.getProperty("spark.submit.preflight.object-store-client", null);
+            if (className == null || className.trim().isEmpty()) {
+                objectStore = new HttpObjectStoreClient(config);
+            } else {
+                objectStore = loadObjectStore(className.trim());
+            }
+        }
+        return objectStore;
+    }
+
+    private ObjectStoreClient loadObjectStore(String className) throws IOException {
+        try {
+            Class<? extends ObjectStoreClient> clazz = Class.forName(className).asSubclass(ObjectStoreClient.class);
+            try {
+                return clazz.getConstructor(Config.class).newInstance(config);
+            } catch (NoSuchMethodException e) {
+                return clazz.getConstructor().newInstance();
+            }
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IOException("Cannot load object store client " + className + ": " + e, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (objectStore != null) {
+            objectStore.close();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.aliyun.emr.ack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Opt-in retry of failed batches with escalated resources.
+ *
+ * A batch that ends in ERROR is classified from its {@code appDiagnostic} and the tail of its
+ * log. Resource failures are resubmitted with adjusted conf, up to a bounded number of retries:
+ * <ul>
+ *   <li>driver OOM: spark.driver.memory x memory-factor</li>
+ *   <li>executor heap OOM: spark.executor.memory x memory-factor; at the cap, half the
+ *       executor cores and twice the shuffle partitions instead</li>
+ *   <li>executor container killed for memory (OOMKilled, exit code 137, exceeding memory
+ *       limits): spark.executor.memoryOverhead x 2, within the same cap</li>
+ *   <li>shuffle fetch failures: spark.sql.shuffle.partitions x 2</li>
+ * </ul>
+ * Other failures (application errors, bad input) are not retried. Settings:
+ * <pre>
+ *   spark.submit.retry.max-retries=0            (--retry, 0 disables)
+ *   spark.submit.retry.memory-factor=1.5
+ *   spark.submit.retry.max-executor-memory=32g  (heap + overhead)
+ *   spark.submit.retry.max-driver-memory=16g
+ * </pre>
+ */
+public class RetryPolicy {
+    private static final long MIN_OVERHEAD_MB = 384;
+    private static final int MAX_SHUFFLE_PARTITIONS = 100000;
+
+    private static final Pattern OOM = Pattern.compile(
+        "OutOfMemoryError|Java heap space|GC overhead limit exceeded");
+    private static final Pattern CONTAINER_KILLED = Pattern.compile(
+        "OOMKilled|exceeding memory limits|exit code:? 137|exit status:? 137|boosting \\S*memoryOverhead",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern FETCH_FAILED = Pattern.compile(
+        "FetchFailedException|MetadataFetchFailedException|Missing an output location for shuffle");
+    private static final Pattern DRIVER = Pattern.compile("\\bdriver\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Failure classes, most specific first
+     */
+    public enum Failure {
+        DRIVER_OOM("driver out of memory"),
+        EXECUTOR_MEMORY_KILLED("executor killed for exceeding its memory limit"),
+        EXECUTOR_OOM("executor out of heap memory"),
+        FETCH_FAILED("shuffle fetch failures"),
+        UNKNOWN("not a resource failure");
+
+        private final String description;
+
+        Failure(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private final int maxRetries;
+    private final double memoryFactor;
+    private final long maxExecutorMemoryMb;
+    private final long maxDriverMemoryMb;
+
+    public RetryPolicy(Config config, SparkSubmitArgs args) {
+        this.maxRetries = args.getRetries() != null ? args.getRetries()
+            : config.getIntProperty("spark.submit.retry.max-retries", 0);
+        this.memoryFactor = Math.max(1.1, Double.parseDouble(
+            config.getProperty("spark.submit.retry.memory-factor", "1.5")));
+        this.maxExecutorMemoryMb = SizeUtils.parseMemoryMb(
+            config.getProperty("spark.submit.retry.max-executor-memory", "32g"));
+        this.maxDriverMemoryMb = SizeUtils.parseMemoryMb(
+            config.getProperty("spark.submit.retry.max-driver-memory", "16g"));
+    }
+
+    public boolean isEnabled() {
+        return maxRetries > 0;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Classify a failure from the diagnostic and the last log lines
+     */
+    public static Failure classify(String diagnostic, Collection<String> logTail) {
+        List<String> lines = new ArrayList<>();
+        if (diagnostic != null) {
+            for (String line : diagnostic.split("\n")) {
+                lines.add(line);
+            }
+        }
+        lines.addAll(logTail);
+        Failure result = Failure.UNKNOWN;
+        for (String line : lines) {
+            Failure failure = Failure.UNKNOWN;
+            if (OOM.matcher(line).find() || CONTAINER_KILLED.matcher(line).find()) {
+                if (DRIVER.matcher(line).find()) {
+                    failure = Failure.DRIVER_OOM;
+                } else if (CONTAINER_KILLED.matcher(line).find()) {
+                    failure = Failure.EXECUTOR_MEMORY_KILLED;
+                } else {
+                    failure = Failure.EXECUTOR_OOM;
+                }
+            } else if (FETCH_FAILED.matcher(line).find()) {
+                failure = Failure.FETCH_FAILED;
+            }
+            if (failure.ordinal() < result.ordinal()) {
+                result = failure;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adjust the conf for the next attempt. Returns the changes made ("key: old -> new"), or an
+     * empty list when the failure is not retryable or the limits are already reached.
+     */
+    public List<String> escalate(SparkSubmitArgs args, Failure failure) {
+        Map<String, String> conf = args.getConf();
+        List<String> changes = new ArrayList<>();
+        switch (failure) {
+            case DRIVER_OOM: {
+                long memoryMb = memoryMb(conf, "spark.driver.memory", "1g");
+                long newMemoryMb = Math.min(maxDriverMemoryMb, (long) (memoryMb * memoryFactor));
+                set(conf, changes, "spark.driver.memory", memoryMb, newMemoryMb);
+                break;
+            }
+            case EXECUTOR_OOM: {
+                long memoryMb = memoryMb(conf, "spark.executor.memory", "1g");
+                long overheadMb = overheadMb(conf, memoryMb);
+                long newMemoryMb = Math.min(maxExecutorMemoryMb - overheadMb, (long) (memoryMb * memoryFactor));
+                if (!set(conf, changes, "spark.executor.memory", memoryMb, newMemoryMb)) {
+                    // At the cap: fewer concurrent tasks per executor and smaller partitions
+                    int cores = intValue(conf, "spark.executor.cores", 1);
+                    if (cores > 1) {
+                        changes.add(put(conf, "spark.executor.cores", String.valueOf(cores), String.valueOf(cores / 2)));
+                    }
+                    doublePartitions(conf, changes);
+                }
+                break;
+            }
+            case EXECUTOR_MEMORY_KILLED: {
+                long memoryMb = memoryMb(conf, "spark.executor.memory", "1g");
+                long overheadMb = overheadMb(conf, memoryMb);
+                long newOverheadMb = Math.min(maxExecutorMemoryMb - memoryMb, overheadMb * 2);
+                set(conf, changes, "spark.executor.memoryOverhead", overheadMb, newOverheadMb);
+                break;
+            }
+            case FETCH_FAILED:
+                doublePartitions(conf, changes);
+                break;
+            default:
+                break;
+        }
+        return changes;
+    }
+
+    private static boolean set(Map<String, String> conf, List<String> changes, String key, long oldMb, long newMb) {
+        if (newMb <= oldMb) {
+            return false;
+        }
+        changes.add(put(conf, key, oldMb + "m", newMb + "m"));
+        return true;
+    }
+
+    private static void doublePartitions(Map<String, String> conf, List<String> changes) {
+        int partitions = intValue(conf, "spark.sql.shuffle.partitions", 200);
+        if (partitions < MAX_SHUFFLE_PARTITIONS) {
+            changes.add(put(conf, "spark.sql.shuffle.partitions", String.valueOf(partitions),
+                String.valueOf(Math.min(MAX_SHUFFLE_PARTITIONS, partitions * 2))));
+        }
+    }
+
+    private static String put(Map<String, String> conf, String key, String oldValue, String newValue) {
+        conf.put(key, newValue);
+        return key + ": " + oldValue + " -> " + newValue;
+    }
+
+    private static long overheadMb(Map<String, String> conf, long memoryMb) {
+        if (conf.containsKey("spark.executor.memoryOverhead")) {
+            return memoryMb(conf, "spark.executor.memoryOverhead", null);
+        }
+        String factor = conf.getOrDefault("spark.executor.memoryOverheadFactor",
+            conf.getOrDefault("spark.kubernetes.memoryOverheadFactor", "0.1"));
+        return Math.max(MIN_OVERHEAD_MB, (long) (memoryMb * Double.parseDouble(factor.trim())));
+    }
+
+    private static long memoryMb(Map<String, String> conf, String key, String defaultValue) {
+        return SizeUtils.parseMemoryMb(conf.containsKey(key) ? conf.get(key) : defaultValue);
+    }
+
+    private static int intValue(Map<String, String> conf, String key, int defaultValue) {
+        String value = conf.get(key);
+        return value != null && !value.trim().isEmpty() ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+}
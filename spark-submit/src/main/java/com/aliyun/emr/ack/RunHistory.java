@@ -0,0 +1,398 @@
+package com.aliyun.emr.ack;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Local history of finished batches with the time spent in each lifecycle phase.
+ *
+ * Runs are appended as JSON lines to {@code <config dir>/history/runs.jsonl} under a file lock,
+ * so every spark-submit process on this host shares one history. Phases are derived from the
+ * Kyuubi timestamps ({@code createTime}, {@code appStartTime}, {@code endTime}) and the times at
+ * which the client observed state changes:
+ * <ul>
+ *   <li>submit - round trip of the submit request</li>
+ *   <li>queued - batch created until Kyuubi started launching it (state RUNNING)</li>
+ *   <li>driver start - launch until the Spark application started (driver pod up)</li>
+ *   <li>running - Spark application start until the batch ended</li>
+ *   <li>detection lag - batch end until the client noticed</li>
+ * </ul>
+ * Client-observed transitions are only as precise as the poll interval.
+ *
+ * Settings:
+ * <pre>
+ *   spark.submit.history.enabled=true
+ *   spark.submit.history.max-runs=10000
+ * </pre>
+ */
+public class RunHistory {
+    private static final String[] PHASES = {"submit", "queued", "driver start", "running", "detection lag", "total"};
+    private static final int AVERAGE_RECORD_BYTES = 1024;
+
+    private final boolean enabled;
+    private final int maxRuns;
+    private final File dir;
+    private final File file;
+    private final Gson gson = new Gson();
+
+    public RunHistory(Config config) {
+        this.enabled = Boolean.parseBoolean(config.getProperty("spark.submit.history.enabled", "true"));
+        this.maxRuns = Math.max(1, config.getIntProperty("spark.submit.history.max-runs", 10000));
+        this.dir = new File(config.getConfigDir(), "history");
+        this.file = new File(dir, "runs.jsonl");
+    }
+
+    /**
+     * Timing of one batch, filled in while it is followed
+     */
+    public static class Run {
+        private String batchId;
+        private String name;
+        private String queue;
+        private String user;
+        private String kyuubiInstance;
+        private String state;
+        private Long submitStart;
+        private Long submitLatencyMs;
+        private Long createTime;
+        private Long runningObservedAt;
+        private Long appStartTime;
+        private Long endTime;
+        private Long finishObservedAt;
+
+        public Run() {
+        }
+
+        public Run(String name, String queue) {
+            this.name = name;
+            this.queue = queue;
+        }
+
+        /**
+         * Record the submit request: started at {@code submitStart}, answered now
+         */
+        public void submitted(KyuubiClient.BatchResponse response, long submitStart) {
+            this.submitStart = submitStart;
+            this.submitLatencyMs = System.currentTimeMillis() - submitStart;
+            observe(response, System.currentTimeMillis());
+        }
+
+        /**
+         * Update from a polled status; call on every poll
+         */
+        public void observe(KyuubiClient.BatchResponse status, long now) {
+            batchId = status.getId() != null ? status.getId() : batchId;
+            if (name == null || name.isEmpty()) {
+                name = status.getName();
+            }
+            user = status.getUser() != null ? status.getUser() : user;
+            kyuubiInstance = status.getKyuubiInstance() != null ? status.getKyuubiInstance() : kyuubiInstance;
+            state = status.getState() != null ? status.getState() : state;
+            createTime = positive(status.getCreateTime(), createTime);
+            appStartTime = positive(status.getAppStartTime(), appStartTime);
+            endTime = positive(status.getEndTime(), endTime);
+            if (runningObservedAt == null && "RUNNING".equals(status.getState())) {
+                runningObservedAt = now;
+            }
+            if (finishObservedAt == null && status.isFinished()) {
+                finishObservedAt = now;
+            }
+        }
+
+        public Long getSubmitLatencyMs() {
+            return submitLatencyMs;
+        }
+
+        public Long getQueuedMs() {
+            Long launched = launchedAt();
+            return createTime != null && launched != null ? nonNegative(launched - createTime) : null;
+        }
+
+        public Long getDriverStartMs() {
+            // Without a RUNNING observation queueing and driver start cannot be told apart
+            return runningObservedAt != null && appStartTime != null ? nonNegative(appStartTime - launchedAt()) : null;
+        }
+
+        /**
+         * When Kyuubi launched the application: first seen RUNNING, but never after the
+         * application itself started (the poll may have been late)
+         */
+        private Long launchedAt() {
+            if (runningObservedAt == null) {
+                return appStartTime;
+            }
+            return appStartTime != null ? Math.min(runningObservedAt, appStartTime) : runningObservedAt;
+        }
+
+        public Long getRunningMs() {
+            Long start = appStartTime != null ? appStartTime : runningObservedAt;
+            return start != null && endTime != null ? nonNegative(endTime - start) : null;
+        }
+
+        public Long getDetectionLagMs() {
+            return endTime != null && finishObservedAt != null ? nonNegative(finishObservedAt - endTime) : null;
+        }
+
+        public Long getTotalMs() {
+            Long start = submitStart != null ? submitStart : createTime;
+            Long end = finishObservedAt != null ? finishObservedAt : endTime;
+            return start != null && end != null ? nonNegative(end - start) : null;
+        }
+
+        public Long getCreateTime() {
+            return createTime;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        Long phase(String phase) {
+            switch (phase) {
+                case "submit": return getSubmitLatencyMs();
+                case "queued": return getQueuedMs();
+                case "driver start": return getDriverStartMs();
+                case "running": return getRunningMs();
+                case "detection lag": return getDetectionLagMs();
+                default: return getTotalMs();
+            }
+        }
+
+        /**
+         * One-line phase breakdown for the end of a followed run
+         */
+        public String summary() {
+            StringBuilder sb = new StringBuilder();
+            for (String phase : PHASES) {
+                Long value = phase(phase);
+                if (value != null) {
+                    sb.append(sb.length() > 0 ? ", " : "").append(phase).append(' ').append(TimeUtils.formatDuration(value));
+                }
+            }
+            return sb.toString();
+        }
+
+        private static Long positive(Long value, Long fallback) {
+            return value != null && value > 0 ? value : fallback;
+        }
+
+        private static long nonNegative(long value) {
+            return Math.max(0, value);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Append a finished run; failures are reported but never fail the caller
+     */
+    public void record(Run run) {
+        if (!enabled || run == null || run.batchId == null) {
+            return;
+        }
+        try {
+            withLock(() -> {
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+                    writer.write(gson.toJson(run));
+                    writer.write('\n');
+                }
+                if (file.length() > (long) maxRuns * AVERAGE_RECORD_BYTES) {
+                    compact();
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            System.err.println("Warning: Failed to record run history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read all recorded runs, oldest first
+     */
+    public List<Run> load() throws IOException {
+        List<Run> runs = new ArrayList<>();
+        if (!file.isFile()) {
+            return runs;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    Run run = gson.fromJson(line, Run.class);
+                    if (run != null && run.batchId != null) {
+                        runs.add(run);
+                    }
+                } catch (JsonParseException e) {
+                    // Skip a torn or hand-edited line rather than losing the whole history
+                }
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Print phase percentiles per group ({@code name}, {@code queue} or {@code instance}).
+     * Runs are filtered by the name glob and creation time of the selector.
+     */
+    public void report(String groupBy, BatchSelector selector, EventWriter events) throws IOException {
+        Function<Run, String> key;
+        if ("name".equals(groupBy)) {
+            key = run -> run.name;
+        } else if ("queue".equals(groupBy)) {
+            key = run -> run.queue;
+        } else if ("instance".equals(groupBy)) {
+            key = run -> run.kyuubiInstance;
+        } else {
+            throw new IllegalArgumentException("--history-report must be 'name', 'queue' or 'instance'");
+        }
+
+        Pattern namePattern = selector.getNameGlob() != null ? BatchSelector.globToPattern(selector.getNameGlob()) : null;
+        Map<String, List<Run>> groups = new TreeMap<>();
+        int total = 0;
+        for (Run run : load()) {
+            if (!matches(selector, namePattern, run)) {
+                continue;
+            }
+            String group = key.apply(run);
+            groups.computeIfAbsent(group != null && !group.isEmpty() ? group : "(none)", k -> new ArrayList<>()).add(run);
+            total++;
+        }
+
+        System.out.println("Run history: " + total + " run(s) by " + groupBy + " (" + file + ")");
+        for (Map.Entry<String, List<Run>> group : groups.entrySet()) {
+            List<Run> runs = group.getValue();
+            int failed = 0;
+            for (Run run : runs) {
+                if (!"FINISHED".equals(run.state)) {
+                    failed++;
+                }
+            }
+            System.out.println();
+            System.out.println(group.getKey() + " (" + runs.size() + " runs, " + failed + " not FINISHED)");
+            System.out.println(String.format("  %-14s %6s %10s %10s %10s %10s", "phase", "n", "p50", "p90", "p99", "max"));
+            JsonObject phases = new JsonObject();
+            for (String phase : PHASES) {
+                List<Long> values = new ArrayList<>();
+                for (Run run : runs) {
+                    Long value = run.phase(phase);
+                    if (value != null) {
+                        values.add(value);
+                    }
+                }
+                if (values.isEmpty()) {
+                    continue;
+                }
+                Collections.sort(values);
+                Map<String, Long> stats = new LinkedHashMap<>();
+                stats.put("p50", percentile(values, 50));
+                stats.put("p90", percentile(values, 90));
+                stats.put("p99", percentile(values, 99));
+                stats.put("max", values.get(values.size() - 1));
+                System.out.println(String.format("  %-14s %6d %10s %10s %10s %10s", phase, values.size(),
+                    TimeUtils.formatDuration(stats.get("p50")), TimeUtils.formatDuration(stats.get("p90")),
+                    TimeUtils.formatDuration(stats.get("p99")), TimeUtils.formatDuration(stats.get("max"))));
+                JsonObject phaseStats = gson.toJsonTree(stats).getAsJsonObject();
+                phaseStats.addProperty("count", values.size());
+                phases.add(phase.replace(' ', '_'), phaseStats);
+            }
+            if (events != null) {
+                JsonObject fields = new JsonObject();
+                fields.addProperty("groupBy", groupBy);
+                fields.addProperty("group", group.getKey());
+                fields.addProperty("runs", runs.size());
+                fields.addProperty("notFinished", failed);
+                fields.add("phases", phases);
+                events.event("history", null, fields);
+            }
+        }
+    }
+
+    private static boolean matches(BatchSelector selector, Pattern namePattern, Run run) {
+        if (namePattern != null && (run.name == null || !namePattern.matcher(run.name).matches())) {
+            return false;
+        }
+        if (selector.getUser() != null && !selector.getUser().equals(run.user)) {
+            return false;
+        }
+        return selector.getCreatedAfter() == null
+            || (run.createTime != null && run.createTime >= selector.getCreatedAfter());
+    }
+
+    /**
+     * Nearest-rank percentile of a sorted list
+     */
+    static long percentile(List<Long> sorted, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1)));
+    }
+
+    /**
+     * Keep only the newest runs; called with the lock held
+     */
+    private void compact() throws IOException {
+        List<Run> runs = load();
+        if (runs.size() <= maxRuns) {
+            return;
+        }
+        File tmp = File.createTempFile("runs", ".tmp", dir);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            for (Run run : runs.subList(runs.size() - maxRuns, runs.size())) {
+                writer.write(gson.toJson(run));
+                writer.write('\n');
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    private <T> T withLock(LockedAction<T> action) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create history directory: " + dir);
+        }
+        synchronized (RunHistory.class) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, "lock"), "rw");
+                 FileChannel channel = lockFile.getChannel()) {
+                FileLock lock = channel.lock();
+                try {
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.aliyun.emr.ack;
+
+import java.util.Locale;
+
+/**
+ * Helpers for Spark-style byte sizes such as 512m, 4g or 2t
+ */
+public class SizeUtils {
+    private static final long KB = 1024L;
+    private static final long MB = KB * 1024;
+    private static final long GB = MB * 1024;
+    private static final long TB = GB * 1024;
+
+    private SizeUtils() {
+    }
+
+    /**
+     * Parse a size with an optional k/m/g/t suffix (an optional trailing "b" is ignored).
+     * A bare number is interpreted using {@code defaultUnit} bytes per unit.
+     */
+    public static long parseBytes(String value, long defaultUnit) {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Empty size");
+        }
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        if (v.endsWith("b") && v.length() > 1 && !Character.isDigit(v.charAt(v.length() - 2))) {
+            v = v.substring(0, v.length() - 1);
+        }
+        long multiplier = defaultUnit;
+        char last = v.charAt(v.length() - 1);
+        if (last == 'k') {
+            multiplier = KB;
+        } else if (last == 'm') {
+            multiplier = MB;
+        } else if (last == 'g') {
+            multiplier = GB;
+        } else if (last == 't') {
+            multiplier = TB;
+        } else if (last == 'b') {
+            multiplier = 1L;
+        }
+        String number = Character.isDigit(last) || last == '.' ? v : v.substring(0, v.length() - 1);
+        try {
+            return (long) (Double.parseDouble(number.trim()) * multiplier);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size: " + value);
+        }
+    }
+
+    /**
+     * Parse a size where a bare number means bytes
+     */
+    public static long parseBytes(String value) {
+        return parseBytes(value, 1L);
+    }
+
+    /**
+     * Parse a Spark memory setting (bare numbers are MiB, as in spark.executor.memory) into MiB
+     */
+    public static long parseMemoryMb(String value) {
+        return parseBytes(value, MB) / MB;
+    }
+
+    public static double toGb(long bytes) {
+        return bytes / (double) GB;
+    }
+
+    /**
+     * Format a byte count using the largest unit that keeps the value at or above 1
+     */
+    public static String format(long bytes) {
+        if (bytes >= TB) {
+            return String.format("%.1fT", bytes / (double) TB);
+        } else if (bytes >= GB) {
+            return String.format("%.1fG", bytes / (double) GB);
+        } else if (bytes >= MB) {
+            return String.format("%.1fM", bytes / (double) MB);
+        } else if (bytes >= KB) {
+            return String.format("%.1fK", bytes / (double) KB);
+        }
+        return bytes + "B";
+    }
+}
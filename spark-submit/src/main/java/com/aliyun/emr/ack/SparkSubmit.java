@@ -1,6 +1,10 @@
 package com.aliyun.emr.ack;
 
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 
 /**
  * Main entry point for spark-submit command
@@ -8,6 +12,10 @@ import java.io.IOException;
 public class SparkSubmit {
     private static final int POLL_INTERVAL_MS = 2000; // 2 seconds
     private static final int LOG_FETCH_SIZE = 100;
+    /** Exit code when --on-duplicate refuse finds a live batch with the same fingerprint */
+    static final int EXIT_DUPLICATE = 3;
+    /** Log lines kept for classifying a failure when --retry is set */
+    private static final int RECENT_LOG_LINES = 200;
     
     /**
      * Build Spark History Server URL from application ID
@@ -38,7 +46,7 @@ public class SparkSubmit {
      * Get application URL, build History Server URL from appId if configured
      * Only returns URL if spark.history.server.url is configured, ignores Kyuubi's appUrl
      */
-    private static String getApplicationUrl(String historyServerUrl, String appId) {
+    static String getApplicationUrl(String historyServerUrl, String appId) {
         // Only build History Server URL if configured
         if (historyServerUrl != null && !historyServerUrl.isEmpty() && 
             appId != null && !appId.isEmpty()) {
@@ -48,6 +56,452 @@ public class SparkSubmit {
         return null;
     }
     
+    /**
+     * Apply the requested profiles; when several are given, later ones take precedence
+     */
+    private static void applyProfiles(Config config, SparkSubmitArgs submitArgs) throws IOException {
+        java.util.List<String> specs = submitArgs.getProfiles();
+        java.util.List<String> labels = new java.util.ArrayList<>();
+        for (int i = specs.size() - 1; i >= 0; i--) {
+            PerformanceProfile profile = PerformanceProfile.load(config, specs.get(i));
+            java.util.Map<String, String> applied = profile.applyTo(submitArgs, submitArgs.getInputSizeBytes());
+            System.out.println("Profile: " + profile.getName() + " v" + profile.getVersion()
+                + (profile.getDescription().isEmpty() ? "" : " - " + profile.getDescription())
+                + " (" + applied.size() + " settings applied)");
+            labels.add(0, profile.getName() + ".v" + profile.getVersion());
+        }
+        if (submitArgs.getInputSizeBytes() != null) {
+            System.out.println("Input Size Hint: " + SizeUtils.format(submitArgs.getInputSizeBytes()));
+        }
+        submitArgs.getConf().putIfAbsent("spark.kubernetes.driver.label.spark-submit-profile", String.join("_", labels));
+    }
+    
+    /**
+     * Check the arguments required for a submission; returns an error message or null
+     */
+    static String validateSubmission(SparkSubmitArgs submitArgs) {
+        if (submitArgs.getResource() == null || submitArgs.getResource().isEmpty()) {
+            return "Resource (jar or python file) is required";
+        }
+        if (!"PYSPARK".equals(submitArgs.getBatchType())) {
+            if (submitArgs.getClassName() == null || submitArgs.getClassName().isEmpty()) {
+                return "--class is required for Spark (non-PySpark) jobs";
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The Kyuubi user a batch runs as: the proxy user if given, otherwise the login user
+     */
+    static String effectiveUser(Config config, SparkSubmitArgs submitArgs) {
+        return submitArgs.getProxyUser() != null && !submitArgs.getProxyUser().isEmpty()
+            ? submitArgs.getProxyUser() : config.getUsername();
+    }
+    
+    /**
+     * Normalize deploy mode and apply profiles and pod templates before submission.
+     * Returns the effective deploy mode.
+     */
+    static String prepareSubmission(Config config, SparkSubmitArgs submitArgs) throws IOException {
+        // Validate and handle deploy-mode
+        String deployMode = submitArgs.getDeployMode();
+        if (deployMode != null && !deployMode.isEmpty()) {
+            if ("client".equalsIgnoreCase(deployMode)) {
+                System.err.println("\n⚠️  Warning: --deploy-mode client is not supported in this environment.");
+                System.err.println("   Client mode requires the driver to run on the local machine,");
+                System.err.println("   which is not compatible with remote Kyuubi server submission.");
+                System.err.println("   Deploy mode will be automatically changed to 'cluster'.\n");
+                deployMode = "cluster";
+                submitArgs.setDeployMode(deployMode);
+                submitArgs.getConf().put("spark.submit.deployMode", deployMode);
+            } else if (!"cluster".equalsIgnoreCase(deployMode)) {
+                System.err.println("\n⚠️  Warning: Invalid --deploy-mode value: " + deployMode);
+                System.err.println("   Only 'cluster' mode is supported. Using 'cluster' mode.\n");
+                deployMode = "cluster";
+                submitArgs.setDeployMode(deployMode);
+                submitArgs.getConf().put("spark.submit.deployMode", deployMode);
+            } else {
+                deployMode = "cluster";
+                submitArgs.setDeployMode(deployMode);
+                submitArgs.getConf().put("spark.submit.deployMode", deployMode);
+            }
+        } else {
+            // Default to cluster mode
+            deployMode = "cluster";
+            submitArgs.setDeployMode(deployMode);
+            submitArgs.getConf().put("spark.submit.deployMode", deployMode);
+        }
+        
+        // Layer performance profiles under explicit --conf values
+        if (!submitArgs.getProfiles().isEmpty()) {
+            applyProfiles(config, submitArgs);
+        }
+        
+        // Generate and stage pod templates for driver/executor placement
+        if (!submitArgs.getPodTemplates().isEmpty()) {
+            submitArgs.getPodTemplates().applyTo(config, submitArgs);
+        }
+        
+        // Submit a copy of the application JAR without the classes the Spark image provides
+        if (submitArgs.isSlimJar()) {
+            if ("PYSPARK".equals(submitArgs.getBatchType())) {
+                System.err.println("⚠️  Warning: --slim-jar applies to JAR applications only; ignored");
+            } else {
+                String original = submitArgs.getResource();
+                JarSlimmer.Result slim = new JarSlimmer(config).applyTo(submitArgs);
+                System.out.println("Slim JAR: " + original + " " + SizeUtils.format(slim.getOriginalBytes())
+                    + " -> " + SizeUtils.format(slim.getSlimBytes())
+                    + (slim.isCached() ? " (cached)" : " (" + slim.getRemovedEntries() + " entries removed)"));
+            }
+        }
+        
+        // Label the driver with the job fingerprint, computed over the final conf
+        submitArgs.getConf().put(JobFingerprint.LABEL_KEY, JobFingerprint.compute(submitArgs));
+        
+        return deployMode;
+    }
+    
+    /**
+     * Write log lines, keep the most recent ones for failure classification and evaluate the
+     * fail-fast rules (if given); returns the rule that fired, or null
+     */
+    private static FailFast.Trigger writeLogs(java.util.List<String> lines, LogSink logSink, FailFast failFast,
+                                              java.util.Deque<String> recentLogs) throws IOException {
+        FailFast.Trigger trigger = null;
+        long now = System.currentTimeMillis();
+        for (String line : lines) {
+            logSink.write(line);
+            recentLogs.addLast(line);
+            if (recentLogs.size() > RECENT_LOG_LINES) {
+                recentLogs.removeFirst();
+            }
+            if (trigger == null && failFast != null && failFast.isEnabled()) {
+                trigger = failFast.offer(line, now);
+            }
+        }
+        return trigger;
+    }
+    
+    /**
+     * Classify a failed attempt and escalate its resources for the next one. Reports the attempt
+     * and returns false when the failure is not worth retrying.
+     */
+    private static boolean prepareRetry(RetryPolicy retryPolicy, SparkSubmitArgs submitArgs, int attempt,
+                                        String diagnostic, java.util.Collection<String> logTail,
+                                        String batchId, EventWriter events) {
+        RetryPolicy.Failure failure = RetryPolicy.classify(diagnostic, logTail);
+        java.util.List<String> changes = retryPolicy.escalate(submitArgs, failure);
+        System.out.println("\n🔁 Attempt " + attempt + " of " + (retryPolicy.getMaxRetries() + 1)
+            + " failed (Batch ID: " + batchId + "): " + failure.getDescription());
+        if (changes.isEmpty()) {
+            System.out.println("   Not retrying: " + (failure == RetryPolicy.Failure.UNKNOWN
+                ? "the failure is not caused by resources" : "resource limits already reached"));
+            return false;
+        }
+        for (String change : changes) {
+            System.out.println("   " + change);
+        }
+        System.out.println("   Resubmitting as attempt " + (attempt + 1) + "...\n");
+        if (events != null) {
+            events.retry(batchId, attempt, failure.name(), changes);
+        }
+        submitArgs.getConf().put("spark.kubernetes.driver.label.spark-submit-attempt", String.valueOf(attempt + 1));
+        submitArgs.getConf().put(JobFingerprint.LABEL_KEY, JobFingerprint.compute(submitArgs));
+        return true;
+    }
+    
+    /**
+     * How following a batch ended: finished, or stopped by a fail-fast rule
+     */
+    private static class Outcome {
+        final KyuubiClient.BatchResponse status;
+        final FailFast.Trigger trigger;
+        final java.util.Deque<String> recentLogs;
+        
+        Outcome(KyuubiClient.BatchResponse status, FailFast.Trigger trigger, java.util.Deque<String> recentLogs) {
+            this.status = status;
+            this.trigger = trigger;
+            this.recentLogs = recentLogs;
+        }
+    }
+    
+    /**
+     * Fire the --notify hooks for a batch the client stopped itself (a fail-fast rule or a time
+     * limit), with the state after the kill when the server still answers
+     */
+    private static void notifyStopped(Config config, KyuubiClient client, SparkSubmitArgs submitArgs,
+                                      KyuubiClient.BatchResponse last, int exitCode, long submitTime) {
+        if (submitArgs.getNotifyHooks().isEmpty()) {
+            return;
+        }
+        KyuubiClient.BatchResponse batch = last;
+        try {
+            batch = client.getBatch(last.getId());
+        } catch (IOException e) {
+            // Report the last known state
+        }
+        new Notifier(config).fire(submitArgs.getNotifyHooks(), batch, exitCode,
+            System.currentTimeMillis() - submitTime);
+    }
+    
+    /**
+     * Report a submitted (or attached) batch and follow its status and logs until it finishes or
+     * a fail-fast rule kills it; the run is recorded either way. With --detach the batch is handed
+     * to the notifier and the process exits.
+     */
+    private static Outcome followBatch(Config config, KyuubiClient client, SparkSubmitArgs submitArgs,
+                                       KyuubiClient.BatchResponse response, boolean attached, long submitTime,
+                                       Tracer.Span batchSpan, LogSink logSink, FailFast failFast,
+                                       StatusCache statusCache, EventWriter events) throws IOException {
+        Tracer tracer = Tracer.global();
+        String fingerprint = submitArgs.getConf().get(JobFingerprint.LABEL_KEY);
+        String batchId = response.getId();
+        batchSpan.setAttribute("batch.id", batchId).setAttribute("attached", attached);
+        Tracer.Span phaseSpan = tracer.startSpan("batch." + (response.getState() != null ? response.getState() : "PENDING"), batchSpan);
+        statusCache.put(response);
+        RunHistory runHistory = new RunHistory(config);
+        RunHistory.Run run = new RunHistory.Run(submitArgs.getName(), submitArgs.getQueue());
+        run.submitted(response, submitTime);
+        
+        if (attached) {
+            System.out.println("✅ Attached to live batch with the same fingerprint (" + fingerprint + ")");
+        } else {
+            System.out.println("✅ Batch submitted successfully!");
+        }
+        System.out.println("Batch ID: " + batchId);
+        if (response.getAppId() != null && !response.getAppId().isEmpty()) {
+            System.out.println("Application ID: " + response.getAppId());
+        }
+        if (tracer.isEnabled()) {
+            System.out.println("Trace ID: " + tracer.getTraceId());
+        }
+        String appUrl = getApplicationUrl(config.getSparkHistoryServerUrl(), response.getAppId());
+        if (events != null) {
+            events.submitted(response, appUrl);
+            logSink.routeTo(events, batchId);
+        }
+        if (appUrl != null && !appUrl.isEmpty()) {
+            System.out.println("Application URL: " + appUrl);
+        }
+        
+        // Hand the batch to the background notifier instead of waiting for it
+        if (submitArgs.isDetach()) {
+            Notifier notifier = new Notifier(config);
+            java.util.List<String> hooks = notifier.resolveHooks(submitArgs.getNotifyHooks());
+            System.out.println();
+            if (hooks.isEmpty()) {
+                System.out.println("Detached; check the batch with --status " + batchId);
+            } else {
+                notifier.watch(batchId, hooks, attached ? null : run, submitTime);
+                if (notifier.ensureRunning()) {
+                    System.out.println("Detached; " + hooks.size() + (hooks.size() == 1 ? " hook" : " hooks")
+                        + " will fire when the batch finishes");
+                } else {
+                    System.err.println("⚠️  Warning: No notifier is running and spark.submit.notify.autostart "
+                        + "is false; start one with spark-submit --notifier");
+                }
+            }
+            client.close();
+            System.exit(0);
+        }
+        System.out.println();
+        System.out.println("Waiting for job to complete...");
+        System.out.println("------------------------------------------");
+        
+        // Enforce --timeout/--pending-timeout/--deadline independently of log fetching
+        Watchdog watchdog = new Watchdog(config, submitArgs);
+        if (watchdog.isEnabled()) {
+            watchdog.observe(response, System.currentTimeMillis());
+            // The driver lines still buffered are the ones that explain the timeout
+            watchdog.start(client, batchId, events, () -> {
+                try {
+                    logSink.flush();
+                } catch (IOException e) {
+                    // Exiting anyway
+                }
+                notifyStopped(config, client, submitArgs, response, Watchdog.EXIT_TIMEOUT, submitTime);
+            });
+        }
+        
+        // Poll for status and logs
+        int logOffset = 0;
+        java.util.ArrayDeque<String> recentLogs = new java.util.ArrayDeque<>();
+        boolean firstLogOutput = true;
+        String lastState = response.getState();
+        int consecutiveErrors = 0;
+        final int MAX_CONSECUTIVE_ERRORS = 5;
+        
+        while (true) {
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+                
+                // Get batch status
+                KyuubiClient.BatchResponse status = client.getBatch(batchId);
+                consecutiveErrors = 0; // Reset error counter on success
+                run.observe(status, System.currentTimeMillis());
+                watchdog.observe(status, System.currentTimeMillis());
+                
+                // Print status update if changed
+                if (status.getState() != null) {
+                    String currentState = status.getState();
+                    if (!currentState.equals(lastState)) {
+                        logSink.flush();
+                        System.out.println("\n[Status] " + lastState + " -> " + currentState);
+                        if (events != null) {
+                            events.stateChanged(status, lastState, currentState);
+                        }
+                        lastState = currentState;
+                        phaseSpan.end();
+                        if (!status.isFinished()) {
+                            phaseSpan = tracer.startSpan("batch." + currentState, batchSpan);
+                        }
+                    }
+                }
+                
+                // Fetch and print new logs
+                FailFast.Trigger trigger = null;
+                try {
+                    KyuubiClient.LogResponse logResponse = client.getBatchLogs(batchId, logOffset, LOG_FETCH_SIZE);
+                    if (logResponse.getLogRowSet() != null && !logResponse.getLogRowSet().isEmpty()) {
+                        if (firstLogOutput) {
+                            logSink.writeRaw("\n=== Job Logs ===");
+                            firstLogOutput = false;
+                        }
+                        trigger = writeLogs(logResponse.getLogRowSet(), logSink, failFast, recentLogs);
+                        logOffset += logResponse.getLogRowSet().size();
+                        
+                        // Continue fetching if we got a full page (might have more logs)
+                        while (trigger == null && logResponse.getLogRowSet() != null && 
+                               logResponse.getLogRowSet().size() == LOG_FETCH_SIZE) {
+                            logResponse = client.getBatchLogs(batchId, logOffset, LOG_FETCH_SIZE);
+                            if (logResponse.getLogRowSet() != null && !logResponse.getLogRowSet().isEmpty()) {
+                                trigger = writeLogs(logResponse.getLogRowSet(), logSink, failFast, recentLogs);
+                                logOffset += logResponse.getLogRowSet().size();
+                            } else {
+                                break;
+                            }
+                        }
+                    }
+                } catch (IOException logError) {
+                    // Log fetching errors are non-fatal, continue
+                    if (consecutiveErrors == 0) {
+                        System.err.println("\n⚠️  Warning: Could not fetch logs: " + logError.getMessage());
+                    }
+                }
+                logSink.flushIfDue();
+                
+                // A fail-fast rule fired: the job is doomed, stop it now instead of waiting for ERROR
+                if (trigger != null && !status.isFinished()) {
+                    watchdog.stop();
+                    logSink.flush();
+                    System.err.println("\n🛑 Fail-fast rule matched: " + trigger.getDescription());
+                    System.err.println("Matching log lines:");
+                    for (String line : trigger.getLines()) {
+                        System.err.println("  " + line);
+                    }
+                    System.err.println("Killing Batch ID: " + batchId);
+                    try {
+                        client.killBatch(batchId);
+                    } catch (IOException e) {
+                        // Still abort: the rule fired, so following the batch further is pointless
+                        System.err.println("Warning: Failed to kill batch " + batchId + ", it may still be running: "
+                            + e.getMessage());
+                    }
+                    phaseSpan.end();
+                    batchSpan.setError("Fail-fast rule " + trigger.getRule()).end();
+                    if (events != null) {
+                        events.aborted(batchId, trigger.getRule(), trigger.getDescription(),
+                            trigger.getLines(), FailFast.EXIT_ABORTED);
+                    }
+                    runHistory.record(run);
+                    recentLogs.addAll(trigger.getLines());
+                    return new Outcome(status, trigger, recentLogs);
+                }
+                
+                // Check if finished
+                if (status.isFinished()) {
+                    watchdog.stop();
+                    statusCache.put(status);
+                    phaseSpan.end();
+                    batchSpan.setAttribute("state", status.getState()).setAttribute("app.id", status.getAppId());
+                    if (!"FINISHED".equals(status.getState())) {
+                        batchSpan.setError(status.getState());
+                    }
+                    batchSpan.end();
+                    // Try to fetch any remaining logs
+                    try {
+                        KyuubiClient.LogResponse finalLogs = client.getBatchLogs(batchId, logOffset, LOG_FETCH_SIZE);
+                        if (finalLogs.getLogRowSet() != null && !finalLogs.getLogRowSet().isEmpty()) {
+                            writeLogs(finalLogs.getLogRowSet(), logSink, null, recentLogs);
+                        }
+                    } catch (IOException e) {
+                        // Ignore final log fetch errors
+                    }
+                    logSink.flush();
+                    if (logSink.getFiltered() > 0 || logSink.getCollapsed() > 0) {
+                        System.out.println("\n[Log output] " + logSink.getWritten() + " lines shown, "
+                            + logSink.getFiltered() + " filtered, " + logSink.getCollapsed() + " collapsed");
+                    }
+                    
+                    System.out.println("\n------------------------------------------");
+                    System.out.println("Job finished!");
+                    System.out.println("Final State: " + status.getState());
+                    
+                    if (status.getAppId() != null && !status.getAppId().isEmpty()) {
+                        System.out.println("Application ID: " + status.getAppId());
+                    }
+                    String finalAppUrl = getApplicationUrl(config.getSparkHistoryServerUrl(), status.getAppId());
+                    if (finalAppUrl != null && !finalAppUrl.isEmpty()) {
+                        System.out.println("Application URL: " + finalAppUrl);
+                    }
+                    
+                    if (status.getAppDiagnostic() != null && !status.getAppDiagnostic().isEmpty() && 
+                        !status.getAppDiagnostic().trim().isEmpty()) {
+                        System.out.println("\nDiagnostic Information:");
+                        System.out.println(status.getAppDiagnostic());
+                    }
+                    
+                    // Where the time went: scheduling, driver start or the job itself
+                    System.out.println("Timing: " + run.summary());
+                    if (client.getTransferStats().getBytesSaved() > 0) {
+                        System.out.println("Transfer: " + client.getTransferStats().summary());
+                    }
+                    if (!attached) {
+                        // The process that submitted the batch records it
+                        runHistory.record(run);
+                    }
+                    return new Outcome(status, null, recentLogs);
+                }
+                
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logSink.flush();
+                System.err.println("\n⚠️  Interrupted while waiting for job completion.");
+                if (events != null) {
+                    events.error(batchId, "Interrupted while waiting for job completion");
+                }
+                client.close();
+                System.exit(130);
+            } catch (IOException e) {
+                consecutiveErrors++;
+                if (consecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
+                    System.err.println("\n❌ Too many consecutive errors fetching status. Exiting.");
+                    System.err.println("Last error: " + e.getMessage());
+                    if (events != null) {
+                        events.error(batchId, "Too many consecutive errors fetching status: " + e.getMessage());
+                    }
+                    client.close();
+                    System.exit(1);
+                } else if (consecutiveErrors == 1) {
+                    System.err.println("\n⚠️  Error fetching status: " + e.getMessage());
+                    System.err.println("Retrying... (will exit after " + MAX_CONSECUTIVE_ERRORS + " consecutive errors)");
+                }
+                // Continue polling in case of temporary network issues
+            }
+        }
+    }
+    
     public static void main(String[] args) {
         // Check for --help flag
         if (args.length == 0 || (args.length == 1 && ("--help".equals(args[0]) || "-h".equals(args[0])))) {
@@ -56,44 +510,150 @@ public class SparkSubmit {
         }
         
         KyuubiClient client = null;
+        EventWriter events = null;
+        Tracer tracer = Tracer.global();
         try {
             // Parse arguments
-            SparkSubmitArgs submitArgs = SparkSubmitParser.parse(args);
+            SparkSubmitArgs submitArgs;
+            Tracer.Span parseSpan = tracer.startSpan("args.parse");
+            try {
+                submitArgs = SparkSubmitParser.parse(args);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: " + e.getMessage());
+                System.err.println("\nUse --help for usage information.");
+                System.exit(1);
+                return;
+            } finally {
+                parseSpan.end();
+            }
+            if (submitArgs.isHelp()) {
+                printUsage();
+                System.exit(0);
+            }
+            
+            // In jsonl mode stdout carries only events; human-readable output moves to stderr
+            if ("jsonl".equals(submitArgs.getOutputFormat())) {
+                events = new EventWriter(new PrintStream(new BufferedOutputStream(
+                    new FileOutputStream(FileDescriptor.out), 64 * 1024), false, "UTF-8"));
+                System.setOut(System.err);
+            } else if (!"text".equals(submitArgs.getOutputFormat())) {
+                System.err.println("Error: --output must be 'text' or 'jsonl'");
+                System.exit(1);
+            }
             
             // Validate mutually exclusive operations
             if (submitArgs.getStatusBatchId() != null && submitArgs.getKillBatchId() != null) {
                 System.err.println("Error: --status and --kill cannot be used together");
                 System.exit(1);
             }
+            if (submitArgs.getLogsBatchId() != null && (submitArgs.getStatusBatchId() != null
+                || submitArgs.getKillBatchId() != null || submitArgs.isKillAll())) {
+                System.err.println("Error: --logs cannot be combined with --status, --kill or --kill-all");
+                System.exit(1);
+            }
+            if (submitArgs.getTailLines() < 0) {
+                System.err.println("Error: --tail must not be negative");
+                System.exit(1);
+            }
+            if (submitArgs.isKillAll() && (submitArgs.getStatusBatchId() != null || submitArgs.getKillBatchId() != null)) {
+                System.err.println("Error: --kill-all cannot be combined with --status or --kill");
+                System.exit(1);
+            }
+            if (submitArgs.isKillAll() && submitArgs.getSelector().isEmpty()) {
+                System.err.println("Error: --kill-all requires at least one selector");
+                System.err.println("       (--match-name, --match-user, --match-state, --created-after)");
+                System.exit(1);
+            }
+            if (submitArgs.isDetach() && (submitArgs.getTimeoutMs() != null || submitArgs.getPendingTimeoutMs() != null
+                || submitArgs.getDeadline() != null || submitArgs.getRetries() != null
+                || !submitArgs.getFailOnPatterns().isEmpty())) {
+                System.err.println("⚠️  Warning: --timeout, --pending-timeout, --deadline, --fail-on and --retry are");
+                System.err.println("   enforced by a client following the batch and are ignored with --detach");
+            }
             
             // Load configuration
-            Config config = new Config();
+            Config config;
+            Tracer.Span loadSpan = tracer.startSpan("config.load");
+            try {
+                config = new Config();
+            } finally {
+                loadSpan.end();
+            }
+            tracer.configure(config);
             
             // Validate and warn if using default config
             config.validateAndPrintWarning();
             
+            // Go to the cluster a batch was routed to, or to the single cluster given with --cluster
+            ClusterRouter router = new ClusterRouter(config);
+            String batchArg = submitArgs.getStatusBatchId() != null ? submitArgs.getStatusBatchId()
+                : submitArgs.getLogsBatchId() != null ? submitArgs.getLogsBatchId() : submitArgs.getKillBatchId();
+            String cluster = batchArg != null ? router.clusterOf(batchArg) : null;
+            if (cluster == null && submitArgs.getClusters().size() == 1) {
+                cluster = submitArgs.getClusters().get(0);
+            }
+            if (cluster != null) {
+                config = config.forCluster(cluster);
+            }
+            
+            // Report on local run history; no server access needed
+            if (submitArgs.getHistoryReport() != null) {
+                new RunHistory(config).report(submitArgs.getHistoryReport(), submitArgs.getSelector(), events);
+                System.exit(0);
+            }
+            
             // Create Kyuubi client and submit batch
             client = new KyuubiClient(config);
             
+            // Run the completion notifier for detached batches
+            if (submitArgs.isNotifier()) {
+                System.exit(new Notifier(config).run());
+            }
+            
             // Handle status query
             if (submitArgs.getStatusBatchId() != null) {
-                KyuubiClient.BatchResponse status = client.getBatch(submitArgs.getStatusBatchId());
-                System.out.println("Batch ID: " + status.getId());
-                System.out.println("State: " + status.getState());
-                if (status.getAppId() != null) {
-                    System.out.println("Application ID: " + status.getAppId());
-                }
+                KyuubiClient.BatchResponse status = submitArgs.isNoCache()
+                    ? client.getBatch(submitArgs.getStatusBatchId())
+                    : new StatusCache(config).getBatch(client, submitArgs.getStatusBatchId());
                 String appUrl = getApplicationUrl(config.getSparkHistoryServerUrl(), status.getAppId());
-                if (appUrl != null && !appUrl.isEmpty()) {
-                    System.out.println("Application URL: " + appUrl);
-                }
-                if (status.getAppDiagnostic() != null && !status.getAppDiagnostic().isEmpty()) {
-                    System.out.println("Diagnostic: " + status.getAppDiagnostic());
+                if (events != null) {
+                    events.status(status, appUrl);
+                } else {
+                    System.out.println("Batch ID: " + status.getId());
+                    System.out.println("State: " + status.getState());
+                    if (status.getAppId() != null) {
+                        System.out.println("Application ID: " + status.getAppId());
+                    }
+                    if (appUrl != null && !appUrl.isEmpty()) {
+                        System.out.println("Application URL: " + appUrl);
+                    }
+                    if (status.getAppDiagnostic() != null && !status.getAppDiagnostic().isEmpty()) {
+                        System.out.println("Diagnostic: " + status.getAppDiagnostic());
+                    }
                 }
                 client.close();
                 System.exit(0);
             }
             
+            // Handle log tail: jump to the end instead of paging through the whole log
+            if (submitArgs.getLogsBatchId() != null) {
+                String batchId = submitArgs.getLogsBatchId();
+                LogSink logSink = new LogSink(config, submitArgs);
+                if (events != null) {
+                    logSink.routeTo(events, batchId);
+                }
+                LogTailer tailer = new LogTailer(client, logSink, events);
+                int offset = tailer.tail(batchId, submitArgs.getTailLines());
+                int exitCode = 0;
+                if (submitArgs.isFollow()) {
+                    exitCode = tailer.follow(batchId, offset);
+                } else {
+                    logSink.flush();
+                }
+                client.close();
+                System.exit(exitCode);
+            }
+            
             // Handle kill
             if (submitArgs.getKillBatchId() != null) {
                 client.killBatch(submitArgs.getKillBatchId());
@@ -102,53 +662,81 @@ public class SparkSubmit {
                 System.exit(0);
             }
             
-            // Validate required arguments for submission
-            if (submitArgs.getResource() == null || submitArgs.getResource().isEmpty()) {
-                System.err.println("Error: Resource (jar or python file) is required");
-                System.err.println("\nUse --help for usage information.");
-                System.exit(1);
+            // Handle bulk kill
+            if (submitArgs.isKillAll()) {
+                int exitCode = new BatchKiller(client).killAll(submitArgs.getSelector(),
+                    submitArgs.getParallelism(), submitArgs.isDryRun());
+                client.close();
+                System.exit(exitCode);
             }
             
-            if (!"PYSPARK".equals(submitArgs.getBatchType())) {
-                if (submitArgs.getClassName() == null || submitArgs.getClassName().isEmpty()) {
-                    System.err.println("Error: --class is required for Spark (non-PySpark) jobs");
-                    System.err.println("\nUse --help for usage information.");
+            // Handle workflow
+            if (submitArgs.getDagFile() != null) {
+                DagRunner.Workflow workflow = DagRunner.load(submitArgs.getDagFile());
+                int exitCode = new DagRunner(config, client).run(workflow,
+                    submitArgs.getMaxParallel(), submitArgs.isResume());
+                client.close();
+                System.exit(exitCode);
+            }
+            
+            // Handle SQL on a warm session engine
+            boolean sql = !submitArgs.getSqlStatements().isEmpty() || !submitArgs.getSqlFiles().isEmpty();
+            if (sql || submitArgs.isCloseSession()) {
+                if (sql && submitArgs.getResource() != null) {
+                    System.err.println("Error: --sql and --sql-file cannot be combined with an application resource");
                     System.exit(1);
                 }
+                SqlSession session = new SqlSession(config, client);
+                int exitCode = 0;
+                if (sql) {
+                    java.util.List<String> statements = new java.util.ArrayList<>();
+                    for (String file : submitArgs.getSqlFiles()) {
+                        statements.addAll(SqlSession.split(new String(
+                            java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(file)), "UTF-8")));
+                    }
+                    for (String statement : submitArgs.getSqlStatements()) {
+                        statements.addAll(SqlSession.split(statement));
+                    }
+                    exitCode = session.run(submitArgs, statements, events);
+                }
+                if (submitArgs.isCloseSession()) {
+                    session.close(submitArgs);
+                }
+                client.close();
+                System.exit(exitCode);
             }
             
-            // Validate and handle deploy-mode
-            String deployMode = submitArgs.getDeployMode();
-            if (deployMode != null && !deployMode.isEmpty()) {
-                if ("client".equalsIgnoreCase(deployMode)) {
-                    System.err.println("\n⚠️  Warning: --deploy-mode client is not supported in this environment.");
-                    System.err.println("   Client mode requires the driver to run on the local machine,");
-                    System.err.println("   which is not compatible with remote Kyuubi server submission.");
-                    System.err.println("   Deploy mode will be automatically changed to 'cluster'.\n");
-                    deployMode = "cluster";
-                    submitArgs.setDeployMode(deployMode);
-                    submitArgs.getConf().put("spark.submit.deployMode", deployMode);
-                } else if (!"cluster".equalsIgnoreCase(deployMode)) {
-                    System.err.println("\n⚠️  Warning: Invalid --deploy-mode value: " + deployMode);
-                    System.err.println("   Only 'cluster' mode is supported. Using 'cluster' mode.\n");
-                    deployMode = "cluster";
-                    submitArgs.setDeployMode(deployMode);
-                    submitArgs.getConf().put("spark.submit.deployMode", deployMode);
-                } else {
-                    deployMode = "cluster";
-                    submitArgs.setDeployMode(deployMode);
-                    submitArgs.getConf().put("spark.submit.deployMode", deployMode);
+            // Validate required arguments for submission
+            String validationError = validateSubmission(submitArgs);
+            if (validationError != null) {
+                System.err.println("Error: " + validationError);
+                System.err.println("\nUse --help for usage information.");
+                System.exit(1);
+            }
+            
+            String deployMode = prepareSubmission(config, submitArgs);
+            
+            // Pick the cluster with the most headroom among the cluster profiles
+            ClusterRouter.Route route = null;
+            if (router.isEnabled()) {
+                try (Tracer.Span span = tracer.startSpan("routing")) {
+                    JobFingerprint index = new JobFingerprint(config);
+                    String previousBatch = index.resolvePolicy(submitArgs) != JobFingerprint.Policy.ALLOW
+                        ? index.lastBatch(submitArgs.getConf().get(JobFingerprint.LABEL_KEY)) : null;
+                    route = router.route(submitArgs, previousBatch);
+                    span.setAttribute("cluster", route.getName());
                 }
-            } else {
-                // Default to cluster mode
-                deployMode = "cluster";
-                submitArgs.setDeployMode(deployMode);
-                submitArgs.getConf().put("spark.submit.deployMode", deployMode);
+                config = route.getConfig();
+                client.close();
+                client = new KyuubiClient(config);
             }
             
             System.out.println("==========================================");
             System.out.println("Submitting Spark job to Kyuubi Server");
             System.out.println("==========================================");
+            if (route != null) {
+                System.out.println("Cluster: " + route.getName() + " (" + route.getReason() + ")");
+            }
             System.out.println("Kyuubi Server URL: " + config.getServerUrl());
             System.out.println("Username: " + config.getUsername());
             System.out.println("------------------------------------------");
@@ -194,147 +782,132 @@ public class SparkSubmit {
                 System.out.println("Packages: " + String.join(",", submitArgs.getPackages()));
             }
             
-            // Submit batch
-            KyuubiClient.BatchResponse response = client.submitBatch(submitArgs);
-            String batchId = response.getId();
-            
-            System.out.println("✅ Batch submitted successfully!");
-            System.out.println("Batch ID: " + batchId);
-            if (response.getAppId() != null && !response.getAppId().isEmpty()) {
-                System.out.println("Application ID: " + response.getAppId());
-            }
-            String appUrl = getApplicationUrl(config.getSparkHistoryServerUrl(), response.getAppId());
-            if (appUrl != null && !appUrl.isEmpty()) {
-                System.out.println("Application URL: " + appUrl);
+            // Fail fast on missing resources and settings that cannot work
+            if (!submitArgs.isSkipPreflight()) {
+                try (Tracer.Span span = tracer.startSpan("preflight");
+                     Preflight preflight = new Preflight(config)) {
+                    if (preflight.isEnabled() && !preflight.check(submitArgs)) {
+                        span.setError("Preflight checks failed");
+                        System.err.println("Error: Preflight checks failed; fix the errors above or use --skip-preflight");
+                        if (events != null) {
+                            events.error(null, "Preflight checks failed");
+                        }
+                        client.close();
+                        System.exit(1);
+                    }
+                }
             }
-            System.out.println();
-            System.out.println("Waiting for job to complete...");
-            System.out.println("------------------------------------------");
             
-            // Poll for status and logs
-            int logOffset = 0;
-            boolean firstLogOutput = true;
-            String lastState = response.getState();
-            int consecutiveErrors = 0;
-            final int MAX_CONSECUTIVE_ERRORS = 5;
+            // Create the log sink and fail-fast rules up front so invalid patterns fail before submission
+            LogSink logSink = new LogSink(config, submitArgs);
+            FailFast failFast = new FailFast(config, submitArgs.getFailOnPatterns());
             
-            while (true) {
-                try {
-                    Thread.sleep(POLL_INTERVAL_MS);
-                    
-                    // Get batch status
-                    KyuubiClient.BatchResponse status = client.getBatch(batchId);
-                    consecutiveErrors = 0; // Reset error counter on success
-                    
-                    // Print status update if changed
-                    if (status.getState() != null) {
-                        String currentState = status.getState();
-                        if (!currentState.equals(lastState)) {
-                            System.out.println("\n[Status] " + lastState + " -> " + currentState);
-                            lastState = currentState;
-                        }
-                    }
-                    
-                    // Fetch and print new logs
-                    try {
-                        KyuubiClient.LogResponse logResponse = client.getBatchLogs(batchId, logOffset, LOG_FETCH_SIZE);
-                        if (logResponse.getLogRowSet() != null && !logResponse.getLogRowSet().isEmpty()) {
-                            if (firstLogOutput) {
-                                System.out.println("\n=== Job Logs ===");
-                                firstLogOutput = false;
-                            }
-                            for (String logLine : logResponse.getLogRowSet()) {
-                                System.out.println(logLine);
-                            }
-                            logOffset += logResponse.getLogRowSet().size();
-                            
-                            // Continue fetching if we got a full page (might have more logs)
-                            while (logResponse.getLogRowSet() != null && 
-                                   logResponse.getLogRowSet().size() == LOG_FETCH_SIZE) {
-                                logResponse = client.getBatchLogs(batchId, logOffset, LOG_FETCH_SIZE);
-                                if (logResponse.getLogRowSet() != null && !logResponse.getLogRowSet().isEmpty()) {
-                                    for (String logLine : logResponse.getLogRowSet()) {
-                                        System.out.println(logLine);
-                                    }
-                                    logOffset += logResponse.getLogRowSet().size();
-                                } else {
-                                    break;
-                                }
-                            }
-                        }
-                    } catch (IOException logError) {
-                        // Log fetching errors are non-fatal, continue
-                        if (consecutiveErrors == 0) {
-                            System.err.println("\n⚠️  Warning: Could not fetch logs: " + logError.getMessage());
-                        }
+            // Look for a live batch submitted with the same fingerprint (e.g. a scheduler retry)
+            StatusCache statusCache = new StatusCache(config);
+            JobFingerprint fingerprints = new JobFingerprint(config);
+            JobFingerprint.Policy duplicatePolicy = fingerprints.resolvePolicy(submitArgs);
+            String fingerprint = submitArgs.getConf().get(JobFingerprint.LABEL_KEY);
+            KyuubiClient.BatchResponse duplicate = null;
+            if (duplicatePolicy != JobFingerprint.Policy.ALLOW) {
+                try (Tracer.Span span = tracer.startSpan("duplicate.check")) {
+                    duplicate = fingerprints.findLive(client, statusCache, fingerprint);
+                    span.setAttribute("duplicate", duplicate != null);
+                }
+            }
+            if (duplicate != null) {
+                String message = "Batch " + duplicate.getId() + " with the same fingerprint (" + fingerprint
+                    + ") is still " + duplicate.getState();
+                if (duplicatePolicy == JobFingerprint.Policy.REFUSE) {
+                    System.err.println("Error: " + message + "; not submitting (--on-duplicate refuse)");
+                    if (events != null) {
+                        events.error(duplicate.getId(), message);
                     }
-                    
-                    // Check if finished
-                    if (status.isFinished()) {
-                        // Try to fetch any remaining logs
+                    client.close();
+                    System.exit(EXIT_DUPLICATE);
+                } else if (duplicatePolicy == JobFingerprint.Policy.WARN) {
+                    System.err.println("⚠️  Warning: " + message + "; submitting anyway");
+                    System.err.println("   Use --on-duplicate attach or refuse to avoid running it twice.");
+                }
+            }
+            boolean attached = duplicate != null && duplicatePolicy == JobFingerprint.Policy.ATTACH;
+            
+            // Resubmit failed attempts with more resources when --retry is set
+            RetryPolicy retryPolicy = new RetryPolicy(config, submitArgs);
+            for (int attempt = 1; ; attempt++) {
+                long submitTime = System.currentTimeMillis();
+                KyuubiClient.BatchResponse response;
+                attached = attached && attempt == 1;
+                Tracer.Span batchSpan = tracer.startSpan("batch").setAttribute("attempt", attempt);
+                tracer.activate(batchSpan);
+                if (attached) {
+                    response = duplicate;
+                } else {
+                    // Wait for client-side admission (rate limit, pending limit, priority queue)
+                    AdmissionController admission = new AdmissionController(config, client);
+                    if (admission.isEnabled()) {
+                        Tracer.Span admissionSpan = tracer.startSpan("admission", batchSpan);
                         try {
-                            KyuubiClient.LogResponse finalLogs = client.getBatchLogs(batchId, logOffset, LOG_FETCH_SIZE);
-                            if (finalLogs.getLogRowSet() != null && !finalLogs.getLogRowSet().isEmpty()) {
-                                for (String logLine : finalLogs.getLogRowSet()) {
-                                    System.out.println(logLine);
-                                }
-                            }
-                        } catch (IOException e) {
-                            // Ignore final log fetch errors
-                        }
-                        
-                        System.out.println("\n------------------------------------------");
-                        System.out.println("Job finished!");
-                        System.out.println("Final State: " + status.getState());
-                        
-                        if (status.getAppId() != null && !status.getAppId().isEmpty()) {
-                            System.out.println("Application ID: " + status.getAppId());
-                        }
-                        String finalAppUrl = getApplicationUrl(config.getSparkHistoryServerUrl(), status.getAppId());
-                        if (finalAppUrl != null && !finalAppUrl.isEmpty()) {
-                            System.out.println("Application URL: " + finalAppUrl);
-                        }
-                        
-                        if (status.getAppDiagnostic() != null && !status.getAppDiagnostic().isEmpty() && 
-                            !status.getAppDiagnostic().trim().isEmpty()) {
-                            System.out.println("\nDiagnostic Information:");
-                            System.out.println(status.getAppDiagnostic());
-                        }
-                        
-                        // Exit with appropriate code
-                        String finalState = status.getState();
-                        if ("ERROR".equals(finalState) || "CANCELED".equals(finalState)) {
-                            System.out.println("\n❌ Job failed or was canceled.");
-                            client.close();
-                            System.exit(1);
-                        } else {
-                            System.out.println("\n✅ Job completed successfully!");
-                            client.close();
-                            System.exit(0);
+                            admission.acquire(effectiveUser(config, submitArgs), admission.resolvePriority(submitArgs));
+                        } finally {
+                            admissionSpan.end();
                         }
                     }
-                    
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    System.err.println("\n⚠️  Interrupted while waiting for job completion.");
-                    client.close();
-                    System.exit(130);
-                } catch (IOException e) {
-                    consecutiveErrors++;
-                    if (consecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
-                        System.err.println("\n❌ Too many consecutive errors fetching status. Exiting.");
-                        System.err.println("Last error: " + e.getMessage());
-                        client.close();
-                        System.exit(1);
-                    } else if (consecutiveErrors == 1) {
-                        System.err.println("\n⚠️  Error fetching status: " + e.getMessage());
-                        System.err.println("Retrying... (will exit after " + MAX_CONSECUTIVE_ERRORS + " consecutive errors)");
+                
+                    // Submit batch; the driver joins this trace through the propagated context
+                    tracer.propagate(submitArgs, batchSpan);
+                    submitTime = System.currentTimeMillis();
+                    response = client.submitBatch(submitArgs);
+                    fingerprints.remember(fingerprint, response.getId());
+                    if (route != null) {
+                        router.record(response.getId(), route.getName());
                     }
-                    // Continue polling in case of temporary network issues
+                }
+                
+                // Follow the batch until it finishes or a fail-fast rule stops it
+                Outcome outcome = followBatch(config, client, submitArgs, response, attached, submitTime,
+                    batchSpan, logSink, failFast, statusCache, events);
+                KyuubiClient.BatchResponse status = outcome.status;
+                
+                // Resource failures and fail-fast aborts are retried with escalated conf; cancellations are not
+                if ((outcome.trigger != null || "ERROR".equals(status.getState()))
+                    && attempt <= retryPolicy.getMaxRetries()
+                    && prepareRetry(retryPolicy, submitArgs, attempt, status.getAppDiagnostic(),
+                        outcome.recentLogs, response.getId(), events)) {
+                    failFast = new FailFast(config, submitArgs.getFailOnPatterns());
+                    continue;
+                }
+                if (outcome.trigger != null) {
+                    notifyStopped(config, client, submitArgs, status, FailFast.EXIT_ABORTED, submitTime);
+                    client.close();
+                    System.exit(FailFast.EXIT_ABORTED);
+                }
+                
+                // Exit with appropriate code
+                String finalState = status.getState();
+                boolean failed = "ERROR".equals(finalState) || "CANCELED".equals(finalState);
+                if (events != null) {
+                    events.completed(status, getApplicationUrl(config.getSparkHistoryServerUrl(), status.getAppId()),
+                        failed ? 1 : 0, System.currentTimeMillis() - submitTime);
+                }
+                if (!submitArgs.getNotifyHooks().isEmpty()) {
+                    new Notifier(config).fire(submitArgs.getNotifyHooks(), status,
+                        System.currentTimeMillis() - submitTime);
+                }
+                if (failed) {
+                    System.out.println("\n❌ Job failed or was canceled.");
+                    client.close();
+                    System.exit(1);
+                } else {
+                    System.out.println("\n✅ Job completed successfully!");
+                    client.close();
+                    System.exit(0);
                 }
             }
             
         } catch (Exception e) {
+            if (events != null) {
+                events.error(null, e.getMessage());
+            }
             System.err.println("\n❌ Error: " + e.getMessage());
             if (e.getCause() != null) {
                 System.err.println("   Cause: " + e.getCause().getMessage());
@@ -358,6 +931,8 @@ public class SparkSubmit {
         System.out.println("Spark Submit Client for Kyuubi Server");
         System.out.println("=====================================\n");
         System.out.println("Usage: spark-submit [options] <app jar | python file> [app arguments]\n");
+        System.out.println("Options may be given as --option value or --option=value. Everything after the");
+        System.out.println("application jar or python file is passed to the application.\n");
         System.out.println("Options:");
         System.out.println("  --class <class name>          Application's main class (required for JAR)");
         System.out.println("  --name <name>                 Name of your application");
@@ -376,8 +951,73 @@ public class SparkSubmit {
         System.out.println("                                Note: client mode is not supported and will be");
         System.out.println("                                automatically changed to cluster mode");
         System.out.println("  --conf <key>=<value>          Spark configuration property");
+        System.out.println("  --properties-file <path>      Load spark.* properties from a file (spark-defaults.conf");
+        System.out.println("                                from SPARK_CONF_DIR or SPARK_HOME/conf is loaded too);");
+        System.out.println("                                --conf and other options take precedence");
+        System.out.println("  --profile <name[@version]>    Apply a performance profile (comma-separated for");
+        System.out.println("                                several); explicit --conf values take precedence");
+        System.out.println("  --input-size <size>           Input size hint used by profiles (e.g. 500g, 2t)");
+        System.out.println("  --node-selector <k>=<v>       Schedule driver/executors on nodes with this label");
+        System.out.println("  --node-affinity <k>=<v1,v2>   Require a node label value (via pod template)");
+        System.out.println("  --toleration <k[=v][:Effect]> Tolerate a node taint (via pod template)");
+        System.out.println("  --topology-spread <key>       Spread executors across a topology key,");
+        System.out.println("                                e.g. topology.kubernetes.io/zone");
+        System.out.println("  --local-dir-host-path <p1,p2> Mount host paths (e.g. local NVMe) as spark.local.dir");
+        System.out.println("  --driver-cpu-limit <cores>    Driver pod CPU limit");
+        System.out.println("  --executor-cpu-limit <cores>  Executor pod CPU limit");
+        System.out.println("  --executor-ephemeral-storage <q>  Executor ephemeral-storage request/limit (e.g. 100Gi)");
+        System.out.println("  --priority <0-9>              Admission priority when client-side admission control");
+        System.out.println("                                is configured (higher is admitted first)");
         System.out.println("  --status <batchId>            Query batch status");
+        System.out.println("  --logs <batchId>              Print the last lines of a batch's log");
+        System.out.println("    --tail <num>                Number of lines (default: 100)");
+        System.out.println("    --follow                    Keep printing new lines until the batch finishes");
+        System.out.println("  --log-level <level>           Only show driver log lines at or above this level");
+        System.out.println("  --log-include <regex>         Only show log lines matching (repeatable)");
+        System.out.println("  --log-exclude <regex>         Hide log lines matching (repeatable)");
+        System.out.println("  --log-collapse                Collapse runs of identical log lines");
+        System.out.println("  --output <text|jsonl>         Output format; jsonl writes one JSON event per line");
+        System.out.println("                                to stdout (submission, state changes, logs, completion,");
+        System.out.println("                                status) and moves human-readable output to stderr");
+        System.out.println("  --no-cache                    Bypass the local status cache for --status");
+        System.out.println("  --skip-preflight              Skip resource existence checks and conf lint");
+        System.out.println("  --slim-jar                    Submit the application JAR without the classes the");
+        System.out.println("                                Spark image provides (spark.submit.slim-jar.manifest)");
+        System.out.println("  --timeout <duration>          Kill the batch after it has been RUNNING this long");
+        System.out.println("  --pending-timeout <duration>  Kill the batch if it is still PENDING after this long");
+        System.out.println("  --deadline <time>             Kill the batch if still live at this time (timestamp");
+        System.out.println("                                or duration from now); limits exit with code 124");
+        System.out.println("  --fail-on <[n[/window]:]regex>  Kill the batch once driver log lines match regex n");
+        System.out.println("                                times (within window), e.g. '5/2m:FetchFailedException'");
+        System.out.println("                                (repeatable; exits with code 4)");
+        System.out.println("  --retry <num>                 Resubmit a batch that failed for lack of memory or on");
+        System.out.println("                                shuffle fetch failures up to num times, with more");
+        System.out.println("                                memory/overhead, fewer cores or more shuffle partitions");
+        System.out.println("  --on-duplicate <policy>       When a live batch with the same job fingerprint exists:");
+        System.out.println("                                warn (default), allow, refuse (exit 3) or attach");
+        System.out.println("  --history-report <group>      Phase timing percentiles from the local run history,");
+        System.out.println("                                grouped by name, queue or instance (filter with");
+        System.out.println("                                --match-name, --match-user, --created-after)");
         System.out.println("  --kill <batchId>              Kill a batch job");
+        System.out.println("  --kill-all                    Kill all live batches matching the selectors below");
+        System.out.println("    --match-name <glob>         Batch name glob (e.g. 'etl-*')");
+        System.out.println("    --match-user <user>         Batch owner");
+        System.out.println("    --match-state <s1,s2>       Batch states (e.g. PENDING,RUNNING)");
+        System.out.println("    --created-after <time>      Epoch ms, ISO-8601 time, or look-back like 30m/2h");
+        System.out.println("    --parallelism <num>         Concurrent kill requests (default: 16)");
+        System.out.println("    --dry-run                   List matching batches without killing them");
+        System.out.println("  --dag <workflow.json>         Run a workflow of dependent jobs");
+        System.out.println("    --max-parallel <num>        Jobs running at once (default: workflow's maxParallel or 4)");
+        System.out.println("    --resume                    Skip jobs that already finished in the previous run");
+        System.out.println("  --sql <statements>            Run SQL on a warm session engine instead of a batch");
+        System.out.println("  --sql-file <path>             Run the statements in a SQL file (before --sql)");
+        System.out.println("  --close-session               Close the cached session (after running any SQL)");
+        System.out.println("  --detach                      Exit after submitting; a background notifier fires");
+        System.out.println("                                the completion hooks");
+        System.out.println("  --notify <hook>               Completion hook: http(s) URL, exec:<command> or");
+        System.out.println("                                file:<path> (repeatable)");
+        System.out.println("  --notifier                    Run the notifier for detached batches in the foreground");
+        System.out.println("  --cluster <name>[,<name>]     Cluster profiles to route to (default: all configured)");
         System.out.println("  --help, -h                    Show this help message\n");
         System.out.println("Configuration:");
         System.out.println("  Configure Kyuubi server connection via one of the following:\n");
@@ -2,8 +2,10 @@ package com.aliyun.emr.ack;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Parsed Spark submit arguments
@@ -17,6 +19,9 @@ public class SparkSubmitArgs {
     private String queue;
     private String statusBatchId;
     private String killBatchId;
+    private String logsBatchId;
+    private int tailLines = 100;
+    private boolean follow;
     private List<String> args = new ArrayList<>();
     private Map<String, String> conf = new HashMap<>();
     private List<String> pyFiles = new ArrayList<>();
@@ -27,6 +32,42 @@ public class SparkSubmitArgs {
     private List<String> repositories = new ArrayList<>();
     private String driverCores;
     private String deployMode;
+    private boolean killAll;
+    private BatchSelector selector = new BatchSelector();
+    private int parallelism = 16;
+    private boolean dryRun;
+    private List<String> profiles = new ArrayList<>();
+    private Long inputSizeBytes;
+    private PodTemplates podTemplates = new PodTemplates();
+    private Integer priority;
+    private String dagFile;
+    private List<String> sqlStatements = new ArrayList<>();
+    private List<String> sqlFiles = new ArrayList<>();
+    private boolean closeSession;
+    private boolean detach;
+    private List<String> notifyHooks = new ArrayList<>();
+    private boolean notifier;
+    private List<String> clusters = new ArrayList<>();
+    private int maxParallel;
+    private boolean resume;
+    private boolean noCache;
+    private boolean skipPreflight;
+    private boolean slimJar;
+    private String duplicatePolicy;
+    private Long timeoutMs;
+    private Long pendingTimeoutMs;
+    private Long deadline;
+    private Integer retries;
+    private String historyReport;
+    private String logLevel;
+    private List<String> logIncludes = new ArrayList<>();
+    private List<String> logExcludes = new ArrayList<>();
+    private List<String> failOnPatterns = new ArrayList<>();
+    private boolean logCollapse;
+    private String outputFormat = "text";
+    private String propertiesFile;
+    private boolean help;
+    private Set<String> defaultConfKeys = new HashSet<>();
     
     public String getName() {
         return name;
@@ -164,6 +205,30 @@ public class SparkSubmitArgs {
         this.killBatchId = killBatchId;
     }
 
+    public String getLogsBatchId() {
+        return logsBatchId;
+    }
+    
+    public void setLogsBatchId(String logsBatchId) {
+        this.logsBatchId = logsBatchId;
+    }
+    
+    public int getTailLines() {
+        return tailLines;
+    }
+    
+    public void setTailLines(int tailLines) {
+        this.tailLines = tailLines;
+    }
+    
+    public boolean isFollow() {
+        return follow;
+    }
+    
+    public void setFollow(boolean follow) {
+        this.follow = follow;
+    }
+    
     public String getDeployMode() {
         return deployMode;
     }
@@ -171,5 +236,303 @@ public class SparkSubmitArgs {
     public void setDeployMode(String deployMode) {
         this.deployMode = deployMode;
     }
-}
 
+    public boolean isKillAll() {
+        return killAll;
+    }
+
+    public void setKillAll(boolean killAll) {
+        this.killAll = killAll;
+    }
+
+    public BatchSelector getSelector() {
+        return selector;
+    }
+
+    public void setSelector(BatchSelector selector) {
+        this.selector = selector;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public List<String> getProfiles() {
+        return profiles;
+    }
+
+    public void setProfiles(List<String> profiles) {
+        this.profiles = profiles;
+    }
+
+    public Long getInputSizeBytes() {
+        return inputSizeBytes;
+    }
+
+    public void setInputSizeBytes(Long inputSizeBytes) {
+        this.inputSizeBytes = inputSizeBytes;
+    }
+
+    public PodTemplates getPodTemplates() {
+        return podTemplates;
+    }
+
+    public void setPodTemplates(PodTemplates podTemplates) {
+        this.podTemplates = podTemplates;
+    }
+
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
+    public String getDagFile() {
+        return dagFile;
+    }
+
+    public void setDagFile(String dagFile) {
+        this.dagFile = dagFile;
+    }
+
+    public int getMaxParallel() {
+        return maxParallel;
+    }
+
+    public void setMaxParallel(int maxParallel) {
+        this.maxParallel = maxParallel;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    public void setNoCache(boolean noCache) {
+        this.noCache = noCache;
+    }
+    
+    /**
+     * SQL given with --sql, run on a session engine instead of submitting a batch
+     */
+    public List<String> getSqlStatements() {
+        return sqlStatements;
+    }
+    
+    public List<String> getSqlFiles() {
+        return sqlFiles;
+    }
+    
+    public boolean isCloseSession() {
+        return closeSession;
+    }
+    
+    public void setCloseSession(boolean closeSession) {
+        this.closeSession = closeSession;
+    }
+    
+    public boolean isDetach() {
+        return detach;
+    }
+    
+    public void setDetach(boolean detach) {
+        this.detach = detach;
+    }
+    
+    /**
+     * Completion hooks given with --notify
+     */
+    public List<String> getNotifyHooks() {
+        return notifyHooks;
+    }
+    
+    public boolean isNotifier() {
+        return notifier;
+    }
+    
+    public void setNotifier(boolean notifier) {
+        this.notifier = notifier;
+    }
+    
+    /**
+     * Cluster profiles given with --cluster, in order
+     */
+    public List<String> getClusters() {
+        return clusters;
+    }
+    
+    public boolean isSkipPreflight() {
+        return skipPreflight;
+    }
+    
+    public void setSkipPreflight(boolean skipPreflight) {
+        this.skipPreflight = skipPreflight;
+    }
+    
+    public boolean isSlimJar() {
+        return slimJar;
+    }
+    
+    public void setSlimJar(boolean slimJar) {
+        this.slimJar = slimJar;
+    }
+    
+    public String getDuplicatePolicy() {
+        return duplicatePolicy;
+    }
+    
+    public void setDuplicatePolicy(String duplicatePolicy) {
+        this.duplicatePolicy = duplicatePolicy;
+    }
+    
+    /**
+     * Longest time the batch may spend RUNNING before it is killed
+     */
+    public Long getTimeoutMs() {
+        return timeoutMs;
+    }
+    
+    public void setTimeoutMs(Long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+    
+    /**
+     * Longest time the batch may stay PENDING before it is killed
+     */
+    public Long getPendingTimeoutMs() {
+        return pendingTimeoutMs;
+    }
+    
+    public void setPendingTimeoutMs(Long pendingTimeoutMs) {
+        this.pendingTimeoutMs = pendingTimeoutMs;
+    }
+    
+    /**
+     * Epoch ms after which a live batch is killed
+     */
+    public Long getDeadline() {
+        return deadline;
+    }
+    
+    public void setDeadline(Long deadline) {
+        this.deadline = deadline;
+    }
+    
+    /**
+     * Retries for resource failures (--retry); null means the configured default
+     */
+    public Integer getRetries() {
+        return retries;
+    }
+    
+    public void setRetries(Integer retries) {
+        this.retries = retries;
+    }
+    
+    public String getHistoryReport() {
+        return historyReport;
+    }
+    
+    public void setHistoryReport(String historyReport) {
+        this.historyReport = historyReport;
+    }
+
+    public String getLogLevel() {
+        return logLevel;
+    }
+
+    public void setLogLevel(String logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    public List<String> getLogIncludes() {
+        return logIncludes;
+    }
+
+    public void setLogIncludes(List<String> logIncludes) {
+        this.logIncludes = logIncludes;
+    }
+
+    public List<String> getLogExcludes() {
+        return logExcludes;
+    }
+
+    public void setLogExcludes(List<String> logExcludes) {
+        this.logExcludes = logExcludes;
+    }
+
+    /**
+     * Fail-fast rules from --fail-on, as {@code [count[/window]:]regex}
+     */
+    public List<String> getFailOnPatterns() {
+        return failOnPatterns;
+    }
+
+    public void setFailOnPatterns(List<String> failOnPatterns) {
+        this.failOnPatterns = failOnPatterns;
+    }
+
+    public boolean isLogCollapse() {
+        return logCollapse;
+    }
+
+    public void setLogCollapse(boolean logCollapse) {
+        this.logCollapse = logCollapse;
+    }
+
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+
+    public void setOutputFormat(String outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    public String getPropertiesFile() {
+        return propertiesFile;
+    }
+
+    public void setPropertiesFile(String propertiesFile) {
+        this.propertiesFile = propertiesFile;
+    }
+
+    public boolean isHelp() {
+        return help;
+    }
+
+    public void setHelp(boolean help) {
+        this.help = help;
+    }
+
+    /**
+     * Conf keys whose values came only from spark-defaults.conf
+     */
+    public Set<String> getDefaultConfKeys() {
+        return defaultConfKeys;
+    }
+
+    public void setDefaultConfKeys(Set<String> defaultConfKeys) {
+        this.defaultConfKeys = defaultConfKeys;
+    }
+}
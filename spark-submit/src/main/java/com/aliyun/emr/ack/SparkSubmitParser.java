@@ -1,198 +1,249 @@
 package com.aliyun.emr.ack;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 /**
- * Parser for spark-submit command line arguments
+ * Parser for spark-submit command line arguments.
+ *
+ * Options are declared once in a registry and looked up by name; both "--opt value" and
+ * "--opt=value" forms are accepted and unknown options are rejected. As with spark-submit,
+ * the first positional argument is the application resource and everything after it is
+ * passed to the application unchanged.
+ *
+ * Spark configuration is layered, lowest precedence first: spark-defaults.conf (from
+ * SPARK_CONF_DIR or SPARK_HOME/conf), performance profiles, --properties-file, then --conf
+ * and the options that map onto Spark properties (--executor-memory etc.). As with
+ * spark-submit, --properties-file replaces spark-defaults.conf rather than adding to it. The
+ * files describe a local Spark install, so their spark.master and spark.submit.deployMode are
+ * left out: Kyuubi decides those.
  */
 public class SparkSubmitParser {
-    
+    private static final Map<String, OptionSpec> OPTIONS = new HashMap<>();
+    private static final Map<String, CachedProperties> PROPERTIES_CACHE = new ConcurrentHashMap<>();
+    private static final List<String> SERVER_DECIDED_KEYS = Arrays.asList("spark.master", "spark.submit.deployMode");
+    private static volatile boolean defaultsReported;
+
+    /**
+     * A registered option: whether it takes a value and how it is applied
+     */
+    private static final class OptionSpec {
+        private final boolean takesValue;
+        private final BiConsumer<SparkSubmitArgs, String> handler;
+
+        OptionSpec(boolean takesValue, BiConsumer<SparkSubmitArgs, String> handler) {
+            this.takesValue = takesValue;
+            this.handler = handler;
+        }
+    }
+
+    private static final class CachedProperties {
+        private final long lastModified;
+        private final long length;
+        private final Map<String, String> entries;
+
+        CachedProperties(long lastModified, long length, Map<String, String> entries) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.entries = entries;
+        }
+    }
+
+    static {
+        // Application
+        value("--name", SparkSubmitArgs::setName);
+        value("--class", SparkSubmitArgs::setClassName);
+        alias("-c", "--class");
+        value("--deploy-mode", SparkSubmitArgs::setDeployMode);
+        value("--proxy-user", SparkSubmitArgs::setProxyUser);
+        value("--queue", (r, v) -> {
+            r.setQueue(v);
+            r.getConf().put("spark.yarn.queue", v);
+        });
+        value("--conf", (r, v) -> {
+            int eqIndex = v.indexOf('=');
+            if (eqIndex <= 0) {
+                throw new IllegalArgumentException("Invalid --conf (expected key=value): " + v);
+            }
+            r.getConf().put(v.substring(0, eqIndex), v.substring(eqIndex + 1));
+        });
+        value("--properties-file", SparkSubmitArgs::setPropertiesFile);
+
+        // Resources
+        value("--jars", (r, v) -> addAll(r.getJars(), v));
+        value("--packages", (r, v) -> addAll(r.getPackages(), v));
+        value("--exclude-packages", (r, v) -> r.getConf().put("spark.jars.excludes", v));
+        value("--repositories", (r, v) -> addAll(r.getRepositories(), v));
+        value("--py-files", (r, v) -> addAll(r.getPyFiles(), v));
+        value("--files", (r, v) -> addAll(r.getFiles(), v));
+        value("--archives", (r, v) -> addAll(r.getArchives(), v));
+
+        // Options that map onto Spark properties
+        value("--driver-memory", (r, v) -> r.getConf().put("spark.driver.memory", v));
+        value("--driver-cores", (r, v) -> {
+            r.setDriverCores(v);
+            r.getConf().put("spark.driver.cores", v);
+        });
+        value("--driver-class-path", (r, v) -> r.getConf().put("spark.driver.extraClassPath", v));
+        value("--driver-java-options", (r, v) -> r.getConf().put("spark.driver.extraJavaOptions", v));
+        value("--driver-library-path", (r, v) -> r.getConf().put("spark.driver.extraLibraryPath", v));
+        value("--executor-memory", (r, v) -> r.getConf().put("spark.executor.memory", v));
+        value("--executor-cores", (r, v) -> r.getConf().put("spark.executor.cores", v));
+        value("--num-executors", (r, v) -> r.getConf().put("spark.executor.instances", v));
+        value("--total-executor-cores", (r, v) -> r.getConf().put("spark.cores.max", v));
+        value("--principal", (r, v) -> r.getConf().put("spark.kerberos.principal", v));
+        value("--keytab", (r, v) -> r.getConf().put("spark.kerberos.keytab", v));
+
+        // spark-submit options that have no meaning when submitting through Kyuubi
+        value("--master", (r, v) -> System.err.println("Warning: --master is ignored; Kyuubi decides the master"));
+        flag("--verbose", r -> { });
+        alias("-v", "--verbose");
+        flag("--supervise", r -> System.err.println("Warning: --supervise is not supported and is ignored"));
+        flag("--help", r -> r.setHelp(true));
+        alias("-h", "--help");
+
+        // Batch management
+        value("--status", SparkSubmitArgs::setStatusBatchId);
+        value("--kill", SparkSubmitArgs::setKillBatchId);
+        value("--logs", SparkSubmitArgs::setLogsBatchId);
+        value("--tail", (r, v) -> r.setTailLines(Integer.parseInt(v)));
+        flag("--follow", r -> r.setFollow(true));
+        flag("--kill-all", r -> r.setKillAll(true));
+        value("--match-name", (r, v) -> r.getSelector().setNameGlob(v));
+        value("--match-user", (r, v) -> r.getSelector().setUser(v));
+        value("--match-state", (r, v) -> r.getSelector().setStates(v));
+        value("--created-after", (r, v) ->
+            r.getSelector().setCreatedAfter(TimeUtils.parsePastTime(v, System.currentTimeMillis())));
+        value("--parallelism", (r, v) -> r.setParallelism(Integer.parseInt(v)));
+        flag("--dry-run", r -> r.setDryRun(true));
+        flag("--no-cache", r -> r.setNoCache(true));
+        flag("--skip-preflight", r -> r.setSkipPreflight(true));
+        flag("--slim-jar", r -> r.setSlimJar(true));
+        value("--timeout", (r, v) -> r.setTimeoutMs(TimeUtils.parseDuration(v)));
+        value("--pending-timeout", (r, v) -> r.setPendingTimeoutMs(TimeUtils.parseDuration(v)));
+        value("--deadline", (r, v) -> r.setDeadline(TimeUtils.parseFutureTime(v, System.currentTimeMillis())));
+        value("--retry", (r, v) -> r.setRetries(Integer.parseInt(v)));
+        value("--on-duplicate", (r, v) -> {
+            JobFingerprint.Policy.parse(v);
+            r.setDuplicatePolicy(v);
+        });
+        value("--history-report", SparkSubmitArgs::setHistoryReport);
+
+        // Profiles and placement
+        value("--profile", (r, v) -> addAll(r.getProfiles(), v));
+        value("--input-size", (r, v) -> r.setInputSizeBytes(SizeUtils.parseBytes(v)));
+        value("--node-selector", (r, v) -> r.getPodTemplates().addNodeSelector(v));
+        value("--node-affinity", (r, v) -> r.getPodTemplates().addNodeAffinity(v));
+        value("--toleration", (r, v) -> r.getPodTemplates().addToleration(v));
+        value("--topology-spread", (r, v) -> r.getPodTemplates().setTopologySpreadKey(v));
+        value("--local-dir-host-path", (r, v) -> r.getPodTemplates().addLocalDirHostPaths(v));
+        value("--driver-cpu-limit", (r, v) -> r.getPodTemplates().setDriverCpuLimit(v));
+        value("--executor-cpu-limit", (r, v) -> r.getPodTemplates().setExecutorCpuLimit(v));
+        value("--executor-ephemeral-storage", (r, v) -> r.getPodTemplates().setExecutorEphemeralStorage(v));
+
+        // Scheduling and workflows
+        value("--priority", (r, v) -> r.setPriority(Integer.parseInt(v)));
+        value("--dag", SparkSubmitArgs::setDagFile);
+        value("--max-parallel", (r, v) -> r.setMaxParallel(Integer.parseInt(v)));
+        flag("--resume", r -> r.setResume(true));
+        value("--sql", (r, v) -> r.getSqlStatements().add(v));
+        value("--sql-file", (r, v) -> r.getSqlFiles().add(v));
+        flag("--close-session", r -> r.setCloseSession(true));
+        flag("--detach", r -> r.setDetach(true));
+        value("--notify", (r, v) -> r.getNotifyHooks().add(Notifier.validate(v)));
+        flag("--notifier", r -> r.setNotifier(true));
+        value("--cluster", (r, v) -> {
+            for (String name : v.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    r.getClusters().add(name.trim());
+                }
+            }
+        });
+
+        // Output
+        value("--output", SparkSubmitArgs::setOutputFormat);
+        value("--log-level", SparkSubmitArgs::setLogLevel);
+        value("--log-include", (r, v) -> r.getLogIncludes().add(v));
+        value("--log-exclude", (r, v) -> r.getLogExcludes().add(v));
+        value("--fail-on", (r, v) -> {
+            FailFast.parse("--fail-on", v);
+            r.getFailOnPatterns().add(v);
+        });
+        flag("--log-collapse", r -> r.setLogCollapse(true));
+    }
+
+    private static void value(String name, BiConsumer<SparkSubmitArgs, String> handler) {
+        OPTIONS.put(name, new OptionSpec(true, handler));
+    }
+
+    private static void flag(String name, java.util.function.Consumer<SparkSubmitArgs> handler) {
+        OPTIONS.put(name, new OptionSpec(false, (r, v) -> handler.accept(r)));
+    }
+
+    private static void alias(String alias, String name) {
+        OPTIONS.put(alias, OPTIONS.get(name));
+    }
+
     public static SparkSubmitArgs parse(String[] args) {
         SparkSubmitArgs result = new SparkSubmitArgs();
-        List<String> appArgs = new ArrayList<>();
-        Map<String, String> conf = new HashMap<>();
-        List<String> pyFiles = new ArrayList<>();
-        List<String> files = new ArrayList<>();
-        List<String> jars = new ArrayList<>();
-        List<String> archives = new ArrayList<>();
-        List<String> packages = new ArrayList<>();
-        List<String> repositories = new ArrayList<>();
-        
+
         int i = 0;
         while (i < args.length) {
             String arg = args[i];
-            
-            if ("--name".equals(arg)) {
-                if (i + 1 < args.length) {
-                    result.setName(args[++i]);
-                }
-            } else if ("--status".equals(arg)) {
-                if (i + 1 < args.length) {
-                    result.setStatusBatchId(args[++i]);
-                }
-            } else if ("--kill".equals(arg)) {
-                if (i + 1 < args.length) {
-                    result.setKillBatchId(args[++i]);
-                }
-            } else if ("--class".equals(arg) || "-c".equals(arg)) {
-                if (i + 1 < args.length) {
-                    result.setClassName(args[++i]);
-                }
-            } else if ("--conf".equals(arg)) {
-                if (i + 1 < args.length) {
-                    String confValue = args[++i];
-                    int eqIndex = confValue.indexOf('=');
-                    if (eqIndex > 0) {
-                        String key = confValue.substring(0, eqIndex);
-                        String value = confValue.substring(eqIndex + 1);
-                        conf.put(key, value);
-                    }
-                }
-            } else if ("--properties-file".equals(arg)) {
-                // Skip properties file for now
-                if (i + 1 < args.length) {
-                    i++;
-                }
-            } else if ("--jars".equals(arg)) {
-                if (i + 1 < args.length) {
-                    String value = args[++i];
-                    for (String jar : value.split(",")) {
-                        String trimmed = jar.trim();
-                        if (!trimmed.isEmpty()) {
-                            jars.add(trimmed);
-                        }
-                    }
-                }
-            } else if ("--packages".equals(arg)) {
-                if (i + 1 < args.length) {
-                    String value = args[++i];
-                    for (String p : value.split(",")) {
-                        String trimmed = p.trim();
-                        if (!trimmed.isEmpty()) {
-                            packages.add(trimmed);
-                        }
-                    }
-                }
-            } else if ("--repositories".equals(arg)) {
-                if (i + 1 < args.length) {
-                    String value = args[++i];
-                    for (String repo : value.split(",")) {
-                        String trimmed = repo.trim();
-                        if (!trimmed.isEmpty()) {
-                            repositories.add(trimmed);
-                        }
-                    }
+
+            if (result.getResource() != null) {
+                // Everything after the application resource belongs to the application
+                result.getArgs().add(arg);
+            } else if (arg.startsWith("-") && arg.length() > 1) {
+                String name = arg;
+                String inlineValue = null;
+                int eqIndex = arg.indexOf('=');
+                if (arg.startsWith("--") && eqIndex > 0) {
+                    name = arg.substring(0, eqIndex);
+                    inlineValue = arg.substring(eqIndex + 1);
                 }
-            } else if ("--py-files".equals(arg)) {
-                if (i + 1 < args.length) {
-                    String value = args[++i];
-                    for (String py : value.split(",")) {
-                        String trimmed = py.trim();
-                        if (!trimmed.isEmpty()) {
-                            pyFiles.add(trimmed);
-                        }
-                    }
+                OptionSpec spec = OPTIONS.get(name);
+                if (spec == null) {
+                    throw new IllegalArgumentException("Unknown option: " + name
+                        + " (argument " + (i + 1) + ")");
                 }
-            } else if ("--files".equals(arg)) {
-                if (i + 1 < args.length) {
-                    String value = args[++i];
-                    for (String file : value.split(",")) {
-                        String trimmed = file.trim();
-                        if (!trimmed.isEmpty()) {
-                            files.add(trimmed);
+                if (spec.takesValue) {
+                    String value = inlineValue;
+                    if (value == null) {
+                        if (i + 1 >= args.length) {
+                            throw new IllegalArgumentException("Missing value for option " + name);
                         }
+                        value = args[++i];
                     }
-                }
-            } else if ("--archives".equals(arg)) {
-                if (i + 1 < args.length) {
-                    String value = args[++i];
-                    for (String archive : value.split(",")) {
-                        String trimmed = archive.trim();
-                        if (!trimmed.isEmpty()) {
-                            archives.add(trimmed);
-                        }
+                    spec.handler.accept(result, value);
+                } else {
+                    if (inlineValue != null) {
+                        throw new IllegalArgumentException("Option " + name + " does not take a value");
                     }
-                }
-            } else if ("--driver-memory".equals(arg)) {
-                if (i + 1 < args.length) {
-                    conf.put("spark.driver.memory", args[++i]);
-                }
-            } else if ("--driver-cores".equals(arg)) {
-                if (i + 1 < args.length) {
-                    String value = args[++i];
-                    result.setDriverCores(value);
-                    conf.put("spark.driver.cores", value);
-                }
-            } else if ("--driver-class-path".equals(arg)) {
-                if (i + 1 < args.length) {
-                    conf.put("spark.driver.extraClassPath", args[++i]);
-                }
-            } else if ("--driver-java-options".equals(arg)) {
-                if (i + 1 < args.length) {
-                    conf.put("spark.driver.extraJavaOptions", args[++i]);
-                }
-            } else if ("--driver-library-path".equals(arg)) {
-                if (i + 1 < args.length) {
-                    conf.put("spark.driver.extraLibraryPath", args[++i]);
-                }
-            } else if ("--executor-memory".equals(arg)) {
-                if (i + 1 < args.length) {
-                    conf.put("spark.executor.memory", args[++i]);
-                }
-            } else if ("--executor-cores".equals(arg)) {
-                if (i + 1 < args.length) {
-                    conf.put("spark.executor.cores", args[++i]);
-                }
-            } else if ("--num-executors".equals(arg)) {
-                if (i + 1 < args.length) {
-                    conf.put("spark.executor.instances", args[++i]);
-                }
-            } else if ("--total-executor-cores".equals(arg)) {
-                if (i + 1 < args.length) {
-                    conf.put("spark.cores.max", args[++i]);
-                }
-            } else if ("--queue".equals(arg)) {
-                if (i + 1 < args.length) {
-                    String queue = args[++i];
-                    result.setQueue(queue);
-                    conf.put("spark.yarn.queue", queue);
-                }
-            } else if ("--proxy-user".equals(arg)) {
-                if (i + 1 < args.length) {
-                    result.setProxyUser(args[++i]);
-                }
-            } else if ("--deploy-mode".equals(arg)) {
-                if (i + 1 < args.length) {
-                    result.setDeployMode(args[++i]);
-                }
-            } else if (arg.startsWith("--")) {
-                // Unknown option, skip
-                if (i + 1 < args.length && !args[i + 1].startsWith("-")) {
-                    i++;
+                    spec.handler.accept(result, null);
                 }
             } else {
-                // This should be the resource (jar file) or application arguments
-                if (result.getResource() == null && (arg.endsWith(".jar") || arg.endsWith(".py") ||
-                    arg.startsWith("local://") || arg.startsWith("oss://"))) {
-                    result.setResource(arg);
-                } else {
-                    appArgs.add(arg);
-                }
+                // The first positional argument is the resource (jar or python file)
+                result.setResource(arg);
             }
             i++;
         }
-        
-        result.setConf(conf);
-        result.setArgs(appArgs);
-        result.setPyFiles(pyFiles);
-        result.setFiles(files);
-        result.setJars(jars);
-        result.setArchives(archives);
-        result.setPackages(packages);
-        result.setRepositories(repositories);
+
+        applyPropertyLayers(result);
 
         // Infer batch type
         if (result.getResource() != null && result.getResource().endsWith(".py")) {
@@ -200,8 +251,98 @@ public class SparkSubmitParser {
         } else {
             result.setBatchType("SPARK");
         }
-        
+
         return result;
     }
-}
 
+    /**
+     * Fill in spark.* properties from --properties-file, or else spark-defaults.conf, without
+     * overriding anything given on the command line
+     */
+    private static void applyPropertyLayers(SparkSubmitArgs result) {
+        Map<String, String> conf = result.getConf();
+        if (result.getPropertiesFile() != null) {
+            File file = new File(result.getPropertiesFile());
+            if (!file.isFile()) {
+                throw new IllegalArgumentException("Properties file not found: " + result.getPropertiesFile());
+            }
+            putSparkPropertiesIfAbsent(conf, loadProperties(file), file);
+            return;
+        }
+        File defaults = findSparkDefaults();
+        if (defaults != null) {
+            // A local Spark install's defaults are easy to pick up unknowingly, so say so (once
+            // per process: workflows parse every job's arguments)
+            if (!defaultsReported) {
+                defaultsReported = true;
+                System.err.println("Using Spark defaults from " + defaults.getAbsolutePath()
+                    + " (use --properties-file to replace them)");
+            }
+            // Remember which keys are only defaults so performance profiles may override them
+            result.getDefaultConfKeys().addAll(putSparkPropertiesIfAbsent(conf, loadProperties(defaults), defaults));
+        }
+    }
+
+    private static List<String> putSparkPropertiesIfAbsent(Map<String, String> conf, Map<String, String> properties,
+                                                           File source) {
+        List<String> added = new java.util.ArrayList<>();
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            if (SERVER_DECIDED_KEYS.contains(entry.getKey())) {
+                System.err.println("Warning: " + entry.getKey() + " from " + source.getPath()
+                    + " is ignored; Kyuubi decides it");
+                continue;
+            }
+            // Like spark-submit, only spark.* keys are taken from properties files
+            if (entry.getKey().startsWith("spark.") && !conf.containsKey(entry.getKey())) {
+                conf.put(entry.getKey(), entry.getValue());
+                added.add(entry.getKey());
+            }
+        }
+        return added;
+    }
+
+    private static File findSparkDefaults() {
+        String confDir = System.getenv("SPARK_CONF_DIR");
+        if (confDir == null && System.getenv("SPARK_HOME") != null) {
+            confDir = System.getenv("SPARK_HOME") + File.separator + "conf";
+        }
+        if (confDir == null) {
+            return null;
+        }
+        File file = new File(confDir, "spark-defaults.conf");
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Parse a properties file once; later calls reuse the parsed entries until the file changes
+     */
+    static Map<String, String> loadProperties(File file) {
+        String key = file.getAbsolutePath();
+        CachedProperties cached = PROPERTIES_CACHE.get(key);
+        if (cached != null && cached.lastModified == file.lastModified() && cached.length == file.length()) {
+            return cached.entries;
+        }
+        Properties props = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            props.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load properties file: " + file, e);
+        }
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (String name : props.stringPropertyNames()) {
+            entries.put(name, props.getProperty(name).trim());
+        }
+        entries = Collections.unmodifiableMap(entries);
+        PROPERTIES_CACHE.put(key, new CachedProperties(file.lastModified(), file.length(), entries));
+        return entries;
+    }
+
+    private static void addAll(List<String> target, String commaSeparated) {
+        for (String item : commaSeparated.split(",")) {
+            String trimmed = item.trim();
+            if (!trimmed.isEmpty()) {
+                target.add(trimmed);
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.aliyun.emr.ack;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs SQL on a warm Kyuubi engine through the REST session API instead of submitting a batch
+ * (--sql, --sql-file), so short queries do not pay for a driver pod each time.
+ *
+ * The session is kept open after the statements finish and its handle is cached under
+ * {@code <config dir>/sessions}, keyed by server, user and session conf; the next invocation
+ * with the same key reuses it if the server still knows it, otherwise a new session is opened.
+ * The engine behind the session is shared according to Kyuubi's
+ * {@code kyuubi.engine.share.level} (USER by default), so even a new session usually finds a
+ * running engine. Statements run one at a time and stop at the first failure; result rows are
+ * fetched and printed page by page as tab-separated values. Settings:
+ * <pre>
+ *   spark.submit.session.fetch-size=1000          (rows per page)
+ *   spark.submit.session.statement-timeout=6h     (0 to wait indefinitely)
+ * </pre>
+ * A statement still running after the statement timeout is canceled and fails with state
+ * TIMEOUT. --close-session closes the cached session. Session idle timeouts are enforced by
+ * Kyuubi.
+ */
+public class SqlSession {
+    private static final long MIN_POLL_INTERVAL_MS = 100;
+    private static final long MAX_POLL_INTERVAL_MS = 1000;
+
+    private final Config config;
+    private final KyuubiClient client;
+    private final File dir;
+    private final int fetchSize;
+    private final long statementTimeoutMs;
+    private volatile String runningOperation;
+
+    public SqlSession(Config config, KyuubiClient client) {
+        this.config = config;
+        this.client = client;
+        this.dir = new File(config.getConfigDir(), "sessions");
+        this.fetchSize = Math.max(1, config.getIntProperty("spark.submit.session.fetch-size", 1000));
+        this.statementTimeoutMs = TimeUtils.parseDuration(
+            config.getProperty("spark.submit.session.statement-timeout", "6h"));
+    }
+
+    /**
+     * Session configs: the --conf entries plus the proxy user
+     */
+    static Map<String, String> sessionConf(SparkSubmitArgs args) {
+        Map<String, String> conf = new TreeMap<>(args.getConf());
+        if (args.getProxyUser() != null && !args.getProxyUser().isEmpty()) {
+            conf.put("hive.server2.proxy.user", args.getProxyUser());
+        }
+        return conf;
+    }
+
+    /**
+     * Run the statements in order; returns the exit code
+     */
+    public int run(SparkSubmitArgs args, List<String> statements, EventWriter events) throws IOException {
+        Map<String, String> conf = sessionConf(args);
+        File entry = new File(dir, cacheKey(conf));
+        String session = openOrReuse(entry, conf);
+        Thread cancel = new Thread(this::cancelRunning, "spark-submit-sql-cancel");
+        Runtime.getRuntime().addShutdownHook(cancel);
+        try {
+            for (int i = 0; i < statements.size(); i++) {
+                if (!execute(session, i + 1, statements.get(i), events)) {
+                    return 1;
+                }
+            }
+            return 0;
+        } finally {
+            Runtime.getRuntime().removeShutdownHook(cancel);
+        }
+    }
+
+    /**
+     * Close the cached session for this submission's conf, if any
+     */
+    public void close(SparkSubmitArgs args) throws IOException {
+        File entry = new File(dir, cacheKey(sessionConf(args)));
+        if (!entry.isFile()) {
+            System.out.println("No cached session");
+            return;
+        }
+        String session = new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8).trim();
+        entry.delete();
+        if (client.isSessionOpen(session)) {
+            client.closeSession(session);
+            System.out.println("Closed session: " + session);
+        } else {
+            System.out.println("Session already closed: " + session);
+        }
+    }
+
+    private String openOrReuse(File entry, Map<String, String> conf) throws IOException {
+        if (entry.isFile()) {
+            String session = new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8).trim();
+            try {
+                if (!session.isEmpty() && client.isSessionOpen(session)) {
+                    System.err.println("Session: " + session + " (reused)");
+                    return session;
+                }
+            } catch (IOException e) {
+                // Unusable handle: open a new session below
+            }
+            entry.delete();
+        }
+        long start = System.currentTimeMillis();
+        String session = client.openSession(conf).getIdentifier();
+        System.err.println("Session: " + session + " (opened in "
+            + TimeUtils.formatDuration(System.currentTimeMillis() - start) + ")");
+        try {
+            if (dir.isDirectory() || dir.mkdirs()) {
+                File tmp = File.createTempFile(entry.getName(), ".tmp", dir);
+                Files.write(tmp.toPath(), session.getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp.toPath(), entry.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Failed to cache session handle: " + e.getMessage());
+        }
+        return session;
+    }
+
+    private String cacheKey(Map<String, String> conf) {
+        StringBuilder key = new StringBuilder();
+        key.append(config.getBaseUrl()).append('\n').append(config.getUsername()).append('\n');
+        for (Map.Entry<String, String> e : conf.entrySet()) {
+            key.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        return PodTemplates.sha256(key.toString().getBytes(StandardCharsets.UTF_8)).substring(0, 32);
+    }
+
+    /**
+     * Run one statement and print its result; returns false if it failed
+     */
+    private boolean execute(String session, int index, String statement, EventWriter events) throws IOException {
+        long start = System.currentTimeMillis();
+        String operation = client.executeStatement(session, statement).getIdentifier();
+        runningOperation = operation;
+        KyuubiClient.OperationStatus status;
+        try {
+            long interval = MIN_POLL_INTERVAL_MS;
+            while (true) {
+                status = client.getOperationStatus(operation);
+                if (status.isFinished()) {
+                    break;
+                }
+                if (statementTimeoutMs > 0 && System.currentTimeMillis() - start >= statementTimeoutMs) {
+                    try {
+                        client.operationAction(operation, "CANCEL");
+                    } catch (IOException e) {
+                        // Closed below, or with the session at the latest
+                    }
+                    status = new KyuubiClient.OperationStatus();
+                    status.setState("TIMEOUT");
+                    status.setException("still running after " + TimeUtils.formatDuration(statementTimeoutMs)
+                        + " (spark.submit.session.statement-timeout), canceled");
+                    break;
+                }
+                Thread.sleep(interval);
+                interval = Math.min(MAX_POLL_INTERVAL_MS, interval * 2);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for statement " + index);
+        } finally {
+            runningOperation = null;
+        }
+
+        long rows = 0;
+        try {
+            if (status.getState().startsWith("FINISHED")) {
+                rows = printResults(operation, index, events);
+            }
+        } finally {
+            try {
+                client.operationAction(operation, "CLOSE");
+            } catch (IOException e) {
+                // Closed with the session at the latest
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        String state = status.getState().replace("_STATE", "");
+        boolean ok = "FINISHED".equals(state);
+        if (ok) {
+            System.err.println("Statement " + index + ": " + rows + (rows == 1 ? " row" : " rows")
+                + " in " + TimeUtils.formatDuration(elapsed));
+        } else {
+            System.err.println("❌ Statement " + index + " " + state
+                + (status.getException() != null ? ": " + status.getException() : ""));
+        }
+        if (events != null) {
+            JsonObject fields = new JsonObject();
+            fields.addProperty("statement", index);
+            fields.addProperty("state", state);
+            fields.addProperty("rows", rows);
+            fields.addProperty("elapsedMs", elapsed);
+            if (status.getException() != null) {
+                fields.addProperty("message", status.getException());
+            }
+            events.event("statement", null, fields);
+        }
+        return ok;
+    }
+
+    /**
+     * Stream the result rows page by page; returns the row count
+     */
+    private long printResults(String operation, int index, EventWriter events) throws IOException {
+        List<KyuubiClient.Column> columns = client.getResultSetMetadata(operation).getColumns();
+        if (columns == null || columns.isEmpty()) {
+            return 0;
+        }
+        List<String> names = new ArrayList<>();
+        JsonArray eventColumns = new JsonArray();
+        for (KyuubiClient.Column column : columns) {
+            names.add(column.getColumnName());
+            eventColumns.add(column.getColumnName());
+        }
+        if (events == null) {
+            System.out.println(String.join("\t", names));
+        }
+        long rows = 0;
+        while (true) {
+            KyuubiClient.RowSet page = client.fetchResults(operation, fetchSize);
+            if (page.getRows() == null || page.getRows().isEmpty()) {
+                break;
+            }
+            JsonArray eventRows = new JsonArray();
+            StringBuilder out = new StringBuilder();
+            for (KyuubiClient.Row row : page.getRows()) {
+                List<String> values = new ArrayList<>();
+                JsonArray eventRow = new JsonArray();
+                if (row.getFields() != null) {
+                    for (KyuubiClient.Field field : row.getFields()) {
+                        values.add(format(field.getValue()));
+                        eventRow.add(field.getValue());
+                    }
+                }
+                out.append(String.join("\t", values)).append('\n');
+                eventRows.add(eventRow);
+            }
+            rows += page.getRows().size();
+            if (events != null) {
+                JsonObject fields = new JsonObject();
+                fields.addProperty("statement", index);
+                fields.add("columns", eventColumns);
+                fields.add("rows", eventRows);
+                events.event("rows", null, fields);
+            } else {
+                System.out.print(out);
+                System.out.flush();
+            }
+        }
+        return rows;
+    }
+
+    private static String format(JsonElement value) {
+        if (value == null || value.isJsonNull()) {
+            return "NULL";
+        }
+        String text = value.isJsonPrimitive() ? value.getAsString() : value.toString();
+        // Keep one row per line and one value per column
+        return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private void cancelRunning() {
+        String operation = runningOperation;
+        if (operation != null) {
+            try {
+                client.operationAction(operation, "CANCEL");
+                System.err.println("\nCanceled running statement");
+            } catch (IOException e) {
+                // Best effort while exiting
+            }
+        }
+    }
+
+    /**
+     * Split a SQL script into statements on semicolons outside quotes and comments
+     */
+    static List<String> split(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int n = script.length();
+        for (int i = 0; i < n; i++) {
+            char c = script.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = i + 1;
+                while (end < n && script.charAt(end) != c) {
+                    end += script.charAt(end) == '\\' && c != '`' ? 2 : 1;
+                }
+                end = Math.min(end, n - 1);
+                current.append(script, i, end + 1);
+                i = end;
+            } else if (c == '-' && i + 1 < n && script.charAt(i + 1) == '-') {
+                int end = script.indexOf('\n', i);
+                i = end < 0 ? n : end;
+                current.append('\n');
+            } else if (c == '/' && i + 1 < n && script.charAt(i + 1) == '*') {
+                int end = script.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 1;
+                current.append(' ');
+            } else if (c == ';') {
+                add(statements, current);
+            } else {
+                current.append(c);
+            }
+        }
+        add(statements, current);
+        return statements;
+    }
+
+    private static void add(List<String> statements, StringBuilder current) {
+        String statement = current.toString().trim();
+        if (!statement.isEmpty()) {
+            statements.add(statement);
+        }
+        current.setLength(0);
+    }
+}
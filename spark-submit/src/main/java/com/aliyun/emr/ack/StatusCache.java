@@ -0,0 +1,185 @@
+package com.aliyun.emr.ack;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Batch status cache shared by all spark-submit processes on this host.
+ *
+ * Each batch is one small JSON file under {@code <config dir>/cache/status}. Finished batches
+ * are cached forever; live ones for a per-state TTL. After the TTL an entry may still be served
+ * for the stale-while-revalidate window while one process refreshes it, so concurrent callers
+ * hit Kyuubi at most once per TTL. The least recently used entries are evicted beyond the
+ * configured size.
+ *
+ * Settings:
+ * <pre>
+ *   spark.submit.status-cache.enabled=true
+ *   spark.submit.status-cache.ttl.pending=10s
+ *   spark.submit.status-cache.ttl.running=5s
+ *   spark.submit.status-cache.stale-while-revalidate=30s
+ *   spark.submit.status-cache.max-entries=1000
+ * </pre>
+ */
+public class StatusCache {
+    private static final String ENTRY_SUFFIX = ".json";
+    private static final String REFRESH_SUFFIX = ".refresh";
+
+    private final boolean enabled;
+    private final long pendingTtlMs;
+    private final long runningTtlMs;
+    private final long staleWhileRevalidateMs;
+    private final int maxEntries;
+    private final File dir;
+    private final Gson gson = new Gson();
+
+    public StatusCache(Config config) {
+        this.enabled = Boolean.parseBoolean(config.getProperty("spark.submit.status-cache.enabled", "true"));
+        this.pendingTtlMs = TimeUtils.parseDuration(config.getProperty("spark.submit.status-cache.ttl.pending", "10s"));
+        this.runningTtlMs = TimeUtils.parseDuration(config.getProperty("spark.submit.status-cache.ttl.running", "5s"));
+        this.staleWhileRevalidateMs = TimeUtils.parseDuration(
+            config.getProperty("spark.submit.status-cache.stale-while-revalidate", "30s"));
+        this.maxEntries = config.getIntProperty("spark.submit.status-cache.max-entries", 1000);
+        this.dir = new File(new File(config.getConfigDir(), "cache"), "status");
+    }
+
+    /**
+     * Cached entry as stored on disk
+     */
+    private static class Entry {
+        private long fetchedAt;
+        private KyuubiClient.BatchResponse batch;
+    }
+
+    /**
+     * Get a batch status, going to Kyuubi only when the cached copy cannot be used
+     */
+    public KyuubiClient.BatchResponse getBatch(KyuubiClient client, String batchId) throws IOException {
+        if (!enabled || !batchId.matches("[A-Za-z0-9._-]+")) {
+            return client.getBatch(batchId);
+        }
+        long now = System.currentTimeMillis();
+        File file = new File(dir, batchId + ENTRY_SUFFIX);
+        Entry entry = read(file);
+        boolean claimed = false;
+        if (entry != null) {
+            long age = now - entry.fetchedAt;
+            long ttl = ttlFor(entry.batch);
+            if (age <= ttl) {
+                file.setLastModified(now);
+                return entry.batch;
+            }
+            if (age <= ttl + staleWhileRevalidateMs) {
+                claimed = claimRefresh(batchId, now, ttl);
+                if (!claimed) {
+                    // Another process is refreshing this entry; the stale copy is good enough
+                    file.setLastModified(now);
+                    return entry.batch;
+                }
+            }
+        }
+
+        try {
+            KyuubiClient.BatchResponse batch = client.getBatch(batchId);
+            put(batch, now);
+            return batch;
+        } finally {
+            if (claimed) {
+                new File(dir, batchId + REFRESH_SUFFIX).delete();
+            }
+        }
+    }
+
+    /**
+     * Store a status fetched elsewhere (e.g. by the follow loop)
+     */
+    public void put(KyuubiClient.BatchResponse batch) {
+        put(batch, System.currentTimeMillis());
+    }
+
+    private void put(KyuubiClient.BatchResponse batch, long fetchedAt) {
+        if (!enabled || batch == null || batch.getId() == null || !batch.getId().matches("[A-Za-z0-9._-]+")) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.fetchedAt = fetchedAt;
+        entry.batch = batch;
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                return;
+            }
+            File tmp = File.createTempFile(batch.getId(), ".tmp", dir);
+            Files.write(tmp.toPath(), gson.toJson(entry).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), new File(dir, batch.getId() + ENTRY_SUFFIX).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evictIfNeeded();
+        } catch (IOException e) {
+            // The cache is an optimization only
+            System.err.println("Warning: Failed to update status cache: " + e.getMessage());
+        }
+    }
+
+    private long ttlFor(KyuubiClient.BatchResponse batch) {
+        if (batch == null) {
+            return 0;
+        }
+        if (batch.isFinished()) {
+            return Long.MAX_VALUE / 2;
+        }
+        return "PENDING".equals(batch.getState()) ? pendingTtlMs : runningTtlMs;
+    }
+
+    /**
+     * Atomically claim the right to refresh an entry; a claim older than the TTL is abandoned
+     */
+    private boolean claimRefresh(String batchId, long now, long ttl) {
+        File marker = new File(dir, batchId + REFRESH_SUFFIX);
+        try {
+            if (marker.createNewFile()) {
+                return true;
+            }
+            if (now - marker.lastModified() > Math.max(ttl, 5_000L)) {
+                marker.setLastModified(now);
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private Entry read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            Entry entry = gson.fromJson(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), Entry.class);
+            return entry != null && entry.batch != null ? entry : null;
+        } catch (IOException | JsonParseException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Drop least recently used entries once the cache is 10% over its size limit
+     */
+    private void evictIfNeeded() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(ENTRY_SUFFIX));
+        if (files == null || files.length <= maxEntries + maxEntries / 10) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - maxEntries; i++) {
+            files[i].delete();
+        }
+    }
+}
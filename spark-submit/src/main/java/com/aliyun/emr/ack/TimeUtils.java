@@ -0,0 +1,143 @@
+package com.aliyun.emr.ack;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Helpers for parsing durations and timestamps given on the command line
+ */
+public class TimeUtils {
+    private static final DateTimeFormatter SPACE_SEPARATED =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm[:ss]");
+
+    private TimeUtils() {
+    }
+
+    /**
+     * Parse a duration such as 500ms, 30s, 15m, 2h or 1d into milliseconds.
+     * A bare number is interpreted as seconds.
+     */
+    public static long parseDuration(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Empty duration");
+        }
+        String v = value.trim().toLowerCase();
+        long multiplier;
+        String number;
+        if (v.endsWith("ms")) {
+            multiplier = 1L;
+            number = v.substring(0, v.length() - 2);
+        } else if (v.endsWith("s")) {
+            multiplier = 1000L;
+            number = v.substring(0, v.length() - 1);
+        } else if (v.endsWith("m")) {
+            multiplier = 60_000L;
+            number = v.substring(0, v.length() - 1);
+        } else if (v.endsWith("h")) {
+            multiplier = 3_600_000L;
+            number = v.substring(0, v.length() - 1);
+        } else if (v.endsWith("d")) {
+            multiplier = 86_400_000L;
+            number = v.substring(0, v.length() - 1);
+        } else {
+            multiplier = 1000L;
+            number = v;
+        }
+        try {
+            return Long.parseLong(number.trim()) * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid duration: " + value);
+        }
+    }
+
+    /**
+     * Parse an absolute point in time into epoch milliseconds. Accepts epoch milliseconds,
+     * ISO-8601 with offset (2024-05-01T08:00:00Z), or local date/time in the system zone
+     * (2024-05-01T08:00, 2024-05-01 08:00:00, 2024-05-01).
+     */
+    public static long parseTimestamp(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Empty timestamp");
+        }
+        String v = value.trim();
+        if (v.matches("\\d{10,}")) {
+            return Long.parseLong(v);
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            return OffsetDateTime.parse(v).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+            // Try the next format
+        }
+        try {
+            return Instant.parse(v).toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+            // Try the next format
+        }
+        try {
+            return LocalDateTime.parse(v).atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+            // Try the next format
+        }
+        try {
+            return LocalDateTime.parse(v, SPACE_SEPARATED).atZone(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ignored) {
+            // Try the next format
+        }
+        try {
+            return LocalDate.parse(v).atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid timestamp: " + value);
+        }
+    }
+
+    /**
+     * Parse a point in the past: either an absolute timestamp or a look-back duration
+     * such as 2h (meaning two hours ago)
+     */
+    public static long parsePastTime(String value, long now) {
+        String v = value == null ? "" : value.trim();
+        if (v.matches("\\d+(ms|s|m|h|d)")) {
+            return now - parseDuration(v);
+        }
+        return parseTimestamp(v);
+    }
+
+    /**
+     * Parse a point in the future: either an absolute timestamp or a duration from now
+     * such as 2h (meaning two hours from now)
+     */
+    public static long parseFutureTime(String value, long now) {
+        String v = value == null ? "" : value.trim();
+        if (v.matches("\\d+(ms|s|m|h|d)")) {
+            return now + parseDuration(v);
+        }
+        return parseTimestamp(v);
+    }
+
+    /**
+     * Format milliseconds as a compact human-readable duration, e.g. 1h 02m 03s
+     */
+    public static String formatDuration(long millis) {
+        if (millis < 0) {
+            return "-";
+        }
+        long seconds = millis / 1000;
+        long hours = seconds / 3600;
+        long minutes = (seconds % 3600) / 60;
+        long secs = seconds % 60;
+        if (hours > 0) {
+            return String.format("%dh %02dm %02ds", hours, minutes, secs);
+        } else if (minutes > 0) {
+            return String.format("%dm %02ds", minutes, secs);
+        } else if (seconds > 0) {
+            return String.format("%d.%01ds", secs, (millis % 1000) / 100);
+        }
+        return millis + "ms";
+    }
+}
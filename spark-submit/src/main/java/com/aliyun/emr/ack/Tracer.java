@@ -0,0 +1,503 @@
+package com.aliyun.emr.ack;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal OpenTelemetry-style tracer for the submission lifecycle, exporting OTLP/JSON.
+ *
+ * One trace covers the whole client process: a root span with children for parsing, config
+ * load, preflight, every Kyuubi HTTP call and each batch state. When the {@code TRACEPARENT}
+ * environment variable holds a W3C trace context (e.g. set by a scheduler), the root span joins
+ * that trace, so a pipeline step and its Spark job show up in one trace. The trace context is
+ * passed on to Kyuubi in a {@code traceparent} header and to Spark as the
+ * {@code spark-submit-trace-id} driver label and the driver's {@code TRACEPARENT} environment
+ * variable.
+ *
+ * Ended spans are exported in batches as OTLP/JSON {@code ExportTraceServiceRequest}s, by a
+ * background thread whenever a batch is full or the export interval has passed, and once more
+ * when the process exits, ending the spans still open:
+ * <pre>
+ *   spark.submit.tracing.file=/var/log/spark-submit/traces.jsonl    (one request per line)
+ *   spark.submit.tracing.endpoint=http://localhost:4318/v1/traces   (OTLP/HTTP collector)
+ *   spark.submit.tracing.service-name=spark-submit
+ *   spark.submit.tracing.batch-size=512                             (spans per request)
+ *   spark.submit.tracing.export-interval=30s
+ *   spark.submit.tracing.max-http-spans=100                         (per parent span)
+ * </pre>
+ * Following a batch for hours polls Kyuubi thousands of times, so each span keeps only its first
+ * max-http-spans successful HTTP children; later ones are counted in its
+ * {@code http.request.count} and {@code http.spans.dropped} attributes instead. Failed requests
+ * are always kept. {@code OTEL_EXPORTER_OTLP_ENDPOINT} is used when no endpoint is configured.
+ * Without a file or endpoint tracing is off and spans are not recorded.
+ */
+public class Tracer {
+    /** Span kinds as numbered in the OTLP protocol */
+    public static final int KIND_INTERNAL = 1;
+    public static final int KIND_CLIENT = 3;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final String SPAN_ATTRIBUTE = Tracer.class.getName() + ".span";
+    private static final int EXPORT_TIMEOUT_MS = 5000;
+    // Created last: the constructor needs the fields above
+    private static final Tracer GLOBAL = new Tracer();
+
+    private final String traceId;
+    private final String parentSpanId;
+    private final long epochNanos = System.currentTimeMillis() * 1_000_000L;
+    private final long baseNanos = System.nanoTime();
+    // Both guarded by open: spans still running, and ended spans waiting for export
+    private final Set<Span> open = new LinkedHashSet<>();
+    private final List<Span> ended = new ArrayList<>();
+    private final Object exportLock = new Object();
+    private final Span root;
+    private volatile Span current;
+    private volatile boolean enabled = true;
+    private String serviceName = "spark-submit";
+    private String file;
+    private String endpoint;
+    private int batchSize = 512;
+    private long exportIntervalMs = 30000;
+    private int maxHttpSpans = 100;
+    private boolean fileFailed;
+    private boolean endpointFailed;
+
+    /**
+     * A timed operation; close or {@link #end()} it when done
+     */
+    public class Span implements AutoCloseable {
+        private final String spanId = randomHex(8);
+        private final String parentId;
+        private final Span parent;
+        private final String name;
+        private final int kind;
+        private final long start = now();
+        private final Map<String, Object> attributes = new LinkedHashMap<>();
+        private volatile long end;
+        private volatile String error;
+        // Guarded by open
+        private int httpRequests;
+        private int droppedHttpSpans;
+
+        private Span(String name, String parentId, Span parent, int kind) {
+            this.name = name;
+            this.parentId = parentId;
+            this.parent = parent;
+            this.kind = kind;
+        }
+
+        public Span setAttribute(String key, Object value) {
+            if (value != null) {
+                synchronized (attributes) {
+                    attributes.put(key, value);
+                }
+            }
+            return this;
+        }
+
+        public Span setError(String message) {
+            this.error = message != null ? message : "error";
+            return this;
+        }
+
+        public String getSpanId() {
+            return spanId;
+        }
+
+        /**
+         * W3C trace context of this span, for propagation
+         */
+        public String traceparent() {
+            return "00-" + traceId + "-" + spanId + "-01";
+        }
+
+        public void end() {
+            synchronized (this) {
+                if (end != 0) {
+                    return;
+                }
+                end = now();
+            }
+            finished(this);
+        }
+
+        @Override
+        public void close() {
+            end();
+        }
+    }
+
+    private Tracer() {
+        String inbound = System.getenv("TRACEPARENT");
+        String[] parts = inbound != null ? inbound.trim().split("-") : new String[0];
+        if (parts.length == 4 && parts[1].matches("[0-9a-f]{32}") && parts[2].matches("[0-9a-f]{16}")) {
+            traceId = parts[1];
+            parentSpanId = parts[2];
+        } else {
+            traceId = randomHex(16);
+            parentSpanId = null;
+        }
+        root = new Span("spark-submit", parentSpanId, null, KIND_INTERNAL);
+        open.add(root);
+    }
+
+    public static Tracer global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Decide from the config whether and where to export; registers the export on exit
+     */
+    public void configure(Config config) {
+        file = config.getProperty("spark.submit.tracing.file", null);
+        endpoint = config.getProperty("spark.submit.tracing.endpoint", null);
+        if (endpoint == null && System.getenv("OTEL_EXPORTER_OTLP_ENDPOINT") != null) {
+            String base = System.getenv("OTEL_EXPORTER_OTLP_ENDPOINT").trim();
+            endpoint = (base.endsWith("/") ? base.substring(0, base.length() - 1) : base) + "/v1/traces";
+        }
+        serviceName = config.getProperty("spark.submit.tracing.service-name", serviceName);
+        batchSize = Math.max(1, config.getIntProperty("spark.submit.tracing.batch-size", batchSize));
+        exportIntervalMs = Math.max(1000, TimeUtils.parseDuration(
+            config.getProperty("spark.submit.tracing.export-interval", "30s")));
+        maxHttpSpans = Math.max(0, config.getIntProperty("spark.submit.tracing.max-http-spans", maxHttpSpans));
+        enabled = file != null || endpoint != null;
+        if (enabled) {
+            Thread exporter = new Thread(this::exportLoop, "spark-submit-trace-export");
+            exporter.setDaemon(true);
+            exporter.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::exportAll, "spark-submit-trace-export"));
+        } else {
+            synchronized (open) {
+                open.clear();
+                ended.clear();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public Span getRoot() {
+        return root;
+    }
+
+    public Span startSpan(String name) {
+        return startSpan(name, root, KIND_INTERNAL);
+    }
+
+    /**
+     * Make {@code span} the parent of subsequent HTTP spans (the root span when null)
+     */
+    public void activate(Span span) {
+        current = span;
+    }
+
+    public Span startSpan(String name, Span parent) {
+        return startSpan(name, parent, KIND_INTERNAL);
+    }
+
+    public Span startSpan(String name, Span parent, int kind) {
+        Span owner = parent != null ? parent : root;
+        Span span = new Span(name, owner.spanId, owner, kind);
+        if (enabled) {
+            synchronized (open) {
+                open.add(span);
+            }
+        }
+        return span;
+    }
+
+    /**
+     * Queue an ended span for export, or fold a successful HTTP span into its parent's counts
+     * once the parent has enough of them
+     */
+    private void finished(Span span) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (open) {
+            if (!open.remove(span)) {
+                return;
+            }
+            if (span.kind == KIND_CLIENT && span.parent != null) {
+                Span parent = span.parent;
+                parent.setAttribute("http.request.count", ++parent.httpRequests);
+                if (span.error == null && parent.httpRequests > maxHttpSpans) {
+                    parent.setAttribute("http.spans.dropped", ++parent.droppedHttpSpans);
+                    return;
+                }
+            }
+            ended.add(span);
+            if (ended.size() >= batchSize) {
+                open.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Put the trace context into the Spark conf so driver-side telemetry can join the trace
+     */
+    public void propagate(SparkSubmitArgs args, Span parent) {
+        if (enabled) {
+            args.getConf().put("spark.kubernetes.driver.label.spark-submit-trace-id", traceId);
+            args.getConf().put("spark.kubernetes.driverEnv.TRACEPARENT", parent.traceparent());
+        }
+    }
+
+    /**
+     * Starts a client span for each HTTP request and sends its traceparent header
+     */
+    public HttpRequestInterceptor requestInterceptor() {
+        return (request, context) -> {
+            if (!enabled) {
+                return;
+            }
+            String uri = request.getRequestLine().getUri();
+            int query = uri.indexOf('?');
+            Span span = startSpan("HTTP " + request.getRequestLine().getMethod(), current, KIND_CLIENT)
+                .setAttribute("http.request.method", request.getRequestLine().getMethod())
+                .setAttribute("url.path", query >= 0 ? uri.substring(0, query) : uri);
+            request.setHeader("traceparent", span.traceparent());
+            context.setAttribute(SPAN_ATTRIBUTE, span);
+        };
+    }
+
+    /**
+     * Ends the request's span when the response arrives
+     */
+    public HttpResponseInterceptor responseInterceptor() {
+        return (response, context) -> {
+            Object span = context.getAttribute(SPAN_ATTRIBUTE);
+            if (span instanceof Span) {
+                int code = response.getStatusLine().getStatusCode();
+                ((Span) span).setAttribute("http.response.status_code", code);
+                if (code >= 400) {
+                    ((Span) span).setError("HTTP " + code);
+                }
+                ((Span) span).end();
+            }
+        };
+    }
+
+    private long now() {
+        return epochNanos + (System.nanoTime() - baseNanos);
+    }
+
+    private static String randomHex(int bytes) {
+        byte[] buffer = new byte[bytes];
+        RANDOM.nextBytes(buffer);
+        StringBuilder sb = new StringBuilder(bytes * 2);
+        for (byte b : buffer) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Take up to one batch of ended spans, or all of them
+     */
+    private List<Span> drain(boolean all) {
+        synchronized (open) {
+            int size = all ? ended.size() : Math.min(batchSize, ended.size());
+            List<Span> batch = new ArrayList<>(ended.subList(0, size));
+            ended.subList(0, size).clear();
+            return batch;
+        }
+    }
+
+    /**
+     * Export a batch whenever one is full, and whatever has ended at every interval
+     */
+    private void exportLoop() {
+        try {
+            while (true) {
+                synchronized (open) {
+                    if (ended.size() < batchSize) {
+                        open.wait(exportIntervalMs);
+                    }
+                }
+                // Drain under the export lock, so the exit export waits for a batch taken here
+                synchronized (exportLock) {
+                    List<Span> batch = drain(false);
+                    if (!batch.isEmpty()) {
+                        export(batch);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * On exit: end the spans still open and export everything left, a batch per request
+     */
+    private void exportAll() {
+        List<Span> running;
+        synchronized (open) {
+            running = new ArrayList<>(open);
+        }
+        for (Span span : running) {
+            if (span.end == 0 && span.kind == KIND_CLIENT) {
+                span.setError("no response");
+            }
+            span.end();
+        }
+        synchronized (exportLock) {
+            List<Span> rest = drain(true);
+            for (int i = 0; i < rest.size(); i += batchSize) {
+                export(rest.subList(i, Math.min(rest.size(), i + batchSize)));
+            }
+        }
+    }
+
+    /**
+     * Build the OTLP/JSON export request for ended spans
+     */
+    JsonObject toOtlp(List<Span> spans) {
+        JsonArray spanArray = new JsonArray();
+        for (Span span : spans) {
+            spanArray.add(toOtlp(span));
+        }
+        JsonObject scope = new JsonObject();
+        scope.addProperty("name", "com.aliyun.emr.ack");
+        JsonObject scopeSpans = new JsonObject();
+        scopeSpans.add("scope", scope);
+        scopeSpans.add("spans", spanArray);
+        JsonArray scopeSpansArray = new JsonArray();
+        scopeSpansArray.add(scopeSpans);
+
+        Map<String, Object> resourceAttributes = new LinkedHashMap<>();
+        resourceAttributes.put("service.name", serviceName);
+        JsonObject resource = new JsonObject();
+        resource.add("attributes", attributes(resourceAttributes));
+        JsonObject resourceSpans = new JsonObject();
+        resourceSpans.add("resource", resource);
+        resourceSpans.add("scopeSpans", scopeSpansArray);
+        JsonArray resourceSpansArray = new JsonArray();
+        resourceSpansArray.add(resourceSpans);
+        JsonObject request = new JsonObject();
+        request.add("resourceSpans", resourceSpansArray);
+        return request;
+    }
+
+    private JsonObject toOtlp(Span span) {
+        JsonObject json = new JsonObject();
+        json.addProperty("traceId", traceId);
+        json.addProperty("spanId", span.spanId);
+        if (span.parentId != null) {
+            json.addProperty("parentSpanId", span.parentId);
+        }
+        json.addProperty("name", span.name);
+        json.addProperty("kind", span.kind);
+        // int64 values are strings in OTLP/JSON
+        json.addProperty("startTimeUnixNano", String.valueOf(span.start));
+        json.addProperty("endTimeUnixNano", String.valueOf(span.end));
+        synchronized (span.attributes) {
+            json.add("attributes", attributes(span.attributes));
+        }
+        if (span.error != null) {
+            JsonObject status = new JsonObject();
+            status.addProperty("code", 2);
+            status.addProperty("message", span.error);
+            json.add("status", status);
+        }
+        return json;
+    }
+
+    private static JsonArray attributes(Map<String, Object> values) {
+        JsonArray array = new JsonArray();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            JsonObject value = new JsonObject();
+            Object v = entry.getValue();
+            if (v instanceof Integer || v instanceof Long) {
+                value.addProperty("intValue", String.valueOf(v));
+            } else if (v instanceof Number) {
+                value.addProperty("doubleValue", (Number) v);
+            } else if (v instanceof Boolean) {
+                value.addProperty("boolValue", (Boolean) v);
+            } else {
+                value.addProperty("stringValue", String.valueOf(v));
+            }
+            JsonObject attribute = new JsonObject();
+            attribute.addProperty("key", entry.getKey());
+            attribute.add("value", value);
+            array.add(attribute);
+        }
+        return array;
+    }
+
+    /**
+     * Send one request to the file and the collector; each failure is reported once, so an
+     * unreachable collector does not interrupt the job output at every batch
+     */
+    private void export(List<Span> spans) {
+        String json = new Gson().toJson(toOtlp(spans));
+        if (file != null) {
+            File target = new File(file);
+            if (target.getParentFile() != null) {
+                target.getParentFile().mkdirs();
+            }
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(target, true), StandardCharsets.UTF_8)) {
+                writer.write(json);
+                writer.write('\n');
+            } catch (IOException e) {
+                if (!fileFailed) {
+                    System.err.println("Warning: Failed to write trace to " + file + ": " + e.getMessage());
+                    fileFailed = true;
+                }
+            }
+        }
+        if (endpoint != null) {
+            RequestConfig timeouts = RequestConfig.custom()
+                .setConnectTimeout(EXPORT_TIMEOUT_MS)
+                .setSocketTimeout(EXPORT_TIMEOUT_MS)
+                .build();
+            try (CloseableHttpClient http = HttpClients.custom().setDefaultRequestConfig(timeouts).build()) {
+                HttpPost post = new HttpPost(endpoint);
+                post.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+                try (CloseableHttpResponse response = http.execute(post)) {
+                    int code = response.getStatusLine().getStatusCode();
+                    if (code >= 300 && !endpointFailed) {
+                        System.err.println("Warning: Trace export to " + endpoint + " returned HTTP " + code);
+                        endpointFailed = true;
+                    }
+                }
+            } catch (IOException e) {
+                if (!endpointFailed) {
+                    System.err.println("Warning: Failed to export trace to " + endpoint + ": " + e.getMessage());
+                    endpointFailed = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.aliyun.emr.ack;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-enforced run limits: kills a batch that stays PENDING too long, runs too long or is
+ * still live at a deadline.
+ *
+ * Phase times come from the polled batch status: the pending phase starts at the batch's
+ * {@code createTime}, the running phase when RUNNING is first seen (or at {@code appStartTime}
+ * if that is earlier). Limits come from the command line or the config file:
+ * <pre>
+ *   spark.submit.pending-timeout=30m   (--pending-timeout)
+ *   spark.submit.timeout=4h            (--timeout, time spent RUNNING)
+ * </pre>
+ * When following a batch, the limits are checked every second on a separate thread, so they
+ * are enforced even while a log fetch is stalled. Before killing, the status is fetched once
+ * more so that a batch that has just started running is not killed for its pending limit.
+ */
+public class Watchdog {
+    /** Exit code after the batch was killed for exceeding a limit (as coreutils timeout) */
+    public static final int EXIT_TIMEOUT = 124;
+
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private final long pendingTimeoutMs;
+    private final long runTimeoutMs;
+    private final long deadline;
+
+    private long pendingSince;
+    private long runningSince;
+    private String state;
+    private boolean stopped;
+    private ScheduledExecutorService executor;
+
+    public Watchdog(Config config, SparkSubmitArgs args) {
+        this.pendingTimeoutMs = limit(args.getPendingTimeoutMs(), config, "spark.submit.pending-timeout");
+        this.runTimeoutMs = limit(args.getTimeoutMs(), config, "spark.submit.timeout");
+        this.deadline = args.getDeadline() != null ? args.getDeadline() : 0;
+    }
+
+    private static long limit(Long value, Config config, String key) {
+        if (value != null) {
+            return value;
+        }
+        String v = config.getProperty(key, null);
+        return v != null && !v.trim().isEmpty() ? TimeUtils.parseDuration(v) : 0;
+    }
+
+    public boolean isEnabled() {
+        return pendingTimeoutMs > 0 || runTimeoutMs > 0 || deadline > 0;
+    }
+
+    /**
+     * Update phase times from a polled status
+     */
+    public synchronized void observe(KyuubiClient.BatchResponse status, long now) {
+        if (pendingSince == 0) {
+            Long created = status.getCreateTime();
+            pendingSince = created != null && created > 0 && created <= now ? created : now;
+        }
+        if (status.getState() != null) {
+            state = status.getState();
+        }
+        if (runningSince == 0 && state != null && !"PENDING".equals(state)) {
+            Long appStart = status.getAppStartTime();
+            runningSince = appStart != null && appStart > 0 && appStart < now ? appStart : now;
+        }
+    }
+
+    /**
+     * The limit exceeded at {@code now}, or null
+     */
+    public synchronized String check(long now) {
+        if (pendingSince == 0 || isFinished()) {
+            return null;
+        }
+        if (deadline > 0 && now >= deadline) {
+            return "deadline " + Instant.ofEpochMilli(deadline) + " passed";
+        }
+        if (runningSince == 0 && pendingTimeoutMs > 0 && now - pendingSince >= pendingTimeoutMs) {
+            return "pending for " + TimeUtils.formatDuration(now - pendingSince)
+                + " (limit " + TimeUtils.formatDuration(pendingTimeoutMs) + ")";
+        }
+        if (runningSince > 0 && runTimeoutMs > 0 && now - runningSince >= runTimeoutMs) {
+            return "running for " + TimeUtils.formatDuration(now - runningSince)
+                + " (limit " + TimeUtils.formatDuration(runTimeoutMs) + ")";
+        }
+        return null;
+    }
+
+    private boolean isFinished() {
+        return "FINISHED".equals(state) || "ERROR".equals(state) || "CANCELED".equals(state);
+    }
+
+    /**
+     * e.g. "pending 2m 03s, running 1h 00m 00s"
+     */
+    public synchronized String phaseSummary(long now) {
+        if (pendingSince == 0) {
+            return "not started";
+        }
+        long pendingEnd = runningSince > 0 ? runningSince : now;
+        String summary = "pending " + TimeUtils.formatDuration(Math.max(0, pendingEnd - pendingSince));
+        if (runningSince > 0) {
+            summary += ", running " + TimeUtils.formatDuration(Math.max(0, now - runningSince));
+        }
+        return summary;
+    }
+
+    /**
+     * Check the limits every second in the background; kills the batch and exits with
+     * {@link #EXIT_TIMEOUT} when one is exceeded, after running {@code beforeExit} (e.g. to flush
+     * buffered log output)
+     */
+    public void start(KyuubiClient client, String batchId, EventWriter events, Runnable beforeExit) {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "spark-submit-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> enforce(client, batchId, events, beforeExit),
+            CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void enforce(KyuubiClient client, String batchId, EventWriter events, Runnable beforeExit) {
+        if (check(System.currentTimeMillis()) == null) {
+            return;
+        }
+        try {
+            observe(client.getBatch(batchId), System.currentTimeMillis());
+        } catch (IOException e) {
+            // Enforce on the last known state
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            String reason = check(now);
+            if (stopped || reason == null) {
+                return;
+            }
+            System.out.flush();
+            System.err.println("\n⏱️  Limit exceeded: " + reason);
+            System.err.println("Killing Batch ID: " + batchId);
+            boolean killed = true;
+            try {
+                client.killBatch(batchId);
+            } catch (IOException e) {
+                killed = false;
+                System.err.println("⚠️  Kill request failed: " + e.getMessage());
+            }
+            System.err.println("Last State: " + state);
+            System.err.println("Timing: " + phaseSummary(now));
+            if (events != null) {
+                JsonObject fields = new JsonObject();
+                fields.addProperty("reason", reason);
+                fields.addProperty("state", state);
+                fields.addProperty("killed", killed);
+                fields.addProperty("phases", phaseSummary(now));
+                fields.addProperty("exitCode", EXIT_TIMEOUT);
+                events.event("timeout", batchId, fields);
+            }
+            if (beforeExit != null) {
+                beforeExit.run();
+            }
+            System.out.flush();
+            System.err.flush();
+            System.exit(EXIT_TIMEOUT);
+        }
+    }
+
+    /**
+     * Stop enforcing; called once the batch has finished. Waits for a kill in progress.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
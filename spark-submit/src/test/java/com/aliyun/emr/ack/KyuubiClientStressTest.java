@@ -0,0 +1,196 @@
+package com.aliyun.emr.ack;
+
+import junit.framework.TestCase;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.pool.PoolStats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares one KyuubiClient across 1 to {@link #MAX_THREADS} threads calling submit, status, log
+ * and kill against {@link KyuubiStubServer} with injected latency and failures. After every
+ * round the pool must have no leased connections and no waiting threads, and every response
+ * must belong to its own request. Prints the throughput at each thread count.
+ */
+public class KyuubiClientStressTest extends TestCase {
+    private static final int MAX_THREADS = 16;
+    private static final int CALLS_PER_THREAD = 80;
+    private static final int MAX_LATENCY_MS = 5;
+    private static final double FAILURE_RATE = 0.05;
+
+    private KyuubiStubServer server;
+    private File configFile;
+
+    private static class Round {
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final List<String> problems = new CopyOnWriteArrayList<>();
+        long elapsedMs;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new KyuubiStubServer();
+        configFile = File.createTempFile("spark-submit-stress", ".conf");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop();
+        configFile.delete();
+    }
+
+    private KyuubiClient newClient(int maxConnections, String poolTimeout) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("kyuubi.server.url", server.getUrl());
+        props.setProperty("kyuubi.client.max.connections", String.valueOf(maxConnections));
+        props.setProperty("kyuubi.client.pool-timeout", poolTimeout);
+        props.setProperty("kyuubi.client.socket-timeout", "10s");
+        try (OutputStream out = new FileOutputStream(configFile)) {
+            props.store(out, null);
+        }
+        return new KyuubiClient(new Config(configFile.getPath()));
+    }
+
+    public void testSharedClientUnderLoad() throws Exception {
+        server.setMaxLatencyMs(MAX_LATENCY_MS);
+        server.setFailureRate(FAILURE_RATE);
+        KyuubiClient client = newClient(MAX_THREADS, "10s");
+        int failed = 0;
+        try {
+            System.out.println("threads  calls/s  failed");
+            for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+                Round round = runRound(client, threads);
+                PoolStats stats = client.getPoolStats();
+                assertEquals("leased connections after " + threads + " threads", 0, stats.getLeased());
+                assertEquals("threads waiting for a connection after " + threads + " threads", 0, stats.getPending());
+                assertTrue(round.problems.toString(), round.problems.isEmpty());
+                assertEquals(threads * CALLS_PER_THREAD, round.succeeded.get() + round.failed.get());
+                failed += round.failed.get();
+                System.out.println(String.format("%7d  %7.0f  %6d", threads,
+                    threads * CALLS_PER_THREAD * 1000.0 / Math.max(1, round.elapsedMs), round.failed.get()));
+            }
+        } finally {
+            client.close();
+        }
+        assertTrue("injected failures surface as errors", failed > 0);
+    }
+
+    public void testPoolStarvationTimesOut() throws Exception {
+        KyuubiClient client = newClient(1, "200ms");
+        try {
+            // Hold the only connection with a slow request
+            Thread holder = new Thread(() -> {
+                try {
+                    client.getBatch("slow-1");
+                } catch (IOException e) {
+                    // Only the second caller matters
+                }
+            });
+            holder.start();
+            long deadline = System.currentTimeMillis() + KyuubiStubServer.SLOW_MS / 2;
+            while (client.getPoolStats().getLeased() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, client.getPoolStats().getLeased());
+
+            long start = System.currentTimeMillis();
+            try {
+                client.getBatch("starved-1");
+                fail("Expected a pool timeout while the only connection is leased");
+            } catch (ConnectionPoolTimeoutException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Timeout waiting for connection from pool"));
+                assertTrue("failed before the slow request finished",
+                    System.currentTimeMillis() - start < KyuubiStubServer.SLOW_MS);
+            }
+
+            holder.join();
+            assertEquals(0, client.getPoolStats().getLeased());
+            assertEquals(0, client.getPoolStats().getPending());
+            assertEquals("starved-2", client.getBatch("starved-2").getId());
+        } finally {
+            client.close();
+        }
+    }
+
+    private Round runRound(KyuubiClient client, int threads) throws InterruptedException {
+        Round round = new Round();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            String prefix = "r" + threads + "-t" + t + "-";
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < CALLS_PER_THREAD; i++) {
+                    call(client, prefix + i, i, round);
+                }
+            });
+        }
+        long begin = System.currentTimeMillis();
+        start.countDown();
+        executor.shutdown();
+        assertTrue("round with " + threads + " threads finished", executor.awaitTermination(2, TimeUnit.MINUTES));
+        round.elapsedMs = System.currentTimeMillis() - begin;
+        return round;
+    }
+
+    /**
+     * One submit, status, log or kill call; records a response that is not its own as a problem
+     */
+    private void call(KyuubiClient client, String id, int i, Round round) {
+        try {
+            String mismatch = null;
+            switch (i % 4) {
+                case 0: {
+                    SparkSubmitArgs args = new SparkSubmitArgs();
+                    args.setName(id);
+                    args.setResource("oss://bucket/app.jar");
+                    String got = client.submitBatch(args).getId();
+                    mismatch = id.equals(got) ? null : "submit " + id + " returned batch " + got;
+                    break;
+                }
+                case 1: {
+                    String got = client.getBatch(id).getId();
+                    mismatch = id.equals(got) ? null : "status of " + id + " returned batch " + got;
+                    break;
+                }
+                case 2: {
+                    List<String> lines = client.getBatchLogs(id, i, 10).getLogRowSet();
+                    String expected = id + " " + i;
+                    mismatch = lines != null && lines.size() == 1 && expected.equals(lines.get(0)) ? null
+                        : "logs of " + id + " from " + i + " returned " + lines;
+                    break;
+                }
+                default:
+                    client.killBatch(id);
+                    mismatch = server.getKills().contains(id) ? null : "kill of " + id + " did not reach the server";
+            }
+            if (mismatch != null) {
+                round.problems.add(mismatch);
+            } else {
+                round.succeeded.incrementAndGet();
+            }
+        } catch (IOException e) {
+            if (e.getMessage() != null && e.getMessage().contains(KyuubiStubServer.FAILURE)) {
+                round.failed.incrementAndGet();
+            } else {
+                round.problems.add(id + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.aliyun.emr.ack;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In-process stand-in for the Kyuubi batch REST API. Every answer is derived from the request
+ * alone, so a caller can tell whether the response it got belongs to its own request:
+ * <pre>
+ *   POST   /api/v1/batches                       batch whose id is the submitted name
+ *   GET    /api/v1/batches/{id}                  RUNNING batch {id}
+ *   GET    /api/v1/batches/{id}/localLog?from=N  one log line "{id} N"
+ *   DELETE /api/v1/batches/{id}                  recorded in {@link #getKills()}
+ * </pre>
+ * Each request is delayed by up to the injected latency and fails with HTTP 500 at the injected
+ * failure rate; requests for ids starting with {@code slow-} take {@link #SLOW_MS}.
+ */
+class KyuubiStubServer {
+    static final String FAILURE = "injected failure";
+    static final long SLOW_MS = 1000;
+
+    private static final String BATCHES = "/api/v1/batches";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Set<String> kills = ConcurrentHashMap.newKeySet();
+    private volatile int maxLatencyMs;
+    private volatile double failureRate;
+
+    KyuubiStubServer() throws IOException {
+        // Without TCP_NODELAY every keep-alive response waits out the client's delayed ACK,
+        // which caps each connection at ~25 calls/s whatever the injected latency
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        server.createContext(BATCHES, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    void setMaxLatencyMs(int maxLatencyMs) {
+        this.maxLatencyMs = maxLatencyMs;
+    }
+
+    void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    Set<String> getKills() {
+        return kills;
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath().substring(BATCHES.length());
+            String body = read(exchange.getRequestBody());
+            String id = path.length() > 1 ? path.substring(1).split("/")[0] : null;
+            delay(id);
+            if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                respond(exchange, 500, "{\"message\":\"" + FAILURE + "\"}");
+                return;
+            }
+
+            JsonObject response = new JsonObject();
+            if ("POST".equals(method) && id == null) {
+                response.addProperty("id", JsonParser.parseString(body).getAsJsonObject().get("name").getAsString());
+                response.addProperty("state", "PENDING");
+            } else if ("GET".equals(method) && path.endsWith("/localLog")) {
+                JsonArray lines = new JsonArray();
+                lines.add(id + " " + query(exchange, "from"));
+                response.add("logRowSet", lines);
+                response.addProperty("rowCount", 1);
+            } else if ("GET".equals(method) && id != null) {
+                response.addProperty("id", id);
+                response.addProperty("state", "RUNNING");
+            } else if ("DELETE".equals(method) && id != null) {
+                kills.add(id);
+                response.addProperty("success", true);
+            } else {
+                respond(exchange, 404, "{\"message\":\"not found\"}");
+                return;
+            }
+            respond(exchange, 200, response.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void delay(String id) {
+        long ms = id != null && id.startsWith("slow-") ? SLOW_MS
+            : maxLatencyMs > 0 ? ThreadLocalRandom.current().nextInt(maxLatencyMs + 1) : 0;
+        if (ms > 0) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String query(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getQuery();
+        for (String pair : query != null ? query.split("&") : new String[0]) {
+            if (pair.startsWith(name + "=")) {
+                return pair.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            buffer.write(chunk, 0, n);
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}